@@ -0,0 +1,179 @@
+package conquest;
+
+import java.io.*;
+
+public final class AsyncLog {
+	
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	public interface Sink {
+		
+		public void write(String[] lines, int count);
+		
+	}
+	
+	private final Sink sink;
+	private final String[] pending;
+	private final String[] batch;
+	private final Thread writeThread;
+	
+	private int head, size;
+	private long dropped;
+	private boolean closed;
+	
+	public AsyncLog(Sink sink) {
+		this(sink, DEFAULT_CAPACITY);
+	}
+	
+	public AsyncLog(Sink sink, int capacity) {
+		
+		if(capacity < 1)
+			throw new IllegalArgumentException();
+		
+		this.sink = sink;
+		this.pending = new String[capacity];
+		this.batch = new String[capacity + 1];
+		
+		this.writeThread = new Thread(new Writer(), "Log writer");
+		this.writeThread.setDaemon(true);
+		this.writeThread.start();
+		
+	}
+	
+	// Never blocks the caller for I/O; lines are dropped when the buffer is full
+	public void log(String line) {
+		
+		synchronized(pending) {
+			
+			if(closed)
+				return;
+			
+			if(size == pending.length) {
+				
+				++dropped;
+				return;
+				
+			}
+			
+			pending[(head + size) % pending.length] = line;
+			
+			if(size++ == 0)
+				pending.notify();
+			
+		}
+		
+	}
+	
+	// Writes everything logged so far and stops the writer
+	public void close() {
+		
+		synchronized(pending) {
+			
+			closed = true;
+			pending.notify();
+			
+		}
+		
+		try {
+			writeThread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+	}
+	
+	private final class Writer implements Runnable {
+		
+		@Override
+		public void run() {
+			
+			for(;;) {
+				
+				int count = 0;
+				boolean last;
+				
+				synchronized(pending) {
+					
+					while(size == 0 && !closed) {
+						
+						try {
+							pending.wait();
+						} catch(InterruptedException e) {
+							return;
+						}
+						
+					}
+					
+					if(dropped != 0) {
+						
+						batch[count++] = "(" + dropped + " log messages dropped)";
+						dropped = 0;
+						
+					}
+					
+					while(size != 0) {
+						
+						batch[count++] = pending[head];
+						pending[head] = null;
+						
+						head = (head + 1) % pending.length;
+						--size;
+						
+					}
+					
+					last = closed;
+					
+				}
+				
+				if(count != 0) {
+					
+					try {
+						sink.write(batch, count);
+					} catch(Exception e) {}
+					
+					for(int i = 0; i < count; ++i)
+						batch[i] = null;
+					
+				}
+				
+				if(last)
+					return;
+				
+			}
+			
+		}
+		
+	}
+	
+	public static Sink streamSink(PrintStream stream) {
+		return new StreamSink(stream);
+	}
+	
+	private static final class StreamSink implements Sink {
+		
+		private final PrintStream stream;
+		private final StringBuilder builder;
+		
+		public StreamSink(PrintStream stream) {
+			
+			this.stream = stream;
+			this.builder = new StringBuilder();
+			
+		}
+		
+		@Override
+		public void write(String[] lines, int count) {
+			
+			builder.setLength(0);
+			
+			for(int i = 0; i < count; ++i)
+				builder.append(lines[i]).append(System.lineSeparator());
+			
+			stream.print(builder);
+			stream.flush();
+			
+		}
+		
+	}
+
+}
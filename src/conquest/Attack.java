@@ -56,15 +56,19 @@ public final class Attack extends Message {
 	}
 	
 	public static Attack fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Attack fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.ATTACK, message, length))
+		if(!validateHeader(MessageType.ATTACK, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
 		if(length != LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		int fromID = message[i++] & 0xff;
 		int toID   = message[i++] & 0xff;
@@ -0,0 +1,186 @@
+package conquest;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// The spectators of one room. The room hands each message over once and the
+// audience writes the same bytes to every spectator on the server's spectator
+// threads, which run below the rooms, so watchers only get the time players
+// leave over. Spectators see the state every player sees, without cards, and
+// only the newest state and player list are kept for them: a state that is
+// replaced before it was sent is never sent.
+public final class Audience {
+	
+	private final Executor executor;
+	private final Queue<byte[]> messages;
+	private final Queue<ServerInstance.ClientConnection> joining, leaving;
+	private final AtomicInteger size;
+	private final AtomicReference<byte[]> nextState, nextPlayers;
+	private final AtomicBoolean scheduled;
+	private final Runnable fanOut;
+	
+	// Only used by the fan out, which also does the joining and leaving so a
+	// spectator is never sent a state before the player list it needs to
+	// read it
+	private ServerInstance.ClientConnection[] spectators;
+	private byte[] state, players;
+	
+	public Audience(Executor executor) {
+		
+		this.executor = executor;
+		this.messages = new ConcurrentLinkedQueue<byte[]>();
+		this.joining = new ConcurrentLinkedQueue<ServerInstance.ClientConnection>();
+		this.leaving = new ConcurrentLinkedQueue<ServerInstance.ClientConnection>();
+		this.size = new AtomicInteger();
+		this.nextState = new AtomicReference<byte[]>();
+		this.nextPlayers = new AtomicReference<byte[]>();
+		this.scheduled = new AtomicBoolean();
+		this.spectators = new ServerInstance.ClientConnection[0];
+		
+		this.fanOut = new Runnable() {
+			public void run() {
+				fanOut();
+			}
+		};
+		
+	}
+	
+	public int size() {
+		return size.get();
+	}
+	
+	// Returns false if the audience already has the most spectators allowed
+	public boolean add(ServerInstance.ClientConnection spectator, int maxSpectators) {
+		
+		for(;;) {
+			
+			int size = this.size.get();
+			
+			if(size >= maxSpectators)
+				return false;
+			
+			if(this.size.compareAndSet(size, size + 1))
+				break;
+			
+		}
+		
+		joining.add(spectator);
+		schedule();
+		
+		return true;
+		
+	}
+	
+	public void remove(ServerInstance.ClientConnection spectator) {
+		
+		size.decrementAndGet();
+		
+		leaving.add(spectator);
+		schedule();
+		
+	}
+	
+	// A state encoded with GameData.toSharedBytes(), replaces any state not
+	// sent yet
+	public void publishState(byte[] state) {
+		
+		nextState.set(state);
+		schedule();
+		
+	}
+	
+	public void publishPlayers(byte[] players) {
+		
+		nextPlayers.set(players);
+		schedule();
+		
+	}
+	
+	// Chat and everything else that is sent in order and never replaced
+	public void publish(byte[] message) {
+		
+		messages.add(message);
+		schedule();
+		
+	}
+	
+	private void schedule() {
+		
+		if(!scheduled.compareAndSet(false, true))
+			return;
+		
+		// Nothing runs once the server has shut down
+		try {
+			executor.execute(fanOut);
+		} catch(RejectedExecutionException e) {}
+		
+	}
+	
+	private void fanOut() {
+		
+		ServerInstance.ClientConnection spectator;
+		
+		// Newcomers first catch up with what everyone else was already sent
+		while((spectator = joining.poll()) != null) {
+			
+			if(players != null)
+				spectator.sendMessage(players);
+			
+			if(state != null)
+				spectator.sendMessage(state);
+			
+			spectators = Arrays.copyOf(spectators, spectators.length + 1);
+			spectators[spectators.length - 1] = spectator;
+			
+		}
+		
+		while((spectator = leaving.poll()) != null)
+			removeSpectator(spectator);
+		
+		byte[] message;
+		
+		while((message = messages.poll()) != null)
+			send(message);
+		
+		// The player list goes first, spectators need it to read the state
+		if((message = nextPlayers.getAndSet(null)) != null)
+			send(players = message);
+		
+		if((message = nextState.getAndSet(null)) != null)
+			send(state = message);
+		
+		scheduled.set(false);
+		
+		// Published after the last check
+		if(!joining.isEmpty() || !leaving.isEmpty() || !messages.isEmpty() || nextPlayers.get() != null || nextState.get() != null)
+			schedule();
+		
+	}
+	
+	private void removeSpectator(ServerInstance.ClientConnection spectator) {
+		
+		for(int i = 0; i < spectators.length; ++i) {
+			
+			if(spectators[i] != spectator)
+				continue;
+			
+			ServerInstance.ClientConnection[] remaining = new ServerInstance.ClientConnection[spectators.length - 1];
+			System.arraycopy(spectators, 0, remaining, 0, i);
+			System.arraycopy(spectators, i + 1, remaining, i, remaining.length - i);
+			spectators = remaining;
+			
+			return;
+			
+		}
+		
+	}
+	
+	private void send(byte[] message) {
+		
+		for(ServerInstance.ClientConnection spectator : spectators)
+			spectator.sendMessage(message);
+		
+	}
+
+}
@@ -0,0 +1,218 @@
+package conquest;
+
+import java.util.*;
+
+// Exact odds for attacks. Single rolls are worked out by going through every
+// combination of dice, and whole battles by chaining rolls together, always
+// rolling as many dice as allowed, until one side has no armies left to fight
+// with. Attackers are the armies that can attack, one less than the armies in
+// the attacking territory.
+public final class BattleOdds {
+	
+	public static final int MAX_ATTACKER_DICE = 3;
+	public static final int MAX_DEFENDER_DICE = 2;
+	public static final int DEFAULT_CAP = 128;
+	
+	// ROLL[a][d][k] is the chance the attacker loses k armies (and the
+	// defender d - k) when rolling a dice against d
+	private static final double[][][] ROLL = calculateRolls();
+	
+	private static volatile BattleOdds defaultOdds;
+	
+	private final int cap;
+	private final double[][] conquest;
+	private final double[][] attackerSurvivors;
+	private final double[][] defenderSurvivors;
+	
+	public BattleOdds(int cap) {
+		
+		if(cap < 1)
+			throw new IllegalArgumentException();
+		
+		this.cap = cap;
+		this.conquest = new double[cap + 1][cap + 1];
+		this.attackerSurvivors = new double[cap + 1][cap + 1];
+		this.defenderSurvivors = new double[cap + 1][cap + 1];
+		
+		// Battles that are over
+		for(int i = 0; i <= cap; ++i) {
+			
+			conquest[i][0] = 1.0;
+			attackerSurvivors[i][0] = i;
+			defenderSurvivors[0][i] = i;
+			
+		}
+		
+		// Each roll takes at least one army off, so smaller battles are
+		// always already known
+		for(int attackers = 1; attackers <= cap; ++attackers) {
+			
+			for(int defenders = 1; defenders <= cap; ++defenders) {
+				
+				int attackerDice = Math.min(MAX_ATTACKER_DICE, attackers);
+				int defenderDice = defenderDice(attackerDice, defenders);
+				double[] roll = ROLL[attackerDice][defenderDice];
+				
+				double p = 0.0, a = 0.0, d = 0.0;
+				
+				for(int lost = 0; lost <= defenderDice; ++lost) {
+					
+					int nextAttackers = attackers - lost;
+					int nextDefenders = defenders - (defenderDice - lost);
+					
+					p += roll[lost] * conquest[nextAttackers][nextDefenders];
+					a += roll[lost] * attackerSurvivors[nextAttackers][nextDefenders];
+					d += roll[lost] * defenderSurvivors[nextAttackers][nextDefenders];
+					
+				}
+				
+				conquest[attackers][defenders] = p;
+				attackerSurvivors[attackers][defenders] = a;
+				defenderSurvivors[attackers][defenders] = d;
+				
+			}
+			
+		}
+		
+	}
+	
+	public static BattleOdds getDefault() {
+		
+		BattleOdds odds = defaultOdds;
+		
+		if(odds == null)
+			defaultOdds = odds = new BattleOdds(DEFAULT_CAP);
+		
+		return odds;
+		
+	}
+	
+	// How many dice the defender rolls against an attack
+	public static int defenderDice(int attackerDice, int defendingArmies) {
+		return Math.min(MAX_DEFENDER_DICE, Math.min(defendingArmies, attackerDice));
+	}
+	
+	public static double rollProbability(int attackerDice, int defenderDice, int attackerLosses) {
+		
+		if(attackerDice < 1 || attackerDice > MAX_ATTACKER_DICE || defenderDice < 1 || defenderDice > Math.min(MAX_DEFENDER_DICE, attackerDice))
+			throw new IllegalArgumentException();
+		
+		if(attackerLosses < 0 || attackerLosses > defenderDice)
+			return 0.0;
+		
+		return ROLL[attackerDice][defenderDice][attackerLosses];
+		
+	}
+	
+	// Picks how many armies the attacker loses in one roll, with the same
+	// odds as rolling the dice
+	public static int sampleAttackerLosses(Random random, int attackerDice, int defenderDice) {
+		
+		double[] roll = ROLL[attackerDice][defenderDice];
+		double r = random.nextDouble();
+		
+		for(int lost = 0; lost < defenderDice; ++lost) {
+			
+			r -= roll[lost];
+			
+			if(r < 0.0)
+				return lost;
+			
+		}
+		
+		return defenderDice;
+		
+	}
+	
+	public int getCap() {
+		return cap;
+	}
+	
+	public boolean covers(int attackers, int defenders) {
+		return attackers >= 0 && attackers <= cap && defenders >= 0 && defenders <= cap;
+	}
+	
+	public double conquestProbability(int attackers, int defenders) {
+		
+		checkCovered(attackers, defenders);
+		return conquest[attackers][defenders];
+		
+	}
+	
+	public double expectedAttackerSurvivors(int attackers, int defenders) {
+		
+		checkCovered(attackers, defenders);
+		return attackerSurvivors[attackers][defenders];
+		
+	}
+	
+	public double expectedDefenderSurvivors(int attackers, int defenders) {
+		
+		checkCovered(attackers, defenders);
+		return defenderSurvivors[attackers][defenders];
+		
+	}
+	
+	private void checkCovered(int attackers, int defenders) {
+		
+		if(!covers(attackers, defenders))
+			throw new IllegalArgumentException("Battle of " + attackers + " against " + defenders + " is not covered");
+		
+	}
+	
+	private static double[][][] calculateRolls() {
+		
+		double[][][] rolls = new double[MAX_ATTACKER_DICE + 1][MAX_DEFENDER_DICE + 1][];
+		
+		for(int attackerDice = 1; attackerDice <= MAX_ATTACKER_DICE; ++attackerDice) {
+			
+			for(int defenderDice = 1; defenderDice <= Math.min(MAX_DEFENDER_DICE, attackerDice); ++defenderDice) {
+				
+				int[] counts = new int[defenderDice + 1];
+				int[] diceAttacker = new int[attackerDice];
+				int[] diceDefender = new int[defenderDice];
+				
+				int dice = attackerDice + defenderDice;
+				int combinations = 1;
+				
+				for(int i = 0; i < dice; ++i)
+					combinations *= 6;
+				
+				// Compare the dice the same way GameData does
+				for(int combination = 0; combination < combinations; ++combination) {
+					
+					int c = combination;
+					
+					for(int i = 0; i < attackerDice; ++i, c /= 6)
+						diceAttacker[i] = c % 6;
+					
+					for(int i = 0; i < defenderDice; ++i, c /= 6)
+						diceDefender[i] = c % 6;
+					
+					Util.sortDescending(diceAttacker);
+					Util.sortDescending(diceDefender);
+					
+					int attackerLoss = 0;
+					
+					for(int i = 0; i < defenderDice; ++i)
+						if(diceAttacker[i] <= diceDefender[i])
+							++attackerLoss;
+					
+					++counts[attackerLoss];
+					
+				}
+				
+				rolls[attackerDice][defenderDice] = new double[defenderDice + 1];
+				
+				for(int lost = 0; lost <= defenderDice; ++lost)
+					rolls[attackerDice][defenderDice][lost] = (double) counts[lost] / combinations;
+				
+			}
+			
+		}
+		
+		return rolls;
+		
+	}
+
+}
@@ -0,0 +1,115 @@
+package conquest;
+
+public final class Blitz extends Message {
+	
+	private static final int LENGTH = 4;
+	
+	private final Territory from, to;
+	private final int stopArmies;
+	
+	// Keeps attacking with as many dice as possible until the territory is
+	// conquered or the attacking territory is down to stopArmies armies
+	public Blitz(Territory from, Territory to, int stopArmies) {
+		
+		if(stopArmies < 1 || stopArmies > 0xffff)
+			throw new IllegalArgumentException();
+		
+		if(!from.isAdjacentTo(to))
+			throw new IllegalArgumentException("Territories must be adjacent");
+		
+		this.from = from;
+		this.to = to;
+		this.stopArmies = stopArmies;
+		
+	}
+	
+	public Territory getFrom() {
+		return from;
+	}
+	
+	public Territory getTo() {
+		return to;
+	}
+	
+	public int getStopArmies() {
+		return stopArmies;
+	}
+	
+	// Valid if at least one roll can be made
+	public boolean isValid(GameData data) {
+		
+		int fromArmies = data.territoryArmies(from);
+		
+		if(fromArmies <= 1 || fromArmies <= stopArmies)
+			return false;
+		
+		PlayerData fromOwner = data.territoryOwner(from);
+		if(data.getPlayerTurn() != fromOwner)
+			return false;
+		
+		PlayerData toOwner = data.territoryOwner(to);
+		if(fromOwner == toOwner)
+			return false;
+		
+		if(data.phase() != GamePhase.ATTACKING)
+			return false;
+		
+		return true;
+		
+	}
+	
+	public static Blitz fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Blitz fromBytes(byte[] message, int offset, int length) {
+		
+		if(!validateHeader(MessageType.BLITZ, message, offset, length))
+			return null;
+		
+		length -= HEADER_LENGTH;
+		if(length != LENGTH)
+			return null;
+		
+		int i = offset + HEADER_LENGTH;
+		
+		int fromID = message[i++] & 0xff;
+		int toID   = message[i++] & 0xff;
+		
+		int stopArmies = (message[i++] & 0xff) << 8;
+		stopArmies    |= (message[i++] & 0xff);
+		
+		if(stopArmies < 1)
+			return null;
+		
+		if(fromID >= Territory.TERRITORY_COUNT || toID >= Territory.TERRITORY_COUNT)
+			return null;
+		
+		Territory from = Territory.fromID(fromID);
+		Territory to = Territory.fromID(toID);
+		
+		if(!from.isAdjacentTo(to))
+			return null;
+		
+		return new Blitz(from, to, stopArmies);
+		
+	}
+	
+	@Override
+	public byte[] toBytes(Integer currentPlayer) {
+		
+		byte[] message = createMessage(MessageType.BLITZ, LENGTH);
+		
+		int i = HEADER_LENGTH;
+		
+		message[i++] = (byte) from.ID;
+		message[i++] = (byte) to.ID;
+		
+		message[i++] = (byte) (stopArmies >>> 8);
+		message[i++] = (byte) (stopArmies      );
+		
+		return message;
+		
+	}
+
+}
@@ -0,0 +1,120 @@
+package conquest;
+
+public final class BlitzResult extends Message {
+	
+	private static final int LENGTH = 9;
+	
+	private final Territory from, to;
+	private final int rolls;
+	private final int attackerLosses, defenderLosses;
+	private final boolean conquered;
+	
+	// Summary of a blitz sent to everyone in the game along with the new state
+	public BlitzResult(Territory from, Territory to, int rolls, int attackerLosses, int defenderLosses, boolean conquered) {
+		
+		if(rolls < 0 || rolls > 0xffff || attackerLosses < 0 || attackerLosses > 0xffff || defenderLosses < 0 || defenderLosses > 0xffff)
+			throw new IllegalArgumentException();
+		
+		this.from = from;
+		this.to = to;
+		this.rolls = rolls;
+		this.attackerLosses = attackerLosses;
+		this.defenderLosses = defenderLosses;
+		this.conquered = conquered;
+		
+	}
+	
+	public Territory getFrom() {
+		return from;
+	}
+	
+	public Territory getTo() {
+		return to;
+	}
+	
+	public int getRolls() {
+		return rolls;
+	}
+	
+	public int getAttackerLosses() {
+		return attackerLosses;
+	}
+	
+	public int getDefenderLosses() {
+		return defenderLosses;
+	}
+	
+	public boolean isConquered() {
+		return conquered;
+	}
+	
+	@Override
+	public String toString() {
+		
+		return from + " attacked " + to + " " + rolls + (rolls == 1 ? " time" : " times") +
+			", losing " + attackerLosses + " against " + defenderLosses + (conquered ? " and conquered it" : "");
+		
+	}
+	
+	public static BlitzResult fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static BlitzResult fromBytes(byte[] message, int offset, int length) {
+		
+		if(!validateHeader(MessageType.BLITZ_RESULT, message, offset, length))
+			return null;
+		
+		length -= HEADER_LENGTH;
+		if(length != LENGTH)
+			return null;
+		
+		int i = offset + HEADER_LENGTH;
+		
+		int fromID = message[i++] & 0xff;
+		int toID   = message[i++] & 0xff;
+		
+		int rolls = (message[i++] & 0xff) << 8;
+		rolls    |= (message[i++] & 0xff);
+		
+		int attackerLosses = (message[i++] & 0xff) << 8;
+		attackerLosses    |= (message[i++] & 0xff);
+		
+		int defenderLosses = (message[i++] & 0xff) << 8;
+		defenderLosses    |= (message[i++] & 0xff);
+		
+		boolean conquered = message[i++] != 0;
+		
+		if(fromID >= Territory.TERRITORY_COUNT || toID >= Territory.TERRITORY_COUNT)
+			return null;
+		
+		return new BlitzResult(Territory.fromID(fromID), Territory.fromID(toID), rolls, attackerLosses, defenderLosses, conquered);
+		
+	}
+	
+	@Override
+	public byte[] toBytes(Integer currentPlayer) {
+		
+		byte[] message = createMessage(MessageType.BLITZ_RESULT, LENGTH);
+		
+		int i = HEADER_LENGTH;
+		
+		message[i++] = (byte) from.ID;
+		message[i++] = (byte) to.ID;
+		
+		message[i++] = (byte) (rolls >>> 8);
+		message[i++] = (byte) (rolls      );
+		
+		message[i++] = (byte) (attackerLosses >>> 8);
+		message[i++] = (byte) (attackerLosses      );
+		
+		message[i++] = (byte) (defenderLosses >>> 8);
+		message[i++] = (byte) (defenderLosses      );
+		
+		message[i++] = (byte) (conquered ? 1 : 0);
+		
+		return message;
+		
+	}
+
+}
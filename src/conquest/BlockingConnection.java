@@ -0,0 +1,151 @@
+package conquest;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public final class BlockingConnection extends Connection {
+	
+	private final Socket socket;
+	private final Thread readThread, writeThread;
+	
+	private volatile boolean writerParked;
+	
+	public BlockingConnection(Socket socket, OutboundQueue pendingOut, WriteStats writeStats, ThreadFactory threads) {
+		
+		super(pendingOut, writeStats);
+		
+		this.socket = socket;
+		
+		this.readThread = threads.newThread(new Reader());
+		this.writeThread = threads.newThread(new Writer());
+		
+	}
+	
+	@Override
+	protected void open() {
+		
+		readThread.start();
+		writeThread.start();
+		
+	}
+	
+	// Only platform threads have a priority
+	@Override
+	protected void priorityLowered() {
+		writeThread.setPriority(Thread.MIN_PRIORITY);
+	}
+	
+	@Override
+	protected void closeChannel() {
+		
+		try {
+			socket.close();
+		} catch(Exception e) {}
+		
+		writeThread.interrupt();
+		
+	}
+	
+	@Override
+	protected void wakeWriter() {
+		
+		if(writerParked)
+			LockSupport.unpark(writeThread);
+		
+	}
+	
+	private final class Reader implements Runnable {
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				InputStream is = socket.getInputStream();
+				
+				for(;;) {
+					
+					if(isClosed())
+						return;
+					
+					if(decoder.read(is) < 0)
+						throw new IOException("Input stream was closed");
+					
+					messagesReceived();
+					
+				}
+				
+			} catch(Exception e) {
+				fail("Error reading from client:  " + e.getMessage());
+			}
+			
+		}
+		
+	}
+	
+	private final class Writer implements Runnable {
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				OutputStream os = socket.getOutputStream();
+				byte[] batch = new byte[WRITE_BUFFER_SIZE];
+				byte[] message = null;
+				
+				for(;;) {
+					
+					int length = 0, frames = 0;
+					
+					// A message that did not fit in the last batch goes first
+					if(message == null)
+						message = pendingOut.poll();
+					
+					while(message != null && length + message.length <= batch.length) {
+						
+						System.arraycopy(message, 0, batch, length, message.length);
+						length += message.length;
+						++frames;
+						
+						message = pendingOut.poll();
+						
+					}
+					
+					if(frames != 0) {
+						
+						os.write(batch, 0, length);
+						writeStats.record(frames, length);
+						continue;
+						
+					}
+					
+					if(isClosed()) {
+						
+						checkOverflow();
+						return;
+						
+					}
+					
+					// Senders only unpark us after seeing the flag, so check the
+					// queue again after setting it
+					writerParked = true;
+					
+					if(pendingOut.isEmpty() && !isClosed())
+						LockSupport.park(this);
+					
+					writerParked = false;
+					
+				}
+				
+			} catch(Exception e) {
+				fail("Error writing to client:  " + e.getMessage());
+			}
+			
+		}
+		
+	}
+
+}
@@ -0,0 +1,81 @@
+package conquest;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+public final class BlockingTransport extends Transport {
+	
+	private final ServerSocket serverSocket;
+	private final ThreadFactory threads;
+	private final Thread listeningThread;
+	
+	private volatile boolean stopped;
+	
+	public BlockingTransport(int port) throws IOException {
+		this(port, IOThreads.forMode(IOMode.BLOCKING));
+	}
+	
+	// Every connection uses two threads from the factory
+	public BlockingTransport(int port, ThreadFactory threads) throws IOException {
+		
+		this.serverSocket = new ServerSocket(port);
+		this.threads = threads;
+		this.listeningThread = threads.newThread(new Listener());
+		
+	}
+	
+	@Override
+	protected void listen() {
+		listeningThread.start();
+	}
+	
+	@Override
+	public int getLocalPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	@Override
+	public void stopAccepting() {
+		
+		stopped = true;
+		
+		try {
+			serverSocket.close();
+		} catch(Exception e) {}
+		
+	}
+	
+	@Override
+	public void close() {
+		stopAccepting();
+	}
+	
+	private final class Listener implements Runnable {
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				for(;;) {
+					
+					Socket socket = serverSocket.accept();
+					configureSocket(socket);
+					
+					getAcceptor().connectionAccepted(new BlockingConnection(socket, newOutboundQueue(), getWriteStats(), threads));
+					
+				}
+				
+			} catch(Exception e) {
+				
+				if(!stopped)
+					getAcceptor().acceptFailed(e);
+				
+			}
+			
+		}
+		
+	}
+
+}
@@ -0,0 +1,11 @@
+package conquest;
+
+// Chooses moves for one seat in a game, given the game as that player sees
+// it. Moves are encoded as in GameRules.
+public interface Bot {
+	
+	// Called when it is the player in the slot's turn, returns a move that is
+	// valid in the state
+	public long chooseMove(GameState state, int slot);
+
+}
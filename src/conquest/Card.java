@@ -56,7 +56,7 @@ public enum Card {
 	
 	public static final List<Card> VALUES = Collections.unmodifiableList(Arrays.asList(values()));
 	public static final int CARD_COUNT = VALUES.size();
-	public static final long ALL_CARDS_MASK = ~(0xffffffffffffffffL << Territory.TERRITORY_COUNT);
+	public static final long ALL_CARDS_MASK = ~(0xffffffffffffffffL << CARD_COUNT);
 	
 	public final CardType TYPE;
 	public final Territory TERRITORY;
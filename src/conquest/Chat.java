@@ -30,8 +30,12 @@ public final class Chat extends Message {
 	}
 	
 	public static Chat fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Chat fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.CHAT, message, length))
+		if(!validateHeader(MessageType.CHAT, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
@@ -40,7 +44,7 @@ public final class Chat extends Message {
 		
 		length -= 1;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		char[] str = new char[length];
 		for(int j = 0; j < str.length; ++j)
@@ -4,21 +4,28 @@ import java.awt.event.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import javax.swing.*;
 
 public final class ClientInstance {
 	
-	private static final int BUFFER_SIZE = 512;
-	private static final int HEADER_LENGTH = 2;
 	private static final int MESSAGE_TYPE_OFFSET = 0;
-	private static final int MESSAGE_LENGTH_OFFSET = 1;
+	private static final int WRITE_BUFFER_SIZE = 8192;
 	
 	private final Socket socket;
 	private final Queue<byte[]> pendingOut;
 	private final Thread readThread, writeThread;
+	private final WriteStats writeStats;
 	private final String name;
+	private final int room;
 	
 	private volatile boolean kill;
+	private volatile boolean writerParked;
+	
+	// Seat to take back in a game that is waiting for this player, 0 to join
+	// as a new player or JoinRoom.SPECTATOR to watch
+	private volatile int rejoinID;
 	
 	private volatile int myID;
 	private volatile TreeMap<Integer, String> playerIDsNames;
@@ -27,26 +34,90 @@ public final class ClientInstance {
 	
 	private Territory lastAttacker, lastDefender;
 	
+	// Only used on the event dispatch thread, or the reader thread when headless
+	private boolean resyncPending;
+	
+	// Moves for a headless client, only used on the reader thread. The
+	// server does not send the exchange count or whether a conquest was made
+	// this turn, so they are worked out from the moves seen.
+	private final Bot bot;
+	private final GameState botState;
+	private int botSequence = -1;
+	private boolean conqueredThisTurn;
+	private int exchanges;
+	
 	public ClientInstance(InetAddress address, int port, String name) throws IOException {
+		this(address, port, name, JoinRoom.ANY_ROOM);
+	}
+	
+	public ClientInstance(InetAddress address, int port, String name, int room) throws IOException {
+		this(address, port, name, room, IOMode.BLOCKING);
+	}
+	
+	// The reader and writer run on virtual threads in VIRTUAL mode
+	public ClientInstance(InetAddress address, int port, String name, int room, IOMode mode) throws IOException {
+		this(address, port, name, room, mode, null);
+	}
+	
+	// A client with a bot plays without a window, so many can share one process
+	public ClientInstance(InetAddress address, int port, String name, int room, IOMode mode, Bot bot) throws IOException {
 		
-		this.pendingOut = new LinkedList<byte[]>();
+		if(mode == IOMode.SELECTOR)
+			throw new IllegalArgumentException("Client does not support selector I/O");
+		
+		this.pendingOut = new ConcurrentLinkedQueue<byte[]>();
 		
 		this.socket = new Socket(address, port);
+		this.socket.setTcpNoDelay(true);
+		this.writeStats = new WriteStats();
 		this.name = name;
+		this.room = room;
+		
+		ThreadFactory threads = IOThreads.forMode(mode);
+		
+		this.readThread = threads.newThread(new Reader());
+		this.writeThread = threads.newThread(new Writer());
 		
-		this.readThread = new Thread(new Reader());
-		this.writeThread = new Thread(new Writer());
+		this.bot = bot;
+		this.botState = bot == null ? null : new GameState();
 		
-		this.window = new ClientWindow();
+		this.window = bot == null ? new ClientWindow() : null;
 		
 	}
 	
 	private void log(String message) {
+		
+		if(window == null) {
+			
+			System.out.println(name + ":  " + message);
+			return;
+			
+		}
+		
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				window.log(message);
 			}
 		});
+		
+	}
+	
+	// Messages are batched per write, so Nagle's algorithm is off by default
+	public void setTcpNoDelay(boolean tcpNoDelay) throws SocketException {
+		socket.setTcpNoDelay(tcpNoDelay);
+	}
+	
+	public WriteStats getWriteStats() {
+		return writeStats;
+	}
+	
+	public void rejoinAs(int playerID) {
+		
+		if(playerID < 0 || playerID > Hello.MAX_ID)
+			throw new IllegalArgumentException();
+		
+		this.rejoinID = playerID;
+		
 	}
 	
 	public void start() {
@@ -58,7 +129,7 @@ public final class ClientInstance {
 	
 	private void kill(String reason) {
 		
-		if(!kill)
+		if(kill)
 			return;
 		
 		kill = true;
@@ -67,16 +138,18 @@ public final class ClientInstance {
 		readThread.interrupt();
 		writeThread.interrupt();
 		
+		try {
+			socket.close();
+		} catch(IOException e) {}
+		
 	}
 	
 	private void sendMessage(byte[] message) {
 		
-		synchronized(pendingOut) {
-			
-			pendingOut.add(message);
-			pendingOut.notifyAll();
-			
-		}
+		pendingOut.add(message);
+		
+		if(writerParked)
+			LockSupport.unpark(writeThread);
 		
 	}
 	
@@ -87,12 +160,25 @@ public final class ClientInstance {
 		hello = new Hello(name, myID);
 		sendMessage(hello.toBytes(myID));
 		
+		JoinRoom joinRoom = new JoinRoom(room, rejoinID);
+		sendMessage(joinRoom.toBytes(myID));
+		
+	}
+	
+	private void onJoinRoom(JoinRoom joinRoom) {
+		
+		myID = joinRoom.ID;
+		log((myID == JoinRoom.SPECTATOR ? "Watching room " : "Joined room ") + joinRoom.ROOM);
+		
 	}
 	
 	private void onPlayers(Players players) {
 		
 		playerIDsNames = new TreeMap<Integer, String>(players.PLAYERS);
 		
+		if(window == null)
+			return;
+		
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
 				window.playerModel.clear();
@@ -104,29 +190,167 @@ public final class ClientInstance {
 	
 	private void onGameState(GameData data) {
 		
-		this.data = data;
+		if(window == null) {
+			
+			this.data = data;
+			resyncPending = false;
+			
+			return;
+			
+		}
 		
+		// States and deltas are applied in order on the event dispatch thread
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				window.updateFromData(ClientInstance.this.data);
+				
+				ClientInstance.this.data = data;
+				resyncPending = false;
+				
+				window.updateFromData(data);
+				
 			}
 		});
 		
 	}
 	
+	private void onGameDelta(GameDelta delta) {
+		
+		if(window == null) {
+			
+			GameData data = this.data;
+			
+			if(data != null && delta != null) {
+				
+				int cards = totalCards(data);
+				
+				if(data.applyDelta(delta, myID)) {
+					
+					// Only exchanges take cards away
+					if(totalCards(data) < cards)
+						exchanges += (cards - totalCards(data)) / 3;
+					
+					return;
+					
+				}
+				
+			}
+			
+			if(!resyncPending) {
+				
+				resyncPending = true;
+				sendMessage(new Resync().toBytes(myID));
+				
+			}
+			
+			return;
+			
+		}
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				
+				GameData data = ClientInstance.this.data;
+				
+				if(data != null && delta != null && data.applyDelta(delta, myID)) {
+					
+					window.updateFromData(data);
+					return;
+					
+				}
+				
+				// Out of sync, ask for a full state once and ignore deltas until it arrives
+				if(!resyncPending) {
+					
+					resyncPending = true;
+					sendMessage(new Resync().toBytes(myID));
+					
+				}
+				
+			}
+		});
+		
+	}
+	
+	private void onBlitzResult(BlitzResult result) {
+		
+		if(result != null)
+			log(result.toString());
+		
+	}
+	
 	private void onGameFail(GameFail fail) {
 		kill("Session terminated by server:  " + fail.getReason());
 	}
 	
 	private void onChat(Chat chat, Map<Integer, String> playerIDsNames) {
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				window.log("<" + playerIDsNames.get(chat.getPlayerID()) + ">: " + chat.getChat());
-			}
-		});
+		
+		String name = playerIDsNames.get(chat.getPlayerID());
+		log("<" + (name == null ? "Spectator" : name) + ">: " + chat.getChat());
+		
+	}
+	
+	// Asks the bot for a move once all the messages read so far are applied,
+	// so it never moves on a position the server has already moved past
+	private void play() {
+		
+		GameData data = this.data;
+		
+		if(data == null || resyncPending || data.getSequence() == botSequence)
+			return;
+		
+		botSequence = data.getSequence();
+		
+		if(data.phase() == GamePhase.VICTORY) {
+			
+			log(playerIDsNames.get(data.winner().getID()) + " won");
+			return;
+			
+		}
+		
+		if(!data.getPlayerTurn().getID().equals(myID)) {
+			
+			conqueredThisTurn = false;
+			return;
+			
+		}
+		
+		// The last attack took the territory if it is ours now
+		boolean conquered = lastAttacker != null && data.playerOwnsTerritory(myID, lastDefender);
+		conqueredThisTurn |= conquered;
+		
+		data.copyInto(botState);
+		botState.setExchanges(exchanges);
+		botState.setConquest(conqueredThisTurn, conquered ? lastAttacker.ID : GameState.NO_TERRITORY, conquered ? lastDefender.ID : GameState.NO_TERRITORY);
+		
+		long move = bot.chooseMove(botState, botState.slotOf(myID));
+		
+		// Exchanging cards does not end a conquest
+		if(GameRules.type(move) == GameRules.ATTACK) {
+			
+			lastAttacker = Territory.fromID(GameRules.from(move));
+			lastDefender = Territory.fromID(GameRules.to(move));
+			
+		}
+		
+		else if(GameRules.type(move) != GameRules.EXCHANGE)
+			lastAttacker = lastDefender = null;
+		
+		sendMessage(GameRules.toMessage(move).toBytes(myID));
+		
 	}
 	
-	private final class Reader implements Runnable {
+	private static int totalCards(GameData data) {
+		
+		int cards = 0;
+		
+		for(Integer id : data.getPlayerIDs())
+			cards += data.getPlayer(id).cardCount();
+		
+		return cards;
+		
+	}
+	
+	private final class Reader implements Runnable, FrameDecoder.Handler {
 		
 		//private Map<Integer, String> playerIDsNames;
 		private GameData data;
@@ -134,45 +358,25 @@ public final class ClientInstance {
 		@Override
 		public void run() {
 			
-			byte[] buffer = new byte[BUFFER_SIZE];
+			FrameDecoder decoder = new FrameDecoder();
 			
 			try {
 				
 				InputStream is = socket.getInputStream();
-				int offset = 0;
 				
 				for(;;) {
 					
 					if(kill)
 						return;
 					
-					int read = is.read(buffer, offset, buffer.length - offset);
-					
-					if(read < 0)
+					if(decoder.read(is) < 0)
 						throw new IOException("Input stream was closed");
 					
-					offset += read;
+					decoder.decode(this);
 					
-					// Do we have a header?
-					while(offset >= HEADER_LENGTH) {
-						
-						if(kill)
-							return;
-						
-						int length = (buffer[MESSAGE_LENGTH_OFFSET] & 0xff) + HEADER_LENGTH;
-						
-						// Do we have a full message?
-						if(offset >= length) {
-							
-							decodeMessage(buffer, length);
-							
-							System.arraycopy(buffer, length, buffer, 0, offset - length);
-							offset -= length;
-							
-						}
+					if(bot != null)
+						play();
 					
-					}
-			
 				}
 				
 			} catch(Exception e) {
@@ -181,31 +385,51 @@ public final class ClientInstance {
 		
 		}
 		
-		public void decodeMessage(byte[] message, int length) throws IOException {
+		@Override
+		public void frameReceived(byte[] message, int offset, int length) {
+			
+			if(!kill)
+				decodeMessage(message, offset, length);
+			
+		}
+		
+		public void decodeMessage(byte[] message, int offset, int length) {
 			
-			switch((int) message[MESSAGE_TYPE_OFFSET]) {
+			switch((int) message[offset + MESSAGE_TYPE_OFFSET]) {
 			
 			case MessageType.HELLO:
-				onHello(Hello.fromBytes(message, length));
+				onHello(Hello.fromBytes(message, offset, length));
+				break;
+				
+			case MessageType.JOIN_ROOM:
+				onJoinRoom(JoinRoom.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.PLAYERS:
-				Players players = Players.fromBytes(message, length);
+				Players players = Players.fromBytes(message, offset, length);
 				playerIDsNames = new TreeMap<Integer, String>(players.PLAYERS);
 				onPlayers(players);
 				break;
 				
 			case MessageType.GAME_STATE:
-				data = GameData.fromBytes(message, length, playerIDsNames.keySet(), myID);
+				data = GameData.fromBytes(message, offset, length, playerIDsNames.keySet(), myID);
 				onGameState(data);
 				break;
 				
+			case MessageType.GAME_DELTA:
+				onGameDelta(GameDelta.fromBytes(message, offset, length));
+				break;
+				
+			case MessageType.BLITZ_RESULT:
+				onBlitzResult(BlitzResult.fromBytes(message, offset, length));
+				break;
+				
 			case MessageType.GAME_FAIL:
-				onGameFail(GameFail.fromBytes(message, length));
+				onGameFail(GameFail.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.CHAT:
-				onChat(Chat.fromBytes(message, length), playerIDsNames);
+				onChat(Chat.fromBytes(message, offset, length), playerIDsNames);
 				break;
 			
 			}
@@ -222,20 +446,43 @@ public final class ClientInstance {
 			try {
 				
 				OutputStream os = socket.getOutputStream();
+				byte[] batch = new byte[WRITE_BUFFER_SIZE];
 				
-				synchronized(pendingOut) {
+				for(;;) {
 					
-					for(;;) {
+					// Parks rather than waiting on a monitor so a virtual thread
+					// does not hold on to its carrier
+					while(pendingOut.isEmpty()) {
+						
+						if(Thread.interrupted())
+							throw new InterruptedException();
 						
-						byte[] message;
+						writerParked = true;
 						
-						while((message = pendingOut.poll()) != null)
-							os.write(message);
+						if(pendingOut.isEmpty())
+							LockSupport.park(this);
 						
-						pendingOut.wait();
+						writerParked = false;
 						
 					}
 					
+					int length = 0, frames = 0;
+					byte[] message;
+					
+					// Only this thread removes messages, so the peeked one is polled
+					while((message = pendingOut.peek()) != null && length + message.length <= batch.length) {
+						
+						pendingOut.poll();
+						
+						System.arraycopy(message, 0, batch, length, message.length);
+						length += message.length;
+						++frames;
+						
+					}
+					
+					os.write(batch, 0, length);
+					writeStats.record(frames, length);
+					
 				}
 				
 			} catch(Exception e) {
@@ -251,7 +498,39 @@ public final class ClientInstance {
 		private static final long serialVersionUID = 1L;
 		
 		public MapView() {
+			
 			super(null);
+			
+			// Enables tool tips, the text comes from getToolTipText(MouseEvent)
+			setToolTipText("");
+			
+		}
+		
+		// Shows the odds of attacking the territory under the mouse from the
+		// selected one
+		@Override
+		public String getToolTipText(MouseEvent e) {
+			
+			GameData data = ClientInstance.this.data;
+			Territory from = getSelectedTerritory();
+			Territory to = getTerritoryAt(e.getX(), e.getY());
+			
+			if(data == null || from == null || to == null || !from.isAdjacentTo(to))
+				return null;
+			
+			if(data.phase() != GamePhase.ATTACKING || !data.playerOwnsTerritory(myID, from) || data.playerOwnsTerritory(myID, to))
+				return null;
+			
+			int attackers = data.territoryArmies(from) - 1;
+			int defenders = data.territoryArmies(to);
+			BattleOdds odds = BattleOdds.getDefault();
+			
+			if(attackers < 1 || !odds.covers(attackers, defenders))
+				return null;
+			
+			return String.format("%d against %d:  %.0f%% to conquer, %.1f armies left", attackers, defenders,
+				100.0 * odds.conquestProbability(attackers, defenders), odds.expectedAttackerSurvivors(attackers, defenders));
+			
 		}
 		
 		@Override
@@ -325,9 +604,19 @@ public final class ClientInstance {
 					if(armies <= 1)
 						return true;
 					
-					Attack attack = new Attack(first, second, Math.min(3, armies - 1));
 					lastAttacker = first;
 					lastDefender = second;
+					
+					// Blitz fights the whole battle in one go
+					if(window.blitz.isSelected()) {
+						
+						Blitz blitz = new Blitz(first, second, 1);
+						sendMessage(blitz.toBytes(myID));
+						return true;
+						
+					}
+					
+					Attack attack = new Attack(first, second, Math.min(3, armies - 1));
 					sendMessage(attack.toBytes(myID));
 					return true;
 					
@@ -396,6 +685,7 @@ public final class ClientInstance {
 		private final DefaultListModel<String> playerModel;
 		
 		private final JTextField textField;
+		private final JCheckBox blitz;
 		private final JButton exchangeCards;
 		private final JButton endTurn;
 		private final JLabel cardLabel;
@@ -411,6 +701,8 @@ public final class ClientInstance {
 			textField = new JTextField();
 			textField.addActionListener(this);
 			
+			blitz = new JCheckBox("Blitz");
+			
 			exchangeCards = new JButton("Exchange Cards");
 			exchangeCards.addActionListener(this);
 			
@@ -427,6 +719,7 @@ public final class ClientInstance {
 			bottomBox.add(new JLabel("Chat: "));
 			bottomBox.add(textField);
 			bottomBox.add(cardLabel);
+			bottomBox.add(blitz);
 			bottomBox.add(exchangeCards);
 			bottomBox.add(endTurn);
 			
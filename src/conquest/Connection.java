@@ -0,0 +1,141 @@
+package conquest;
+
+import java.util.concurrent.atomic.*;
+
+public abstract class Connection {
+	
+	// Queued messages are packed together into writes of up to this size
+	protected static final int WRITE_BUFFER_SIZE = 8192;
+	
+	protected final OutboundQueue pendingOut;
+	protected final WriteStats writeStats;
+	protected final FrameDecoder decoder;
+	
+	private final FrameDecoder.Handler frameHandler;
+	private final AtomicBoolean closed;
+	private final AtomicBoolean overflowed;
+	private volatile ConnectionHandler handler;
+	private volatile boolean lowPriority;
+	
+	protected Connection(OutboundQueue pendingOut, WriteStats writeStats) {
+		
+		this.pendingOut = pendingOut;
+		this.writeStats = writeStats;
+		this.decoder = new FrameDecoder();
+		this.closed = new AtomicBoolean();
+		this.overflowed = new AtomicBoolean();
+		
+		this.frameHandler = new FrameDecoder.Handler() {
+			public void frameReceived(byte[] buffer, int offset, int length) {
+				
+				if(!isClosed())
+					handler.messageReceived(buffer, offset, length);
+				
+			}
+		};
+		
+	}
+	
+	public final void start(ConnectionHandler handler) {
+		
+		if(handler == null)
+			throw new NullPointerException();
+		
+		if(this.handler != null)
+			throw new IllegalStateException("Connection already started");
+		
+		this.handler = handler;
+		open();
+		
+	}
+	
+	// Writes to a low priority connection wait until the writer has nothing
+	// else to do, where the transport allows it
+	public final void setLowPriority() {
+		
+		lowPriority = true;
+		priorityLowered();
+		
+	}
+	
+	public final boolean isLowPriority() {
+		return lowPriority;
+	}
+	
+	public final boolean isClosed() {
+		return closed.get();
+	}
+	
+	// Closes the connection without notifying the handler
+	public final void close() {
+		
+		if(closed.compareAndSet(false, true))
+			closeChannel();
+		
+	}
+	
+	// Closes the connection because of an I/O error and notifies the handler
+	protected final void fail(String reason) {
+		
+		// The error may come from the channel sendMessage closed
+		if(!closed.compareAndSet(false, true)) {
+			
+			checkOverflow();
+			return;
+			
+		}
+		
+		closeChannel();
+		handler.connectionClosed(reason);
+		
+	}
+	
+	// Passes every complete message read into the decoder to the handler
+	protected final void messagesReceived() {
+		decoder.decode(frameHandler);
+	}
+	
+	// Never blocks, returns false if the message was dropped because the
+	// outbound queue is full
+	public final boolean sendMessage(byte[] message) {
+		
+		if(isClosed())
+			return false;
+		
+		boolean queued = pendingOut.offer(message);
+		
+		// Closed right away so a writer stuck on a client that stopped reading
+		// gives up, but the handler is notified by the transport's threads,
+		// the caller may be holding locks the handler needs
+		if(!queued && pendingOut.getPolicy() == OverflowPolicy.DISCONNECT && closed.compareAndSet(false, true)) {
+			
+			overflowed.set(true);
+			closeChannel();
+			
+		}
+		
+		wakeWriter();
+		
+		return queued;
+		
+	}
+	
+	// Called by the transport's threads once they see the connection closed,
+	// notifies the handler once if sendMessage closed it
+	protected final void checkOverflow() {
+		
+		if(overflowed.compareAndSet(true, false))
+			handler.connectionClosed("Client could not keep up with outgoing messages");
+		
+	}
+	
+	protected void priorityLowered() {}
+	
+	protected abstract void open();
+	
+	protected abstract void closeChannel();
+	
+	// Makes sure the writer will see newly queued messages
+	protected abstract void wakeWriter();
+
+}
@@ -0,0 +1,10 @@
+package conquest;
+
+public interface ConnectionHandler {
+	
+	// The message is only valid until this returns
+	public void messageReceived(byte[] message, int offset, int length);
+	
+	public void connectionClosed(String reason);
+
+}
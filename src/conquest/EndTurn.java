@@ -63,15 +63,19 @@ public final class EndTurn extends Message {
 	}
 	
 	public static EndTurn fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static EndTurn fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.END_TURN, message, length))
+		if(!validateHeader(MessageType.END_TURN, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
 		if(length != LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		int fromID = message[i++] & 0xff;
 		int toID = message[i++] & 0xff;
@@ -93,7 +97,7 @@ public final class EndTurn extends Message {
 			from = Territory.fromID(fromID);
 			to = Territory.fromID(toID);
 				
-			if(from.isAdjacentTo(to))
+			if(!from.isAdjacentTo(to))
 				return null;
 			
 		}
@@ -109,8 +113,9 @@ public final class EndTurn extends Message {
 		
 		int i = HEADER_LENGTH;
 		
-		message[i++] = (byte) from.ID;
-		message[i++] = (byte) to.ID;
+		// No territories when no armies are moved
+		message[i++] = (byte) (from == null ? 0 : from.ID);
+		message[i++] = (byte) (to == null ? 0 : to.ID);
 		
 		message[i++] = (byte) (armies >>> 8);
 		message[i++] = (byte) (armies      );
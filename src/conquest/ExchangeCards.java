@@ -31,8 +31,12 @@ public class ExchangeCards extends Message {
 	}
 	
 	public static ExchangeCards fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static ExchangeCards fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.EXCHANGE_CARDS, message, length))
+		if(!validateHeader(MessageType.EXCHANGE_CARDS, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
@@ -40,7 +44,7 @@ public class ExchangeCards extends Message {
 		if(length != LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		EnumSet<Card> cards = EnumSet.noneOf(Card.class);
 		
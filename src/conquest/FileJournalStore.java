@@ -0,0 +1,165 @@
+package conquest;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+// Records appended to a file, each one prefixed with its length and a CRC
+public final class FileJournalStore implements JournalStore {
+	
+	private static final int RECORD_HEADER_LENGTH = 8;
+	
+	private final Path path;
+	private final FileChannel channel;
+	private final ByteBuffer header;
+	private final CRC32 crc;
+	
+	public FileJournalStore(File file, boolean truncate) throws IOException {
+		
+		this.path = file.toPath();
+		
+		if(truncate)
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		
+		else
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		this.channel.position(channel.size());
+		this.header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+		this.crc = new CRC32();
+		
+	}
+	
+	@Override
+	public synchronized void append(byte[] record) throws IOException {
+		
+		crc.reset();
+		crc.update(record, 0, record.length);
+		
+		header.clear();
+		header.putInt(record.length);
+		header.putInt((int) crc.getValue());
+		header.flip();
+		
+		ByteBuffer[] buffers = { header, ByteBuffer.wrap(record) };
+		
+		while(buffers[1].hasRemaining())
+			channel.write(buffers);
+		
+	}
+	
+	@Override
+	public void force() throws IOException {
+		channel.force(false);
+	}
+	
+	@Override
+	public synchronized List<byte[]> readAll() throws IOException {
+		
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		long position = read(channel, records);
+		
+		// Drop whatever is left of a torn record
+		if(position < channel.size())
+			channel.truncate(position);
+		
+		channel.position(position);
+		
+		return records;
+		
+	}
+	
+	// Reads the records of a file without creating or changing it, for
+	// files another process may still be appending to
+	public static List<byte[]> readAll(File file) throws IOException {
+		
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try {
+			read(channel, records);
+		} finally {
+			channel.close();
+		}
+		
+		return records;
+		
+	}
+	
+	// Adds the records up to the first torn or damaged one, returns where
+	// they end
+	private static long read(FileChannel channel, List<byte[]> records) throws IOException {
+		
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+		CRC32 crc = new CRC32();
+		
+		long size = channel.size();
+		long position = 0;
+		
+		while(position + RECORD_HEADER_LENGTH <= size) {
+			
+			recordHeader.clear();
+			readFully(channel, recordHeader, position);
+			recordHeader.flip();
+			
+			int length = recordHeader.getInt();
+			int expected = recordHeader.getInt();
+			
+			if(length < 0 || position + RECORD_HEADER_LENGTH + length > size)
+				break;
+			
+			byte[] record = new byte[length];
+			readFully(channel, ByteBuffer.wrap(record), position + RECORD_HEADER_LENGTH);
+			
+			crc.reset();
+			crc.update(record, 0, length);
+			
+			if((int) crc.getValue() != expected)
+				break;
+			
+			records.add(record);
+			position += RECORD_HEADER_LENGTH + length;
+			
+		}
+		
+		return position;
+		
+	}
+	
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	@Override
+	public void delete() throws IOException {
+		
+		close();
+		Files.deleteIfExists(path);
+		
+	}
+	
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		
+		while(buffer.hasRemaining()) {
+			
+			int read = channel.read(buffer, position);
+			
+			if(read < 0)
+				throw new EOFException();
+			
+			position += read;
+			
+		}
+		
+	}
+
+}
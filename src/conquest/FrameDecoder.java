@@ -0,0 +1,135 @@
+package conquest;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+// Splits a stream of bytes into messages. Bytes are read into a ring and each
+// message is handed on where it lies, so nothing is shifted after a message
+// is decoded. Only a message that wraps around the end of the ring is copied.
+public final class FrameDecoder {
+	
+	public interface Handler {
+		
+		// The buffer is reused once this returns
+		public void frameReceived(byte[] buffer, int offset, int length);
+		
+	}
+	
+	public static final int HEADER_LENGTH = 2;
+	public static final int MAX_FRAME_LENGTH = HEADER_LENGTH + 255;
+	public static final int DEFAULT_CAPACITY = 4096;
+	
+	private static final int MESSAGE_LENGTH_OFFSET = 1;
+	
+	private final byte[] ring;
+	private final ByteBuffer ringBuffer;
+	private final byte[] wrapped;
+	
+	private int head, size;
+	
+	public FrameDecoder() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public FrameDecoder(int capacity) {
+		
+		// Any partial message has to fit alongside room to read the rest
+		if(capacity < MAX_FRAME_LENGTH)
+			throw new IllegalArgumentException();
+		
+		this.ring = new byte[capacity];
+		this.ringBuffer = ByteBuffer.wrap(ring);
+		this.wrapped = new byte[MAX_FRAME_LENGTH];
+		
+	}
+	
+	public int available() {
+		return size;
+	}
+	
+	// Blocks until some bytes are read, returns -1 at the end of the stream
+	public int read(InputStream in) throws IOException {
+		
+		int tail = freeStart();
+		int read = in.read(ring, tail, freeLength(tail));
+		
+		if(read > 0)
+			size += read;
+		
+		return read;
+		
+	}
+	
+	public int read(ReadableByteChannel channel) throws IOException {
+		
+		int tail = freeStart();
+		
+		ringBuffer.limit(tail + freeLength(tail));
+		ringBuffer.position(tail);
+		
+		int read = channel.read(ringBuffer);
+		
+		if(read > 0)
+			size += read;
+		
+		return read;
+		
+	}
+	
+	// Hands every complete message to the handler
+	public void decode(Handler handler) {
+		
+		while(size >= HEADER_LENGTH) {
+			
+			int length = (ring[(head + MESSAGE_LENGTH_OFFSET) % ring.length] & 0xff) + HEADER_LENGTH;
+			
+			// Wait for the rest of the message
+			if(size < length)
+				return;
+			
+			int offset = head;
+			
+			head = (head + length) % ring.length;
+			size -= length;
+			
+			if(offset + length <= ring.length)
+				handler.frameReceived(ring, offset, length);
+			
+			else {
+				
+				int first = ring.length - offset;
+				
+				System.arraycopy(ring, offset, wrapped, 0, first);
+				System.arraycopy(ring, 0, wrapped, first, length - first);
+				
+				handler.frameReceived(wrapped, 0, length);
+				
+			}
+			
+		}
+		
+	}
+	
+	// Where the next read goes, starting over when the ring is empty so reads
+	// are as large as possible
+	private int freeStart() {
+		
+		if(size == 0)
+			head = 0;
+		
+		return (head + size) % ring.length;
+		
+	}
+	
+	// Free space that can be read into in one go
+	private int freeLength(int tail) {
+		
+		if(size == ring.length)
+			return 0;
+		
+		return tail >= head ? ring.length - tail : head - tail;
+		
+	}
+
+}
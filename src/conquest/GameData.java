@@ -4,25 +4,54 @@ import java.util.*;
 
 public final class GameData extends Message {
 	
-	private static final int STATIC_LENGTH = 133;
+	private static final int STATIC_LENGTH = 135;
 	private static final int PER_PLAYER_LENGTH = 3;
+	private static final int CARDS_LENGTH = 6;
+	
+	private static final int NO_OWNER = GameDelta.NO_OWNER;
+	
+	// Set -Dconquest.checkPhase=true to verify the cached phase on every read
+	private static final boolean CHECK_PHASE = Boolean.getBoolean("conquest.checkPhase");
 	
 	private static final int[] EXCHANGE_CHART = {
 		4, 6, 8, 10, 12, 15
 	};
 	
 	private final TreeMap<Integer, PlayerData> players;
+	private final PlayerData[] playersByID;
 	private PlayerData playerTurn;
 	private final int[] territoryArmies;
+	
+	// Owner ID of each territory, kept in step with the players' territory masks
+	private final byte[] territoryOwners;
+	
+	// Phase and the counts it depends on, updated by the mutations that change them
+	private GamePhase phase;
+	private PlayerData winner;
+	private int ownedTerritoryCount;
+	private int playersWithFreeArmies;
 	private int exchanges;
 	private final ArrayList<Card> deck;
 	private boolean conqueredThisTurn;
 	
 	private Territory lastConquered, lastConquering;
 	
-	// Initializes a new game with the specified players, a random starting
-	// player with the appropriate number of free armies
+	// Advances with every accepted move so clients can tell which state a delta applies to
+	private int sequence;
+	
+	// Dice, shuffles and the first player all come from here
+	private final GameRandom random;
+	
 	public GameData(Set<Integer> playerIDs) {
+		this(playerIDs, GameRandom.newSeed());
+	}
+	
+	// Initializes a new game with the specified players, a random starting
+	// player with the appropriate number of free armies. Games with the same
+	// players and seed play out the same for the same moves.
+	public GameData(Set<Integer> playerIDs, long seed) {
+		
+		random = new GameRandom(seed);
 		
 		int playerCount = playerIDs.size();
 		
@@ -30,16 +59,30 @@ public final class GameData extends Message {
 			throw new IllegalArgumentException("Must be 2-6 players");
 		
 		players = new TreeMap<Integer, PlayerData>();
+		playersByID = new PlayerData[NO_OWNER + 1];
 		
-		for(Integer id : playerIDs)
-			players.put(id, new PlayerData(id));
+		for(Integer id : playerIDs) {
+			
+			if(id < 0 || id >= NO_OWNER)
+				throw new IllegalArgumentException("Bad player ID");
+			
+			PlayerData player = new PlayerData(id);
+			
+			players.put(id, player);
+			playersByID[id] = player;
+			
+		}
 		
 		assert(players.size() == playerCount);
 		
 		territoryArmies = new int[Territory.TERRITORY_COUNT];
+		territoryOwners = new byte[Territory.TERRITORY_COUNT];
+		Arrays.fill(territoryOwners, (byte) NO_OWNER);
 		
 		deck = new ArrayList<Card>(Card.VALUES);
-		Collections.shuffle(deck);
+		Collections.shuffle(deck, random);
+		
+		updatePhase();
 		
 	}
 	
@@ -49,14 +92,14 @@ public final class GameData extends Message {
 			throw new IllegalStateException();
 		
 		int startingArmies = 40 - ((players.size() - 2) * 5);
-		int firstPlayer = Util.RANDOM.nextInt(players.size());
+		int firstPlayer = random.nextInt(players.size());
 		
 		for(PlayerData player : players.values()) {
 			
-			player.giveFreeArmies(startingArmies);
+			giveFreeArmies(player, startingArmies);
 			
 			if(firstPlayer == 0)
-				this.playerTurn = player;
+				setPlayerTurn(player);
 			
 			--firstPlayer;
 			
@@ -64,6 +107,18 @@ public final class GameData extends Message {
 		
 	}
 	
+	public GameRandom getRandom() {
+		return random;
+	}
+	
+	public long getSeed() {
+		return random.getSeed();
+	}
+	
+	public Set<Integer> getPlayerIDs() {
+		return Collections.unmodifiableSet(players.keySet());
+	}
+	
 	public Territory getLastConquered() {
 		return lastConquered;
 	}
@@ -80,34 +135,108 @@ public final class GameData extends Message {
 		return playerTurn;
 	}
 	
+	public PlayerData getPlayer(Integer playerID) {
+		return playerID == null || playerID < 0 || playerID > NO_OWNER ? null : playersByID[playerID];
+	}
+	
+	public int getSequence() {
+		return sequence;
+	}
+	
+	// For a game restored from a snapshot
+	void setSequence(int sequence) {
+		this.sequence = sequence & 0xffff;
+	}
+	
 	public boolean playerOwnsTerritory(Integer playerID, Territory territory) {
+		return playerID != null && (territoryOwners[territory.ID] & 0xff) == playerID;
+	}
+	
+	public PlayerData territoryOwner(Territory territory) {
+		return playersByID[territoryOwners[territory.ID] & 0xff];
+	}
+	
+	public PlayerData[] territoryOwners() {
+		
+		PlayerData[] owners = new PlayerData[Territory.TERRITORY_COUNT];
 		
-		PlayerData owner = territoryOwner(territory);
+		for(int i = 0; i < Territory.TERRITORY_COUNT; ++i)
+			owners[i] = playersByID[territoryOwners[i] & 0xff];
 		
-		return owner != null && owner.getID().equals(playerID);
+		return owners;
 		
 	}
 	
-	public PlayerData territoryOwner(Territory territory) {
+	// All ownership changes go through here to keep the owner index in step
+	private void setTerritoryOwner(Territory territory, PlayerData owner) {
 		
-		for(PlayerData player : players.values())
-			if(player.holdsTerritory(territory))
-				return player;
+		PlayerData oldOwner = territoryOwner(territory);
 		
-		return null;
+		if(owner == oldOwner)
+			return;
+		
+		if(oldOwner != null)
+			oldOwner.takeTerritory(territory);
+		
+		else
+			++ownedTerritoryCount;
+		
+		if(owner != null)
+			owner.giveTerritory(territory);
+		
+		else
+			--ownedTerritoryCount;
+		
+		territoryOwners[territory.ID] = owner == null ? (byte) NO_OWNER : (byte)(int) owner.getID();
+		
+		if(oldOwner == winner)
+			winner = null;
+		
+		if(owner != null && owner.getOwnedTerritoriesAsMask() == Territory.ALL_TERRITORIES_MASK)
+			winner = owner;
+		
+		updatePhase();
 		
 	}
 	
-	public PlayerData[] territoryOwners() {
+	// Free army changes go through these to keep the phase up to date
+	private void giveFreeArmies(PlayerData player, int armies) {
 		
-		PlayerData[] owners = new PlayerData[Territory.TERRITORY_COUNT];
+		boolean hadFreeArmies = player.hasFreeArmies();
+		player.giveFreeArmies(armies);
+		freeArmiesChanged(player, hadFreeArmies);
 		
-		for(PlayerData player : players.values())
-			for(int i = 0; i < Territory.TERRITORY_COUNT; ++i)
-				if(player.holdsTerritory(Territory.fromID(i)))
-					owners[i] = player;
+	}
+	
+	private void takeFreeArmies(PlayerData player, int armies) {
 		
-		return owners;
+		boolean hadFreeArmies = player.hasFreeArmies();
+		player.takeFreeArmies(armies);
+		freeArmiesChanged(player, hadFreeArmies);
+		
+	}
+	
+	private void setFreeArmies(PlayerData player, int armies) {
+		
+		boolean hadFreeArmies = player.hasFreeArmies();
+		player.setFreeArmies(armies);
+		freeArmiesChanged(player, hadFreeArmies);
+		
+	}
+	
+	private void freeArmiesChanged(PlayerData player, boolean hadFreeArmies) {
+		
+		if(hadFreeArmies != player.hasFreeArmies())
+			playersWithFreeArmies += hadFreeArmies ? -1 : 1;
+		
+		updatePhase();
+		
+	}
+	
+	private void setPlayerTurn(PlayerData playerTurn) {
+		
+		this.playerTurn = playerTurn;
+		updatePhase();
 		
 	}
 	
@@ -136,7 +265,7 @@ public final class GameData extends Message {
 			if(oldOwner == null) {
 				
 				events.add(owner + " claimed " + territory + " and gained " + armies + " armies there.");
-				owner.giveTerritory(territory);
+				setTerritoryOwner(territory, owner);
 				
 			}
 			
@@ -144,8 +273,7 @@ public final class GameData extends Message {
 			else {
 				
 				events.add(owner + " took " + territory + " from " + oldOwner + " and gained " + armies + "armies there.");
-				owner.giveTerritory(territory);
-				oldOwner.takeTerritory(territory);
+				setTerritoryOwner(territory, owner);
 				
 			}
 			
@@ -167,25 +295,41 @@ public final class GameData extends Message {
 		
 		events.add(this.playerTurn + "'s turn ended and " + playerTurn + "'s turn begins.");
 		
-		this.playerTurn = playerTurn;
+		setPlayerTurn(playerTurn);
 		
 	}
 	
 	public PlayerData winner() {
+		return winner;
+	}
+	
+	public GamePhase phase() {
 		
-		for(PlayerData player : players.values()) {
-			
-			long mask = player.getOwnedTerritoriesAsMask();
-			if((mask & Territory.ALL_TERRITORIES_MASK) == Territory.ALL_TERRITORIES_MASK)
-				return player;
-			
-		}
+		if(CHECK_PHASE && phase != derivePhase())
+			throw new IllegalStateException("Cached phase " + phase + " should be " + derivePhase());
 		
-		return null;
+		return phase;
 		
 	}
 	
-	public GamePhase phase() {
+	private void updatePhase() {
+		
+		if(winner != null)
+			phase = GamePhase.VICTORY;
+		
+		else if(ownedTerritoryCount < Territory.TERRITORY_COUNT || playersWithFreeArmies > 1)
+			phase = GamePhase.CLAIMING;
+		
+		else if(playerTurn != null && playerTurn.hasFreeArmies())
+			phase = GamePhase.PLACEMENT;
+		
+		else
+			phase = GamePhase.ATTACKING;
+		
+	}
+	
+	// The phase worked out from scratch, only used to check the cached one
+	private GamePhase derivePhase() {
 		
 		long ownedTerritories = 0L;
 		
@@ -218,8 +362,12 @@ public final class GameData extends Message {
 	}
 	
 	public static GameData fromBytes(byte[] message, int length, Set<Integer> ids, Integer myID) {
+		return fromBytes(message, 0, length, ids, myID);
+	}
+	
+	public static GameData fromBytes(byte[] message, int offset, int length, Set<Integer> ids, Integer myID) {
 		
-		if(!validateHeader(MessageType.GAME_STATE, message, length))
+		if(!validateHeader(MessageType.GAME_STATE, message, offset, length))
 			return null;
 		
 		length -= (HEADER_LENGTH + STATIC_LENGTH);
@@ -230,20 +378,24 @@ public final class GameData extends Message {
 		if(playerCount < 2 || playerCount > 6)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
+		
+		int sequence = (message[i++] & 0xff) << 8;
+		sequence    |= (message[i++] & 0xff);
 		
 		int playerTurn = message[i++];
 		
 		GameData data = new GameData(ids);
-		data.playerTurn = data.players.get(playerTurn);
+		data.setPlayerTurn(data.players.get(playerTurn));
+		data.sequence = sequence;
 		
 		// Territory owners
 		for(int j = 0; j < Territory.TERRITORY_COUNT; ++j) {
 			
-			PlayerData player = data.players.get(message[i++] & 0xff);
+			PlayerData player = data.playersByID[message[i++] & 0xff];
 			
 			if(player != null)
-				player.giveTerritory(Territory.fromID(j));
+				data.setTerritoryOwner(Territory.fromID(j), player);
 			
 		}
 		
@@ -262,7 +414,7 @@ public final class GameData extends Message {
 			
 			int freeArmies = (message[i++] & 0xff) << 8;
 			freeArmies    |= (message[i++] & 0xff);
-			player.setFreeArmies(freeArmies);
+			data.setFreeArmies(player, freeArmies);
 			
 			int cardsHeld = message[i++];
 			player.setCardCount(cardsHeld);
@@ -277,7 +429,11 @@ public final class GameData extends Message {
 		myCards     |= (message[i++] & 0xffL) << 8;
 		myCards     |= (message[i++] & 0xffL);
 		
-		data.players.get(myID).setOwnedCards(myCards & Card.ALL_CARDS_MASK);
+		// Spectators are not players and hold no cards
+		PlayerData me = data.players.get(myID);
+		
+		if(me != null)
+			me.setOwnedCards(myCards & Card.ALL_CARDS_MASK);
 		
 		return data;
 		
@@ -286,18 +442,40 @@ public final class GameData extends Message {
 	@Override
 	public byte[] toBytes(Integer currentPlayer) {
 		
+		byte[] message = toSharedBytes();
+		writeCards(message, players.get(currentPlayer).getOwnedCardsAsMask());
+		
+		return message;
+		
+	}
+	
+	// Copies a shared encoding and fills in the private card tail for one player
+	public byte[] toBytes(byte[] shared, Integer currentPlayer) {
+		
+		byte[] message = Arrays.copyOf(shared, shared.length);
+		writeCards(message, players.get(currentPlayer).getOwnedCardsAsMask());
+		
+		return message;
+		
+	}
+	
+	// Encodes the state every player sees, leaving the card tail empty
+	public byte[] toSharedBytes() {
+		
 		byte[] message = createMessage(MessageType.GAME_STATE, STATIC_LENGTH + PER_PLAYER_LENGTH * players.size());
 		
 		int i = HEADER_LENGTH;
 		
+		// Sequence
+		message[i++] = (byte) (sequence >>> 8);
+		message[i++] = (byte) (sequence      );
+		
 		// Player turn
 		message[i++] = (byte)(int) playerTurn.getID();
 		
 		// Territory owners
-		PlayerData[] territoryOwners = territoryOwners();
-		
-		for(int j = 0; j < territoryOwners.length; ++j)
-			message[i++] = territoryOwners[j] == null ? -1 : (byte)(int) territoryOwners[j].getID();
+		System.arraycopy(territoryOwners, 0, message, i, Territory.TERRITORY_COUNT);
+		i += Territory.TERRITORY_COUNT;
 		
 		// Territory armies
 		for(int j = 0; j < territoryArmies.length; ++j) {
@@ -322,9 +500,14 @@ public final class GameData extends Message {
 			
 		}
 		
-		// Current player cards
+		return message;
+		
+	}
+	
+	// Current player cards are always the last bytes of the message
+	private static void writeCards(byte[] message, long cards) {
 		
-		long cards = players.get(currentPlayer).getOwnedCardsAsMask();
+		int i = message.length - CARDS_LENGTH;
 		
 		message[i++] = (byte) (cards >>> 40);
 		message[i++] = (byte) (cards >>> 32);
@@ -333,21 +516,237 @@ public final class GameData extends Message {
 		message[i++] = (byte) (cards >>>  8);
 		message[i++] = (byte) (cards       );
 		
-		return message;
+	}
+	
+	// Describes what changed since the state encoded by toSharedBytes() one move
+	// ago, or returns null if previous is not that state
+	public GameDelta deltaFrom(byte[] previous) {
+		
+		if(previous.length != HEADER_LENGTH + STATIC_LENGTH + PER_PLAYER_LENGTH * players.size())
+			return null;
+		
+		int i = HEADER_LENGTH;
+		
+		int previousSequence = (previous[i++] & 0xff) << 8;
+		previousSequence    |= (previous[i++] & 0xff);
+		
+		if(((previousSequence + 1) & 0xffff) != sequence)
+			return null;
+		
+		++i;
+		
+		// Territories whose owner or armies changed
+		int ownersOffset = i;
+		int armiesOffset = i + Territory.TERRITORY_COUNT;
+		int[] changed = new int[Territory.TERRITORY_COUNT];
+		int changedCount = 0;
+		
+		for(int j = 0; j < Territory.TERRITORY_COUNT; ++j) {
+			
+			int armies = (previous[armiesOffset + 2 * j] & 0xff) << 8;
+			armies    |= (previous[armiesOffset + 2 * j + 1] & 0xff);
+			
+			if(previous[ownersOffset + j] != territoryOwners[j] || armies != territoryArmies[j])
+				changed[changedCount++] = j;
+			
+		}
+		
+		int[] territories = Arrays.copyOf(changed, changedCount);
+		int[] owners = new int[changedCount];
+		int[] armies = new int[changedCount];
+		
+		for(int j = 0; j < changedCount; ++j) {
+			
+			owners[j] = territoryOwners[territories[j]] & 0xff;
+			armies[j] = territoryArmies[territories[j]];
+			
+		}
+		
+		// Players whose free armies or card counts changed
+		i = armiesOffset + 2 * Territory.TERRITORY_COUNT;
+		PlayerData[] changedPlayers = new PlayerData[players.size()];
+		changedCount = 0;
+		
+		for(PlayerData player : players.values()) {
+			
+			int freeArmies = (previous[i++] & 0xff) << 8;
+			freeArmies    |= (previous[i++] & 0xff);
+			
+			int cardsHeld = previous[i++] & 0xff;
+			
+			if(freeArmies != player.getFreeArmies() || cardsHeld != player.cardCount())
+				changedPlayers[changedCount++] = player;
+			
+		}
+		
+		int[] playerIDs = new int[changedCount];
+		int[] freeArmies = new int[changedCount];
+		int[] cardCounts = new int[changedCount];
+		
+		for(int j = 0; j < changedCount; ++j) {
+			
+			playerIDs[j] = changedPlayers[j].getID();
+			freeArmies[j] = changedPlayers[j].getFreeArmies();
+			cardCounts[j] = changedPlayers[j].cardCount();
+			
+		}
+		
+		return new GameDelta(sequence, playerTurn.getID(), territories, owners, armies, playerIDs, freeArmies, cardCounts, GameDelta.NO_CARDS);
 		
 	}
 	
-	public boolean areAllTerritoriesOwned() {
+	// Applies a delta received from the server, returns false without changing
+	// anything if it was not built from this state
+	public boolean applyDelta(GameDelta delta, Integer myID) {
 		
-		long ownedTerritories = 0L;
+		if(delta.getSequence() != ((sequence + 1) & 0xffff))
+			return false;
 		
-		for(PlayerData player : players.values())
-			ownedTerritories |= player.getOwnedTerritoriesAsMask();
+		PlayerData playerTurn = playersByID[delta.getPlayerTurn()];
 		
-		return ownedTerritories == Territory.ALL_TERRITORIES_MASK;
+		if(playerTurn == null)
+			return false;
+		
+		for(int j = 0; j < delta.territoryCount(); ++j)
+			if(delta.getOwner(j) != NO_OWNER && playersByID[delta.getOwner(j)] == null)
+				return false;
+		
+		for(int j = 0; j < delta.playerCount(); ++j)
+			if(playersByID[delta.getPlayer(j)] == null)
+				return false;
+		
+		// Territories
+		for(int j = 0; j < delta.territoryCount(); ++j) {
+			
+			Territory territory = delta.getTerritory(j);
+			
+			setTerritoryOwner(territory, playersByID[delta.getOwner(j)]);
+			territoryArmies[territory.ID] = delta.getArmies(j);
+			
+		}
+		
+		// Players, our own card count comes from the cards we hold
+		for(int j = 0; j < delta.playerCount(); ++j) {
+			
+			PlayerData player = playersByID[delta.getPlayer(j)];
+			setFreeArmies(player, delta.getFreeArmies(j));
+			
+			if(!player.getID().equals(myID))
+				player.setCardCount(delta.getCardCount(j));
+			
+		}
+		
+		if(delta.hasCards())
+			players.get(myID).setOwnedCards(delta.getCards());
+		
+		setPlayerTurn(playerTurn);
+		this.sequence = delta.getSequence();
+		
+		return true;
+		
+	}
+	
+	// Copies this game into a flat state for simulation
+	public GameState toGameState() {
+		
+		GameState state = new GameState();
+		copyInto(state);
+		
+		return state;
+		
+	}
+	
+	public void copyInto(GameState state) {
+		
+		state.clear();
+		
+		int slot = 0;
+		
+		for(PlayerData player : players.values()) {
+			
+			long cards = player.isSpecificCardsKnown() ? player.getOwnedCardsAsMask() : 0L;
+			state.setPlayer(slot, player.getID(), player.getFreeArmies(), cards, player.cardCount());
+			
+			if(player == playerTurn)
+				state.setPlayerTurn(slot);
+			
+			++slot;
+			
+		}
+		
+		for(int i = 0; i < Territory.TERRITORY_COUNT; ++i) {
+			
+			int ownerID = territoryOwners[i] & 0xff;
+			int owner = ownerID == NO_OWNER ? GameState.NO_PLAYER : state.slotOf(ownerID);
+			
+			state.setTerritory(i, owner, territoryArmies[i]);
+			
+		}
+		
+		state.setDeck(deck);
+		state.setExchanges(exchanges);
+		
+		int conquering = lastConquering == null ? GameState.NO_TERRITORY : lastConquering.ID;
+		int conquered = lastConquered == null ? GameState.NO_TERRITORY : lastConquered.ID;
+		state.setConquest(conqueredThisTurn, conquering, conquered);
 		
 	}
 	
+	public static GameData fromGameState(GameState state) {
+		
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		
+		for(int slot = 0; slot < state.playerCount(); ++slot)
+			ids.add(state.playerID(slot));
+		
+		GameData data = new GameData(ids);
+		
+		for(int slot = 0; slot < state.playerCount(); ++slot) {
+			
+			PlayerData player = data.playersByID[state.playerID(slot)];
+			data.setFreeArmies(player, state.freeArmies(slot));
+			
+			// Other players' cards are only known by count on clients
+			if(Util.countBits(state.cardMask(slot)) == state.cardCount(slot))
+				player.setOwnedCards(state.cardMask(slot));
+			
+			else
+				player.setCardCount(state.cardCount(slot));
+			
+		}
+		
+		for(int i = 0; i < Territory.TERRITORY_COUNT; ++i) {
+			
+			int owner = state.owner(i);
+			
+			if(owner != GameState.NO_PLAYER)
+				data.setTerritoryOwner(Territory.fromID(i), data.playersByID[state.playerID(owner)]);
+			
+			data.territoryArmies[i] = state.armies(i);
+			
+		}
+		
+		data.deck.clear();
+		
+		for(int i = 0; i < state.deckSize(); ++i)
+			data.deck.add(state.deckCard(i));
+		
+		if(state.playerTurn() != GameState.NO_PLAYER)
+			data.setPlayerTurn(data.playersByID[state.playerID(state.playerTurn())]);
+		
+		data.exchanges = state.exchanges();
+		data.conqueredThisTurn = state.conqueredThisTurn();
+		data.lastConquering = state.lastConquering() == GameState.NO_TERRITORY ? null : Territory.fromID(state.lastConquering());
+		data.lastConquered = state.lastConquered() == GameState.NO_TERRITORY ? null : Territory.fromID(state.lastConquered());
+		
+		return data;
+		
+	}
+	
+	public boolean areAllTerritoriesOwned() {
+		return ownedTerritoryCount == Territory.TERRITORY_COUNT;
+	}
+	
 	public void nextTurn() {
 		
 		GamePhase phase = phase();
@@ -366,19 +765,23 @@ public final class GameData extends Message {
 		conqueredThisTurn = false;
 		
 		// Next player's turn, skip over players who are out
+		PlayerData nextPlayer = playerTurn;
+		
 		do {
 			
-			Map.Entry<Integer, PlayerData> next = players.higherEntry(playerTurn.getID());
-			playerTurn = next != null ? next.getValue() : players.firstEntry().getValue();
+			Map.Entry<Integer, PlayerData> next = players.higherEntry(nextPlayer.getID());
+			nextPlayer = next != null ? next.getValue() : players.firstEntry().getValue();
 			
 			if(phase == GamePhase.CLAIMING)
 				break;
 			
-		} while(playerTurn.territoryCount() < 1);
+		} while(nextPlayer.territoryCount() < 1);
+		
+		setPlayerTurn(nextPlayer);
 		
 		// Give armies
 		if(!playerTurn.hasFreeArmies())
-			playerTurn.giveFreeArmies(playerTurn.calculateIncome());
+			giveFreeArmies(playerTurn, playerTurn.calculateIncome());
 		
 		lastConquered = lastConquering = null;
 		
@@ -394,63 +797,52 @@ public final class GameData extends Message {
 		if(!move.isValid(this))
 			return false;
 		
-		// Roll dice
-		int defendingDice = Math.min(2, territoryArmies(move.getTo()));
-		defendingDice = Math.min(defendingDice, move.getDice());
+		roll(move.getFrom(), move.getTo(), move.getDice());
 		
-		int[] diceAttacker = new int[move.getDice()];
-		int[] diceDefender = new int[defendingDice];
+		advanceSequence();
 		
-		for(int i = 0; i < diceAttacker.length; ++i)
-			diceAttacker[i] = Util.RANDOM.nextInt(6);
+		return true;
 		
-		for(int i = 0; i < diceDefender.length; ++i)
-			diceDefender[i] = Util.RANDOM.nextInt(6);
+	}
+	
+	// Attacks until the territory falls or the attacker is down to the stop
+	// armies, returns null if the move is not allowed
+	public BlitzResult doMove(Integer requestingPlayerID, Blitz move) {
 		
-		// Compare rolls
-		Util.sortDescending(diceAttacker);
-		Util.sortDescending(diceDefender);
+		PlayerData requestingPlayer = players.get(requestingPlayerID);
 		
-		int attackerLoss = 0;
-		int defenderLoss = 0;
+		if(requestingPlayer == null || playerTurn != requestingPlayer)
+			return null;
 		
-		for(int i = 0; i < diceDefender.length; ++i) {
-			
-			if(diceAttacker[i] > diceDefender[i])
-				++defenderLoss;
-			
-			else
-				++attackerLoss;
-			
-		}
+		if(!move.isValid(this))
+			return null;
 		
-		// Affect armies
-		territoryArmies[move.getFrom().ID] -= attackerLoss;
-		territoryArmies[move.getTo()  .ID] -= defenderLoss;
+		Territory from = move.getFrom();
+		Territory to = move.getTo();
+		int stopArmies = Math.max(1, move.getStopArmies());
 		
-		// Was territory conquered?
-		if(territoryArmies[move.getTo().ID] == 0) {
-			
-			conqueredThisTurn = true;
-			
-			lastConquering = move.getFrom();
-			lastConquered = move.getTo();
+		int rolls = 0;
+		int attackerLosses = 0;
+		int defenderLosses = 0;
+		boolean conquered = false;
+		
+		while(!conquered && territoryArmies[from.ID] > stopArmies) {
 			
-			PlayerData conquered = territoryOwner(lastConquered);
-			PlayerData conquering = territoryOwner(lastConquering);
+			int dice = Math.min(BattleOdds.MAX_ATTACKER_DICE, territoryArmies[from.ID] - 1);
+			int defenderDice = BattleOdds.defenderDice(dice, territoryArmies[to.ID]);
 			
-			conquering.giveTerritory(lastConquered);
-			conquered.takeTerritory(lastConquered);
+			int lost = roll(from, to, dice);
 			
-			--territoryArmies[lastConquering.ID];
-			++territoryArmies[lastConquered.ID];
+			++rolls;
+			attackerLosses += lost;
+			defenderLosses += defenderDice - lost;
+			conquered = lastConquered == to;
 			
 		}
 		
-		else
-			lastConquered = lastConquering = null;
+		advanceSequence();
 		
-		return true;
+		return new BlitzResult(from, to, rolls, attackerLosses, defenderLosses, conquered);
 		
 	}
 	
@@ -464,13 +856,19 @@ public final class GameData extends Message {
 		if(!move.isValid(this))
 			return false;
 		
-		// Move armies
-		territoryArmies[move.getFrom().ID] -= move.getArmies();
-		territoryArmies[move.getTo()  .ID] += move.getArmies();
+		// Move armies, if any
+		if(move.getArmies() != 0) {
+			
+			territoryArmies[move.getFrom().ID] -= move.getArmies();
+			territoryArmies[move.getTo()  .ID] += move.getArmies();
+			
+		}
 		
 		// Next player's turn
 		nextTurn();
 		
+		advanceSequence();
+		
 		return true;
 		
 	}
@@ -490,9 +888,11 @@ public final class GameData extends Message {
 		
 		playerTurn.takeCards(cards);
 		deck.addAll(cards);
-		Collections.shuffle(deck);
+		Collections.shuffle(deck, random);
+		
+		giveFreeArmies(playerTurn, exchange());
 		
-		playerTurn.giveFreeArmies(exchange());
+		advanceSequence();
 		
 		return true;
 		
@@ -511,20 +911,22 @@ public final class GameData extends Message {
 		GamePhase phase = phase();
 		
 		// Place armies
-		playerTurn.takeFreeArmies(move.getArmies());
+		takeFreeArmies(playerTurn, move.getArmies());
 		
 		int oldArmies = territoryArmies[move.getTerritory().ID];
 		territoryArmies[move.getTerritory().ID] = oldArmies + move.getArmies();
 		
 		// If we're claiming, give player territory and go to next turn
 		if(oldArmies == 0)
-			playerTurn.giveTerritory(move.getTerritory());
+			setTerritoryOwner(move.getTerritory(), playerTurn);
 		
 		if(phase == GamePhase.CLAIMING)
 			nextTurn();
 		
 		lastConquered = lastConquering = null;
 		
+		advanceSequence();
+		
 		return true;
 		
 	}
@@ -545,17 +947,118 @@ public final class GameData extends Message {
 		
 		lastConquered = lastConquering = null;
 		
+		advanceSequence();
+		
 		return true;
 		
 	}
 	
-	private int exchange() {
+	// Applies a move in its wire format, returns false if the message is not
+	// a move or the move is not allowed
+	public boolean doMove(Integer requestingPlayerID, byte[] message, int offset, int length) {
+		
+		switch((int) message[offset]) {
+			
+		case MessageType.PLACE_ARMY:
+			PlaceArmies placeArmies = PlaceArmies.fromBytes(message, offset, length);
+			return placeArmies != null && doMove(requestingPlayerID, placeArmies);
+			
+		case MessageType.EXCHANGE_CARDS:
+			ExchangeCards exchangeCards = ExchangeCards.fromBytes(message, offset, length);
+			return exchangeCards != null && doMove(requestingPlayerID, exchangeCards);
+			
+		case MessageType.ATTACK:
+			Attack attack = Attack.fromBytes(message, offset, length);
+			return attack != null && doMove(requestingPlayerID, attack);
+			
+		case MessageType.BLITZ:
+			Blitz blitz = Blitz.fromBytes(message, offset, length);
+			return blitz != null && doMove(requestingPlayerID, blitz) != null;
+			
+		case MessageType.TRANSFER_ARMIES:
+			TransferArmies transferArmies = TransferArmies.fromBytes(message, offset, length);
+			return transferArmies != null && doMove(requestingPlayerID, transferArmies);
+			
+		case MessageType.END_TURN:
+			EndTurn endTurn = EndTurn.fromBytes(message, offset, length);
+			return endTurn != null && doMove(requestingPlayerID, endTurn);
+			
+		default:
+			return false;
+			
+		}
+		
+	}
+	
+	// Rolls the dice for one attack and applies the losses, returns the number
+	// of armies the attacker lost
+	private int roll(Territory from, Territory to, int dice) {
+		
+		int defendingDice = BattleOdds.defenderDice(dice, territoryArmies[to.ID]);
+		
+		int[] diceAttacker = new int[dice];
+		int[] diceDefender = new int[defendingDice];
 		
-		if(exchanges <= EXCHANGE_CHART.length)
-			return EXCHANGE_CHART[exchanges++];
+		for(int i = 0; i < diceAttacker.length; ++i)
+			diceAttacker[i] = random.nextInt(6);
+		
+		for(int i = 0; i < diceDefender.length; ++i)
+			diceDefender[i] = random.nextInt(6);
 		
-		return EXCHANGE_CHART[EXCHANGE_CHART.length - 1] + 5 * (exchanges - EXCHANGE_CHART.length + 1);
+		// Compare rolls
+		Util.sortDescending(diceAttacker);
+		Util.sortDescending(diceDefender);
+		
+		int attackerLoss = 0;
+		int defenderLoss = 0;
+		
+		for(int i = 0; i < diceDefender.length; ++i) {
+			
+			if(diceAttacker[i] > diceDefender[i])
+				++defenderLoss;
+			
+			else
+				++attackerLoss;
+			
+		}
+		
+		// Affect armies
+		territoryArmies[from.ID] -= attackerLoss;
+		territoryArmies[to  .ID] -= defenderLoss;
 		
+		// Was territory conquered?
+		if(territoryArmies[to.ID] == 0) {
+			
+			conqueredThisTurn = true;
+			
+			lastConquering = from;
+			lastConquered = to;
+			
+			setTerritoryOwner(to, territoryOwner(from));
+			
+			--territoryArmies[from.ID];
+			++territoryArmies[to.ID];
+			
+		}
+		
+		else
+			lastConquered = lastConquering = null;
+		
+		return attackerLoss;
+		
+	}
+	
+	private void advanceSequence() {
+		sequence = (sequence + 1) & 0xffff;
+	}
+	
+	private int exchange() {
+		return exchangeArmies(exchanges++);
+	}
+	
+	// Armies given for a set of cards after the specified number of exchanges
+	public static int exchangeArmies(int exchanges) {
+		return exchanges < EXCHANGE_CHART.length ? EXCHANGE_CHART[exchanges] : EXCHANGE_CHART[EXCHANGE_CHART.length - 1] + 5 * (exchanges - EXCHANGE_CHART.length + 1);
 	}
 	
 }
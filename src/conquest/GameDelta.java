@@ -0,0 +1,248 @@
+package conquest;
+
+public final class GameDelta extends Message {
+	
+	private static final int STATIC_LENGTH = 5;
+	private static final int PER_TERRITORY_LENGTH = 4;
+	private static final int PER_PLAYER_LENGTH = 4;
+	private static final int CARDS_LENGTH = 6;
+	
+	public static final int NO_OWNER = 0xff;
+	public static final long NO_CARDS = -1L;
+	
+	private final int sequence;
+	private final int playerTurn;
+	private final int[] territories, owners, armies;
+	private final int[] players, freeArmies, cardCounts;
+	private final long cards;
+	
+	// Changes since the state numbered one less than the sequence. Cards are
+	// the receiving player's cards, or NO_CARDS if they did not change.
+	public GameDelta(int sequence, int playerTurn, int[] territories, int[] owners, int[] armies, int[] players, int[] freeArmies, int[] cardCounts, long cards) {
+		
+		if(sequence < 0 || sequence > 0xffff)
+			throw new IllegalArgumentException();
+		
+		if(territories.length != owners.length || territories.length != armies.length || territories.length > Territory.TERRITORY_COUNT)
+			throw new IllegalArgumentException();
+		
+		if(players.length != freeArmies.length || players.length != cardCounts.length || players.length > 6)
+			throw new IllegalArgumentException();
+		
+		if(cards != NO_CARDS && (cards & ~Card.ALL_CARDS_MASK) != 0L)
+			throw new IllegalArgumentException();
+		
+		this.sequence = sequence;
+		this.playerTurn = playerTurn;
+		this.territories = territories;
+		this.owners = owners;
+		this.armies = armies;
+		this.players = players;
+		this.freeArmies = freeArmies;
+		this.cardCounts = cardCounts;
+		this.cards = cards;
+		
+	}
+	
+	public int getSequence() {
+		return sequence;
+	}
+	
+	public int getPlayerTurn() {
+		return playerTurn;
+	}
+	
+	public int territoryCount() {
+		return territories.length;
+	}
+	
+	public Territory getTerritory(int index) {
+		return Territory.fromID(territories[index]);
+	}
+	
+	public int getOwner(int index) {
+		return owners[index];
+	}
+	
+	public int getArmies(int index) {
+		return armies[index];
+	}
+	
+	public int playerCount() {
+		return players.length;
+	}
+	
+	public int getPlayer(int index) {
+		return players[index];
+	}
+	
+	public int getFreeArmies(int index) {
+		return freeArmies[index];
+	}
+	
+	public int getCardCount(int index) {
+		return cardCounts[index];
+	}
+	
+	public boolean hasCards() {
+		return cards != NO_CARDS;
+	}
+	
+	public long getCards() {
+		return cards;
+	}
+	
+	public static GameDelta fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static GameDelta fromBytes(byte[] message, int offset, int length) {
+		
+		if(!validateHeader(MessageType.GAME_DELTA, message, offset, length))
+			return null;
+		
+		length -= HEADER_LENGTH;
+		if(length < STATIC_LENGTH)
+			return null;
+		
+		int i = offset + HEADER_LENGTH;
+		
+		int sequence = (message[i++] & 0xff) << 8;
+		sequence    |= (message[i++] & 0xff);
+		
+		int playerTurn = message[i++] & 0xff;
+		
+		// Territories
+		int territoryCount = message[i++] & 0xff;
+		
+		if(territoryCount > Territory.TERRITORY_COUNT || i + territoryCount * PER_TERRITORY_LENGTH >= offset + HEADER_LENGTH + length)
+			return null;
+		
+		int[] territories = new int[territoryCount];
+		int[] owners = new int[territoryCount];
+		int[] armies = new int[territoryCount];
+		
+		for(int j = 0; j < territoryCount; ++j) {
+			
+			territories[j] = message[i++] & 0xff;
+			owners[j] = message[i++] & 0xff;
+			
+			armies[j]  = (message[i++] & 0xff) << 8;
+			armies[j] |= (message[i++] & 0xff);
+			
+			if(territories[j] >= Territory.TERRITORY_COUNT)
+				return null;
+			
+		}
+		
+		// Players
+		int playerCount = message[i++] & 0xff;
+		int remaining = offset + HEADER_LENGTH + length - i - playerCount * PER_PLAYER_LENGTH;
+		
+		if(playerCount > 6 || (remaining != 0 && remaining != CARDS_LENGTH))
+			return null;
+		
+		int[] players = new int[playerCount];
+		int[] freeArmies = new int[playerCount];
+		int[] cardCounts = new int[playerCount];
+		
+		for(int j = 0; j < playerCount; ++j) {
+			
+			players[j] = message[i++] & 0xff;
+			
+			freeArmies[j]  = (message[i++] & 0xff) << 8;
+			freeArmies[j] |= (message[i++] & 0xff);
+			
+			cardCounts[j] = message[i++] & 0xff;
+			
+			if(cardCounts[j] > Card.CARD_COUNT)
+				return null;
+			
+		}
+		
+		// Receiving player's cards, only present if they changed
+		long cards = NO_CARDS;
+		
+		if(remaining == CARDS_LENGTH) {
+			
+			cards  = (message[i++] & 0xffL) << 40;
+			cards |= (message[i++] & 0xffL) << 32;
+			cards |= (message[i++] & 0xffL) << 24;
+			cards |= (message[i++] & 0xffL) << 16;
+			cards |= (message[i++] & 0xffL) << 8;
+			cards |= (message[i++] & 0xffL);
+			
+			cards &= Card.ALL_CARDS_MASK;
+			
+		}
+		
+		return new GameDelta(sequence, playerTurn, territories, owners, armies, players, freeArmies, cardCounts, cards);
+		
+	}
+	
+	@Override
+	public byte[] toBytes(Integer currentPlayer) {
+		
+		int length = STATIC_LENGTH + territories.length * PER_TERRITORY_LENGTH + players.length * PER_PLAYER_LENGTH;
+		byte[] message = createMessage(MessageType.GAME_DELTA, length);
+		
+		int i = HEADER_LENGTH;
+		
+		message[i++] = (byte) (sequence >>> 8);
+		message[i++] = (byte) (sequence      );
+		
+		message[i++] = (byte) playerTurn;
+		
+		// Territories
+		message[i++] = (byte) territories.length;
+		
+		for(int j = 0; j < territories.length; ++j) {
+			
+			message[i++] = (byte) territories[j];
+			message[i++] = (byte) owners[j];
+			
+			message[i++] = (byte) (armies[j] >>> 8);
+			message[i++] = (byte) (armies[j]      );
+			
+		}
+		
+		// Players
+		message[i++] = (byte) players.length;
+		
+		for(int j = 0; j < players.length; ++j) {
+			
+			message[i++] = (byte) players[j];
+			
+			message[i++] = (byte) (freeArmies[j] >>> 8);
+			message[i++] = (byte) (freeArmies[j]      );
+			
+			message[i++] = (byte) cardCounts[j];
+			
+		}
+		
+		return hasCards() ? withCards(message, cards) : message;
+		
+	}
+	
+	// Copies an encoded delta without cards and appends one player's cards
+	public static byte[] withCards(byte[] message, long cards) {
+		
+		byte[] withCards = new byte[message.length + CARDS_LENGTH];
+		System.arraycopy(message, 0, withCards, 0, message.length);
+		
+		withCards[1] = (byte) (message.length - HEADER_LENGTH + CARDS_LENGTH);
+		
+		int i = message.length;
+		
+		withCards[i++] = (byte) (cards >>> 40);
+		withCards[i++] = (byte) (cards >>> 32);
+		withCards[i++] = (byte) (cards >>> 24);
+		withCards[i++] = (byte) (cards >>> 16);
+		withCards[i++] = (byte) (cards >>>  8);
+		withCards[i++] = (byte) (cards       );
+		
+		return withCards;
+		
+	}
+
+}
@@ -18,15 +18,19 @@ public final class GameFail extends Message {
 	}
 	
 	public static GameFail fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static GameFail fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.GAME_FAIL, message, length))
+		if(!validateHeader(MessageType.GAME_FAIL, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
 		if(length > 255)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		char[] str = new char[length];
 		for(int j = 0; j < str.length; ++j)
@@ -0,0 +1,317 @@
+package conquest;
+
+import java.io.*;
+import java.util.*;
+
+// The journal of one game. A snapshot of the whole game, with the state of its
+// random numbers, is written when it starts and after every SNAPSHOT_INTERVAL
+// moves, and every accepted move is written after it, so the game can be
+// rebuilt by restoring the last snapshot and playing the moves after it again.
+// The dice come out the same the second time because the game's numbers
+// continue from the snapshot.
+public final class GameJournal {
+	
+	public static final int SNAPSHOT_INTERVAL = 64;
+	
+	private static final int SNAPSHOT = 1;
+	private static final int MOVE = 2;
+	
+	private static final int MOVE_HEADER_LENGTH = 2;
+	
+	private final Journal journal;
+	private final JournalStore store;
+	private final int roomID;
+	
+	private int movesSinceSnapshot;
+	
+	// Only set on recovered games
+	private GameData recoveredGame;
+	private int replayedMoves;
+	private long recoveryNanos;
+	
+	private GameJournal(Journal journal, JournalStore store, int roomID) {
+		
+		this.journal = journal;
+		this.store = store;
+		this.roomID = roomID;
+		
+	}
+	
+	public static GameJournal create(Journal journal, int roomID) throws IOException {
+		return new GameJournal(journal, journal.create(roomID), roomID);
+	}
+	
+	public int getRoomID() {
+		return roomID;
+	}
+	
+	public GameData getRecoveredGame() {
+		return recoveredGame;
+	}
+	
+	public int getReplayedMoves() {
+		return replayedMoves;
+	}
+	
+	public long getRecoveryNanos() {
+		return recoveryNanos;
+	}
+	
+	public void snapshot(GameData data) throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeByte(SNAPSHOT);
+		out.writeShort(data.getSequence());
+		
+		GameRandom random = data.getRandom();
+		out.writeLong(random.getSeed());
+		out.writeLong(random.getState());
+		out.writeLong(random.getGamma());
+		
+		writeState(out, data.toGameState());
+		out.flush();
+		
+		journal.append(store, bytes.toByteArray());
+		movesSinceSnapshot = 0;
+		
+	}
+	
+	// Called once the move has been applied to the game
+	public void recordMove(Integer playerID, Message move, GameData data) throws IOException {
+		
+		byte[] message = move.toBytes(playerID);
+		byte[] record = new byte[MOVE_HEADER_LENGTH + message.length];
+		
+		record[0] = (byte) MOVE;
+		record[1] = (byte)(int) playerID;
+		
+		System.arraycopy(message, 0, record, MOVE_HEADER_LENGTH, message.length);
+		
+		journal.append(store, record);
+		
+		if(++movesSinceSnapshot >= SNAPSHOT_INTERVAL)
+			snapshot(data);
+		
+	}
+	
+	// The game was abandoned, nothing is left to recover
+	public void delete() {
+		journal.forget(store);
+	}
+	
+	// The game was played to the end. Its archive keeps the first snapshot
+	// and every move, the later snapshots were only there for recovery.
+	public File archive() throws IOException {
+		
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		
+		for(byte[] record : store.readAll())
+			if(records.isEmpty() || (record.length != 0 && record[0] != SNAPSHOT))
+				records.add(record);
+		
+		return journal.archive(store, roomID, records);
+		
+	}
+	
+	// Returns null if the journal holds no game that can be continued
+	static GameJournal recover(Journal journal, int roomID, JournalStore store) throws IOException {
+		
+		long start = System.nanoTime();
+		List<byte[]> records = store.readAll();
+		
+		int snapshot = -1;
+		
+		for(int i = records.size() - 1; i >= 0 && snapshot < 0; --i)
+			if(records.get(i).length != 0 && records.get(i)[0] == SNAPSHOT)
+				snapshot = i;
+		
+		if(snapshot < 0)
+			return null;
+		
+		GameJournal game = new GameJournal(journal, store, roomID);
+		GameData data = readSnapshot(records.get(snapshot));
+		
+		if(data == null)
+			return null;
+		
+		for(int i = snapshot + 1; i < records.size(); ++i) {
+			
+			if(!replay(records.get(i), data))
+				return null;
+			
+			++game.replayedMoves;
+			
+		}
+		
+		if(data.phase() == GamePhase.VICTORY)
+			return null;
+		
+		game.movesSinceSnapshot = game.replayedMoves;
+		game.recoveredGame = data;
+		game.recoveryNanos = System.nanoTime() - start;
+		
+		return game;
+		
+	}
+	
+	// Turns an archived game into a replay, returns null if the archive does
+	// not start with the game as its seed began it
+	public static Replay toReplay(List<byte[]> records) {
+		
+		if(records.isEmpty() || records.get(0).length == 0 || records.get(0)[0] != SNAPSHOT)
+			return null;
+		
+		GameData start = readSnapshot(records.get(0));
+		
+		if(start == null)
+			return null;
+		
+		Replay.Recorder recorder = new Replay.Recorder(start.getSeed(), start.getPlayerIDs());
+		GameData data = recorder.newGame();
+		
+		if(data.getSequence() != start.getSequence() || data.getRandom().getState() != start.getRandom().getState())
+			return null;
+		
+		for(int i = 1; i < records.size(); ++i) {
+			
+			byte[] record = records.get(i);
+			
+			if(record.length <= MOVE_HEADER_LENGTH || record[0] != MOVE)
+				return null;
+			
+			recorder.add(record[1] & 0xff, record, MOVE_HEADER_LENGTH, record.length - MOVE_HEADER_LENGTH);
+			
+		}
+		
+		return recorder.finish();
+		
+	}
+	
+	// Reads the archive without changing it
+	public static Replay toReplay(File archive) throws IOException {
+		return toReplay(FileJournalStore.readAll(archive));
+	}
+	
+	// Returns null if the snapshot cannot be read
+	private static GameData readSnapshot(byte[] record) {
+		
+		try {
+			
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+			in.readByte();
+			
+			int sequence = in.readUnsignedShort();
+			long seed = in.readLong();
+			long state = in.readLong();
+			long gamma = in.readLong();
+			
+			GameData data = GameData.fromGameState(readState(in));
+			data.setSequence(sequence);
+			data.getRandom().restore(seed, state, gamma);
+			
+			return data;
+			
+		} catch(IOException e) {
+			return null;
+		} catch(RuntimeException e) {
+			return null;
+		}
+		
+	}
+	
+	private static boolean replay(byte[] record, GameData data) {
+		
+		if(record.length <= MOVE_HEADER_LENGTH || record[0] != MOVE)
+			return false;
+		
+		return data.doMove(record[1] & 0xff, record, MOVE_HEADER_LENGTH, record.length - MOVE_HEADER_LENGTH);
+		
+	}
+	
+	private static void writeState(DataOutputStream out, GameState state) throws IOException {
+		
+		out.writeByte(state.playerCount());
+		
+		for(int slot = 0; slot < state.playerCount(); ++slot) {
+			
+			out.writeByte(state.playerID(slot));
+			out.writeShort(state.freeArmies(slot));
+			out.writeLong(state.cardMask(slot));
+			out.writeByte(state.cardCount(slot));
+			
+		}
+		
+		out.writeByte(state.playerTurn());
+		
+		for(int i = 0; i < Territory.TERRITORY_COUNT; ++i) {
+			
+			out.writeByte(state.owner(i));
+			out.writeShort(state.armies(i));
+			
+		}
+		
+		out.writeByte(state.deckSize());
+		
+		for(int i = 0; i < state.deckSize(); ++i)
+			out.writeByte(state.deckCard(i).ID);
+		
+		out.writeShort(state.exchanges());
+		out.writeBoolean(state.conqueredThisTurn());
+		out.writeByte(state.lastConquering());
+		out.writeByte(state.lastConquered());
+		
+	}
+	
+	private static GameState readState(DataInputStream in) throws IOException {
+		
+		GameState state = new GameState();
+		int playerCount = in.readUnsignedByte();
+		
+		if(playerCount > GameState.MAX_PLAYERS)
+			throw new IOException("Bad player count");
+		
+		for(int slot = 0; slot < playerCount; ++slot) {
+			
+			int playerID = in.readUnsignedByte();
+			int freeArmies = in.readUnsignedShort();
+			long cardMask = in.readLong();
+			int cardCount = in.readUnsignedByte();
+			
+			state.setPlayer(slot, playerID, freeArmies, cardMask, cardCount);
+			
+		}
+		
+		state.setPlayerTurn(in.readByte());
+		
+		for(int i = 0; i < Territory.TERRITORY_COUNT; ++i) {
+			
+			int owner = in.readByte();
+			int armies = in.readUnsignedShort();
+			
+			state.setTerritory(i, owner, armies);
+			
+		}
+		
+		int deckSize = in.readUnsignedByte();
+		
+		if(deckSize > Card.CARD_COUNT)
+			throw new IOException("Bad deck size");
+		
+		for(int i = 0; i < deckSize; ++i)
+			state.pushCard(Card.VALUES.get(in.readUnsignedByte()));
+		
+		state.setExchanges(in.readUnsignedShort());
+		
+		boolean conqueredThisTurn = in.readBoolean();
+		int lastConquering = in.readByte();
+		int lastConquered = in.readByte();
+		
+		state.setConquest(conqueredThisTurn, lastConquering, lastConquered);
+		
+		return state;
+		
+	}
+
+}
@@ -150,7 +150,7 @@ public class GameMap extends JComponent implements MouseMotionListener, MouseLis
 		
 	}
 	
-	private Territory getTerritoryAt(int x, int y) {
+	protected Territory getTerritoryAt(int x, int y) {
 		
 		if(x < 0 || x >= WIDTH)
 			return null;
@@ -176,6 +176,11 @@ public class GameMap extends JComponent implements MouseMotionListener, MouseLis
 		return getTerritoryAt(mouseOver.x, mouseOver.y);
 	}
 	
+	// The first territory of a pair click, if one has been clicked
+	protected Territory getSelectedTerritory() {
+		return previousClick;
+	}
+	
 	public int getColorForPlayer(Integer playerID) {
 		
 		if(playerID == null)
@@ -334,6 +339,9 @@ public class GameMap extends JComponent implements MouseMotionListener, MouseLis
 					
 				}
 				
+				else
+					previousClick = territory;
+				
 			}
 			
 		}
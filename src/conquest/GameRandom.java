@@ -0,0 +1,159 @@
+package conquest;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// The random numbers of one game, the same SplitMix64 generator as
+// java.util.SplittableRandom. It extends Random so it can be handed to
+// Collections.shuffle, and its whole state is two longs so a journal
+// snapshot can store it. A game's dice and deck order follow from its
+// seed, and games never share a generator. Not thread safe.
+public final class GameRandom extends Random {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	private long state;
+	private long gamma;
+	private long seed;
+	
+	public GameRandom(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+	
+	private GameRandom(long seed, long gamma) {
+		
+		super(0L);
+		
+		this.seed = seed;
+		this.state = seed;
+		this.gamma = gamma;
+		
+	}
+	
+	// A seed for a new game, different every time
+	public static long newSeed() {
+		return ThreadLocalRandom.current().nextLong();
+	}
+	
+	// Seed the generator started from
+	public long getSeed() {
+		return seed;
+	}
+	
+	public long getState() {
+		return state;
+	}
+	
+	public long getGamma() {
+		return gamma;
+	}
+	
+	// Continues from a state saved with getSeed(), getState() and getGamma()
+	public void restore(long seed, long state, long gamma) {
+		
+		this.seed = seed;
+		this.state = state;
+		this.gamma = gamma | 1L;
+		
+	}
+	
+	// A new generator whose numbers do not overlap this one's, for giving
+	// each worker of a simulation its own stream
+	public GameRandom split() {
+		
+		long seed = mix64(nextSeed());
+		
+		return new GameRandom(seed, mixGamma(nextSeed()));
+		
+	}
+	
+	// Called by the Random constructor with 0, which is then replaced
+	@Override
+	public void setSeed(long seed) {
+		
+		this.seed = seed;
+		this.state = seed;
+		
+	}
+	
+	@Override
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+	
+	@Override
+	protected int next(int bits) {
+		return (int) (mix64(nextSeed()) >>> (64 - bits));
+	}
+	
+	@Override
+	public int nextInt() {
+		return mix32(nextSeed());
+	}
+	
+	@Override
+	public int nextInt(int bound) {
+		
+		if(bound <= 0)
+			throw new IllegalArgumentException("Bound must be positive");
+		
+		int r = mix32(nextSeed());
+		int m = bound - 1;
+		
+		if((bound & m) == 0)
+			return r & m;
+		
+		// Rejects the top few values so every result is equally likely
+		for(int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1);
+		
+		return r;
+		
+	}
+	
+	@Override
+	public double nextDouble() {
+		return (mix64(nextSeed()) >>> 11) * 0x1.0p-53;
+	}
+	
+	@Override
+	public boolean nextBoolean() {
+		return mix32(nextSeed()) < 0;
+	}
+	
+	private long nextSeed() {
+		return state += gamma;
+	}
+	
+	private static long mix64(long z) {
+		
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		
+		return z ^ (z >>> 31);
+		
+	}
+	
+	private static int mix32(long z) {
+		
+		z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+		
+		return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+		
+	}
+	
+	// Odd gammas with enough bit transitions, as SplittableRandom picks them
+	private static long mixGamma(long z) {
+		
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		
+		int n = Long.bitCount(z ^ (z >>> 1));
+		
+		return n < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+		
+	}
+
+}
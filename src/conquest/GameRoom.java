@@ -0,0 +1,675 @@
+package conquest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Each room is an actor. Moves, chat and everything else that touches the game
+// are queued in the room's mailbox and run one at a time on the server's room
+// executor, so the game is only ever used from one thread at a time and moves
+// are applied in the order they arrived. Joining and leaving still take the
+// room's lock, but only to change who is in the room.
+//
+// When the server keeps a journal, a player who disconnects from a game in
+// progress leaves their seat open and the game waits for them to rejoin.
+//
+// Spectators are not members of the room. Everything they are sent is handed
+// once to the room's audience, which writes it to all of them away from the
+// room's thread.
+public final class GameRoom {
+	
+	// Commands run before the room gives its thread to other rooms
+	private static final int MAILBOX_BATCH = 64;
+	
+	private final int id;
+	private final ServerInstance server;
+	private final TreeMap<Integer, ServerInstance.ClientConnection> clients;
+	private final TreeSet<Integer> idPool;
+	
+	private final Executor executor;
+	private final Queue<Runnable> mailbox;
+	private final AtomicBoolean scheduled;
+	private final Runnable drain;
+	private final Audience audience;
+	
+	// Copy of the clients for the mailbox to use without the lock
+	private volatile ServerInstance.ClientConnection[] members;
+	private volatile boolean started, hasQuit;
+	
+	// Seats of the game, left open for players who disconnect while the
+	// game is journaled
+	private volatile Set<Integer> playerIDs;
+	private volatile boolean resumable;
+	
+	// Only used from the mailbox
+	private GameData data;
+	private GameJournal journal;
+	
+	// Last state broadcast and the cards each player was last sent, by ID
+	private byte[] lastState;
+	private final long[] sentCards;
+	
+	public GameRoom(ServerInstance server, int id, Executor executor, Executor spectatorExecutor) {
+		
+		this.id = id;
+		this.server = server;
+		this.clients = new TreeMap<Integer, ServerInstance.ClientConnection>();
+		this.idPool = new TreeSet<Integer>();
+		this.sentCards = new long[Hello.MAX_ID + 1];
+		
+		this.executor = executor;
+		this.audience = new Audience(spectatorExecutor);
+		this.mailbox = new ConcurrentLinkedQueue<Runnable>();
+		this.scheduled = new AtomicBoolean();
+		this.members = new ServerInstance.ClientConnection[0];
+		
+		this.drain = new Runnable() {
+			public void run() {
+				drainMailbox();
+			}
+		};
+		
+		for(int i = 1; i <= ServerInstance.MAX_PLAYERS; ++i)
+			this.idPool.add(i);
+		
+	}
+	
+	public int getID() {
+		return id;
+	}
+	
+	public synchronized int size() {
+		return clients.size();
+	}
+	
+	// Spectators do not count, a room with only spectators left is empty
+	public synchronized boolean isEmpty() {
+		return clients.isEmpty();
+	}
+	
+	public int spectatorCount() {
+		return audience.size();
+	}
+	
+	// Whether automatically assigned players may still be put in this room
+	public synchronized boolean isOpen() {
+		return !started && !hasQuit && clients.size() < ServerInstance.MAX_PLAYERS;
+	}
+	
+	public synchronized boolean canStartGame() {
+		return !started && !hasQuit && clients.size() >= ServerInstance.MIN_PLAYERS && clients.size() <= ServerInstance.MAX_PLAYERS;
+	}
+	
+	public boolean hasStartedGame() {
+		return started;
+	}
+	
+	// A game in progress with seats open for players who disconnected
+	public synchronized boolean isWaitingForPlayers() {
+		return started && !hasQuit && resumable && clients.size() < playerIDs.size();
+	}
+	
+	public synchronized boolean join(ServerInstance.ClientConnection client) {
+		
+		if(started || hasQuit)
+			return false;
+		
+		Integer playerID = idPool.pollFirst();
+		
+		if(playerID == null)
+			return false;
+		
+		clients.put(playerID, client);
+		updateMembers();
+		client.joinedRoom(this, playerID);
+		
+		server.log(client.getName() + " joined room " + id);
+		
+		post(new Runnable() {
+			public void run() {
+				broadcastPlayerList();
+			}
+		});
+		
+		return true;
+		
+	}
+	
+	// Spectators may watch a room until its game is cancelled
+	public synchronized boolean spectate(ServerInstance.ClientConnection client) {
+		
+		if(hasQuit || !audience.add(client, server.getMaxSpectators()))
+			return false;
+		
+		client.joinedRoom(this, JoinRoom.SPECTATOR);
+		server.log(client.getName() + " is watching room " + id);
+		
+		return true;
+		
+	}
+	
+	public synchronized void leave(ServerInstance.ClientConnection client) {
+		
+		if(client.isSpectator()) {
+			
+			audience.remove(client);
+			return;
+			
+		}
+		
+		Integer playerID = client.getID();
+		
+		if(clients.get(playerID) != client)
+			return;
+		
+		clients.remove(playerID);
+		idPool.add(playerID);
+		updateMembers();
+		
+		// If game has started, wait for the player to come back if it can
+		// be resumed and cancel it otherwise
+		if(started && resumable) {
+			
+			server.log("Game in room " + id + " is waiting for " + client.getName() + " to rejoin as player " + playerID);
+			
+			post(new Runnable() {
+				public void run() {
+					broadcastPlayerList();
+				}
+			});
+			
+		}
+		
+		else if(started)
+			quit("Player " + client.getName() + " was disconnected");
+		
+		else {
+			
+			post(new Runnable() {
+				public void run() {
+					broadcastPlayerList();
+				}
+			});
+			
+		}
+		
+	}
+	
+	// Takes back the seat of a player who disconnected from the game
+	public synchronized boolean rejoin(final ServerInstance.ClientConnection client, final Integer playerID) {
+		
+		if(!started || hasQuit || !resumable || !playerIDs.contains(playerID) || clients.containsKey(playerID))
+			return false;
+		
+		clients.put(playerID, client);
+		updateMembers();
+		client.joinedRoom(this, playerID);
+		
+		server.log(client.getName() + " rejoined room " + id + " as player " + playerID);
+		
+		post(new Runnable() {
+			public void run() {
+				
+				broadcastPlayerList();
+				
+				// Not started yet if the game is still being set up
+				if(data != null && isMember(client)) {
+					
+					client.sendMessage(data.toBytes(playerID));
+					sentCards[playerID] = data.getPlayer(playerID).getOwnedCardsAsMask();
+					
+				}
+				
+			}
+		});
+		
+		return true;
+		
+	}
+	
+	// Continues a game recovered from its journal, every seat is open until
+	// its player rejoins
+	public void restore(final GameJournal game) {
+		
+		synchronized(this) {
+			
+			if(started)
+				throw new IllegalStateException();
+			
+			started = true;
+			resumable = true;
+			playerIDs = Collections.unmodifiableSet(new TreeSet<Integer>(game.getRecoveredGame().getPlayerIDs()));
+			
+		}
+		
+		post(new Runnable() {
+			public void run() {
+				
+				journal = game;
+				data = game.getRecoveredGame();
+				
+			}
+		});
+		
+	}
+	
+	public boolean startGame() {
+		
+		final TreeSet<Integer> playerIDs;
+		
+		synchronized(this) {
+			
+			if(!canStartGame())
+				return false;
+			
+			started = true;
+			resumable = server.isJournaling();
+			playerIDs = new TreeSet<Integer>(clients.keySet());
+			this.playerIDs = Collections.unmodifiableSet(playerIDs);
+			
+		}
+		
+		// Logged so the game can be played again from the same seed
+		final long seed = GameRandom.newSeed();
+		
+		post(new Runnable() {
+			public void run() {
+				
+				data = new GameData(playerIDs, seed);
+				data.initializeGame();
+				
+				startJournal();
+				broadcastGameState();
+				
+			}
+		});
+		
+		server.log("Game started in room " + id + " with seed " + seed);
+		
+		return true;
+		
+	}
+	
+	public void quit(String reason) {
+		
+		final String message = reason == null ? "No reason given" : reason;
+		
+		post(new Runnable() {
+			public void run() {
+				
+				if(data == null || hasQuit)
+					return;
+				
+				hasQuit = true;
+				endJournal();
+				
+				for(ServerInstance.ClientConnection client : members)
+					client.quit(message);
+				
+				audience.publish(new GameFail(message).toBytes(null));
+				
+			}
+		});
+		
+	}
+	
+	public void kick(Integer playerID) {
+		
+		ServerInstance.ClientConnection client;
+		
+		synchronized(this) {
+			client = clients.get(playerID);
+		}
+		
+		if(client != null)
+			client.kill();
+		
+	}
+	
+	// Moves are checked and applied in the mailbox, a client whose move is
+	// not allowed is disconnected
+	public void doMove(final ServerInstance.ClientConnection client, final PlaceArmies move) {
+		
+		post(new Runnable() {
+			public void run() {
+				moveDone(client, "place armies", move, data != null && data.doMove(client.getID(), move));
+			}
+		});
+		
+	}
+	
+	public void doMove(final ServerInstance.ClientConnection client, final ExchangeCards move) {
+		
+		post(new Runnable() {
+			public void run() {
+				moveDone(client, "exchange cards", move, data != null && data.doMove(client.getID(), move));
+			}
+		});
+		
+	}
+	
+	public void doMove(final ServerInstance.ClientConnection client, final Attack move) {
+		
+		post(new Runnable() {
+			public void run() {
+				moveDone(client, "attack", move, data != null && data.doMove(client.getID(), move));
+			}
+		});
+		
+	}
+	
+	public void doMove(final ServerInstance.ClientConnection client, final Blitz move) {
+		
+		post(new Runnable() {
+			public void run() {
+				
+				BlitzResult result = data == null ? null : data.doMove(client.getID(), move);
+				
+				if(!moveDone(client, "blitz", move, result != null))
+					return;
+				
+				byte[] message = result.toBytes(null);
+				
+				for(ServerInstance.ClientConnection member : members)
+					member.sendMessage(message);
+				
+				audience.publish(message);
+				
+			}
+		});
+		
+	}
+	
+	public void doMove(final ServerInstance.ClientConnection client, final TransferArmies move) {
+		
+		post(new Runnable() {
+			public void run() {
+				moveDone(client, "transfer armies", move, data != null && data.doMove(client.getID(), move));
+			}
+		});
+		
+	}
+	
+	public void doMove(final ServerInstance.ClientConnection client, final EndTurn move) {
+		
+		post(new Runnable() {
+			public void run() {
+				moveDone(client, "end turn", move, data != null && data.doMove(client.getID(), move));
+			}
+		});
+		
+	}
+	
+	// Sends the full state to a client that could not apply a delta
+	public void resync(final ServerInstance.ClientConnection client) {
+		
+		post(new Runnable() {
+			public void run() {
+				
+				Integer playerID = client.getID();
+				
+				if(data == null || !isMember(client))
+					return;
+				
+				client.sendMessage(data.toBytes(playerID));
+				sentCards[playerID] = data.getPlayer(playerID).getOwnedCardsAsMask();
+				
+			}
+		});
+		
+	}
+	
+	public void broadcastChat(Chat chat) {
+		
+		final byte[] message = chat.toBytes(null);
+		
+		post(new Runnable() {
+			public void run() {
+				
+				for(ServerInstance.ClientConnection client : members)
+					client.sendMessage(message);
+				
+				audience.publish(message);
+				
+			}
+		});
+		
+	}
+	
+	private void post(Runnable command) {
+		
+		mailbox.add(command);
+		schedule();
+		
+	}
+	
+	private void schedule() {
+		
+		if(!scheduled.compareAndSet(false, true))
+			return;
+		
+		// Nothing runs once the server has shut down
+		try {
+			executor.execute(drain);
+		} catch(RejectedExecutionException e) {}
+		
+	}
+	
+	private void drainMailbox() {
+		
+		Runnable command;
+		
+		for(int i = 0; i < MAILBOX_BATCH && (command = mailbox.poll()) != null; ++i) {
+			
+			try {
+				command.run();
+			} catch(Exception e) {
+				server.log("Error in room " + id + ":  " + e);
+			}
+			
+		}
+		
+		scheduled.set(false);
+		
+		// Commands posted after the last poll, or left over after the batch
+		if(!mailbox.isEmpty())
+			schedule();
+		
+	}
+	
+	// Journals and broadcasts the new state, or disconnects the client if the
+	// move was not allowed
+	private boolean moveDone(ServerInstance.ClientConnection client, String name, Message move, boolean valid) {
+		
+		if(!valid) {
+			
+			client.moveRejected(name);
+			return false;
+			
+		}
+		
+		journalMove(client.getID(), move);
+		broadcastGameState();
+		
+		return true;
+		
+	}
+	
+	private void startJournal() {
+		
+		Journal journal = server.getJournal();
+		
+		if(journal == null)
+			return;
+		
+		try {
+			
+			this.journal = GameJournal.create(journal, id);
+			this.journal.snapshot(data);
+			
+		} catch(IOException e) {
+			journalFailed(e);
+		}
+		
+	}
+	
+	private void journalMove(Integer playerID, Message move) {
+		
+		if(journal == null)
+			return;
+		
+		try {
+			
+			journal.recordMove(playerID, move, data);
+			
+			// Nothing to recover once the game is won
+			if(data.phase() == GamePhase.VICTORY)
+				endJournal();
+			
+		} catch(IOException e) {
+			journalFailed(e);
+		}
+		
+	}
+	
+	private void journalFailed(IOException e) {
+		
+		server.log("Stopped journaling game in room " + id + ":  " + e.getMessage());
+		endJournal();
+		
+		synchronized(this) {
+			resumable = false;
+		}
+		
+		// Players who already left will not be able to come back
+		if(members.length < playerIDs.size())
+			quit("Game in room " + id + " can no longer be resumed");
+		
+	}
+	
+	private void endJournal() {
+		
+		if(journal == null)
+			return;
+		
+		// Games played to the end are archived, the rest are just deleted
+		if(data.phase() != GamePhase.VICTORY)
+			journal.delete();
+		
+		else {
+			
+			try {
+				server.log("Archived game in room " + id + " to " + journal.archive());
+			} catch(IOException e) {
+				server.log("Could not archive game in room " + id + ":  " + e.getMessage());
+				journal.delete();
+			}
+			
+		}
+		
+		journal = null;
+		
+	}
+	
+	// Called with the lock held
+	private void updateMembers() {
+		members = clients.values().toArray(new ServerInstance.ClientConnection[clients.size()]);
+	}
+	
+	private boolean isMember(ServerInstance.ClientConnection client) {
+		
+		for(ServerInstance.ClientConnection member : members)
+			if(member == client)
+				return true;
+		
+		return false;
+		
+	}
+	
+	private void broadcastGameState() {
+		
+		// Only the card tail differs between players
+		byte[] shared = data.toSharedBytes();
+		byte[] delta = null;
+		
+		if(lastState != null) {
+			
+			GameDelta gameDelta = data.deltaFrom(lastState);
+			
+			if(gameDelta != null)
+				delta = gameDelta.toBytes(null);
+			
+			// Not worth it if the delta is no smaller than the full state
+			if(delta != null && delta.length >= shared.length)
+				delta = null;
+			
+		}
+		
+		lastState = shared;
+		
+		// The shared state has an empty card tail, spectators hold no cards
+		audience.publishState(shared);
+		
+		for(ServerInstance.ClientConnection client : members) {
+			
+			Integer playerID = client.getID();
+			long cards = data.getPlayer(playerID).getOwnedCardsAsMask();
+			byte[] message;
+			
+			if(delta == null)
+				message = data.toBytes(shared, playerID);
+			
+			else if(cards != sentCards[playerID])
+				message = GameDelta.withCards(delta, cards);
+			
+			else
+				message = delta;
+			
+			sentCards[playerID] = cards;
+			
+			// A client that fell behind gets the full state in place of the
+			// delta, it is coalesced with any other state still waiting
+			if(!client.sendMessage(message) && delta != null)
+				client.sendMessage(data.toBytes(shared, playerID));
+			
+		}
+		
+	}
+	
+	private void broadcastPlayerList() {
+		
+		TreeMap<Integer, String> players = new TreeMap<Integer, String>();
+		
+		ServerInstance.ClientConnection[] members = this.members;
+		
+		for(ServerInstance.ClientConnection client : members)
+			players.put(client.getID(), client.getName());
+		
+		// Open seats of a game waiting for its players
+		Set<Integer> playerIDs = this.playerIDs;
+		
+		if(started && resumable && playerIDs != null) {
+			
+			for(Integer playerID : playerIDs)
+				if(!players.containsKey(playerID))
+					players.put(playerID, "(left)");
+			
+		}
+		
+		Players p = new Players(players);
+		byte[] message = p.toBytes(null);
+		
+		for(ServerInstance.ClientConnection client : members)
+			client.sendMessage(message);
+		
+		audience.publishPlayers(message);
+		
+	}
+	
+	@Override
+	public String toString() {
+		return "Room " + id;
+	}
+
+}
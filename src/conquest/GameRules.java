@@ -0,0 +1,416 @@
+package conquest;
+
+import java.util.*;
+
+// The rules GameData applies to moves, applied to a GameState instead so
+// simulations can play moves on copies without allocating. Moves are encoded
+// in a long, the type in the top bits and the territories, armies or cards
+// below, so they can be kept in primitive arrays.
+public final class GameRules {
+	
+	public static final long NO_MOVE = 0L;
+	
+	public static final int PLACE = 1;
+	public static final int ATTACK = 2;
+	public static final int TRANSFER = 3;
+	public static final int END_TURN = 4;
+	public static final int EXCHANGE = 5;
+	
+	private static final int TYPE_SHIFT = 60;
+	private static final int NONE = 0xff;
+	
+	private static final long[] ADJACENCIES = new long[Territory.TERRITORY_COUNT];
+	
+	static {
+		
+		for(Territory territory : Territory.values())
+			ADJACENCIES[territory.ID] = territory.getAdjacencies();
+		
+	}
+	
+	private GameRules() {}
+	
+	// Encoding
+	
+	public static long place(int territory, int armies) {
+		return encode(PLACE, territory, NONE, armies);
+	}
+	
+	public static long attack(int from, int to, int dice) {
+		return encode(ATTACK, from, to, dice);
+	}
+	
+	public static long transfer(int from, int to, int armies) {
+		return encode(TRANSFER, from, to, armies);
+	}
+	
+	public static long endTurn() {
+		return encode(END_TURN, NONE, NONE, 0);
+	}
+	
+	public static long endTurn(int from, int to, int armies) {
+		return armies == 0 ? endTurn() : encode(END_TURN, from, to, armies);
+	}
+	
+	public static long exchange(long cards) {
+		return ((long) EXCHANGE << TYPE_SHIFT) | (cards & Card.ALL_CARDS_MASK);
+	}
+	
+	private static long encode(int type, int from, int to, int armies) {
+		return ((long) type << TYPE_SHIFT) | ((long) armies << 16) | (to << 8) | from;
+	}
+	
+	public static int type(long move) {
+		return (int) (move >>> TYPE_SHIFT);
+	}
+	
+	// The territory armies are placed on, or moved or attacked from
+	public static int from(long move) {
+		return (int) (move & 0xff);
+	}
+	
+	public static int to(long move) {
+		return (int) ((move >>> 8) & 0xff);
+	}
+	
+	// Armies placed or moved, or dice rolled
+	public static int armies(long move) {
+		return (int) ((move >>> 16) & 0xffff);
+	}
+	
+	public static long cards(long move) {
+		return move & Card.ALL_CARDS_MASK;
+	}
+	
+	public static Message toMessage(long move) {
+		
+		switch(type(move)) {
+			
+		case PLACE:
+			return new PlaceArmies(Territory.fromID(from(move)), armies(move));
+			
+		case ATTACK:
+			return new Attack(Territory.fromID(from(move)), Territory.fromID(to(move)), armies(move));
+			
+		case TRANSFER:
+			return new TransferArmies(Territory.fromID(from(move)), Territory.fromID(to(move)), armies(move));
+			
+		case END_TURN:
+			
+			if(armies(move) == 0)
+				return new EndTurn(null, null, 0);
+			
+			return new EndTurn(Territory.fromID(from(move)), Territory.fromID(to(move)), armies(move));
+			
+		case EXCHANGE:
+			return new ExchangeCards(Card.maskToSet(cards(move)));
+			
+		default:
+			throw new IllegalArgumentException("Not a move");
+			
+		}
+		
+	}
+	
+	public static String toString(long move) {
+		
+		switch(type(move)) {
+			
+		case PLACE:
+			return "place " + armies(move) + " on " + Territory.fromID(from(move));
+			
+		case ATTACK:
+			return "attack " + Territory.fromID(to(move)) + " from " + Territory.fromID(from(move)) + " with " + armies(move) + " dice";
+			
+		case TRANSFER:
+			return "transfer " + armies(move) + " from " + Territory.fromID(from(move)) + " to " + Territory.fromID(to(move));
+			
+		case END_TURN:
+			
+			if(armies(move) == 0)
+				return "end turn";
+			
+			return "end turn moving " + armies(move) + " from " + Territory.fromID(from(move)) + " to " + Territory.fromID(to(move));
+			
+		case EXCHANGE:
+			return "exchange " + Card.maskToSet(cards(move));
+			
+		default:
+			return "no move";
+			
+		}
+		
+	}
+	
+	// Rules
+	
+	public static long adjacencies(int territory) {
+		return ADJACENCIES[territory];
+	}
+	
+	// Same checks as the move messages and their isValid methods
+	public static boolean isValid(GameState state, long move) {
+		
+		int player = state.playerTurn();
+		
+		if(player == GameState.NO_PLAYER)
+			return false;
+		
+		GamePhase phase = state.phase();
+		int type = type(move);
+		
+		if(type == EXCHANGE) {
+			
+			long cards = cards(move);
+			return Util.countBits(cards) == 3 && (state.cardMask(player) & cards) == cards && Card.containsExchangeable(cards);
+			
+		}
+		
+		int from = from(move);
+		int to = to(move);
+		int armies = armies(move);
+		
+		switch(type) {
+			
+		case PLACE:
+			
+			if(from >= Territory.TERRITORY_COUNT || armies < 1 || state.freeArmies(player) < armies)
+				return false;
+			
+			if(phase == GamePhase.PLACEMENT)
+				return state.owner(from) == player;
+			
+			return phase == GamePhase.CLAIMING && armies == 1 &&
+				(state.owner(from) == GameState.NO_PLAYER || (state.owner(from) == player && state.ownedTerritoriesMask() == Territory.ALL_TERRITORIES_MASK));
+			
+		case ATTACK:
+			
+			if(!adjacent(from, to) || armies < 1 || armies > BattleOdds.MAX_ATTACKER_DICE)
+				return false;
+			
+			return phase == GamePhase.ATTACKING && state.armies(from) > armies && state.owner(from) == player && state.owner(to) != player;
+			
+		case TRANSFER:
+			
+			if(!adjacent(from, to) || armies < 1 || from != state.lastConquering() || to != state.lastConquered())
+				return false;
+			
+			return phase == GamePhase.ATTACKING && state.armies(from) > armies && state.owner(from) == player && state.owner(to) == player;
+			
+		case END_TURN:
+			
+			if(armies != 0 && (!adjacent(from, to) || state.armies(from) <= armies || state.owner(from) != player || state.owner(to) != player))
+				return false;
+			
+			return phase == GamePhase.ATTACKING;
+			
+		default:
+			return false;
+			
+		}
+		
+	}
+	
+	// Applies a move for the player whose turn it is, returns false without
+	// changing anything if it is not allowed
+	public static boolean doMove(GameState state, long move, Random random) {
+		
+		if(!isValid(state, move))
+			return false;
+		
+		int player = state.playerTurn();
+		int from = from(move);
+		int to = to(move);
+		int armies = armies(move);
+		
+		switch(type(move)) {
+			
+		case PLACE:
+			
+			GamePhase phase = state.phase();
+			
+			state.setFreeArmies(player, state.freeArmies(player) - armies);
+			state.setTerritory(from, player, state.armies(from) + armies);
+			
+			if(phase == GamePhase.CLAIMING)
+				nextTurn(state);
+			
+			state.setConquest(state.conqueredThisTurn(), GameState.NO_TERRITORY, GameState.NO_TERRITORY);
+			break;
+			
+		case ATTACK:
+			roll(state, from, to, armies, random);
+			break;
+			
+		case TRANSFER:
+			
+			state.setArmies(from, state.armies(from) - armies);
+			state.setArmies(to, state.armies(to) + armies);
+			state.setConquest(state.conqueredThisTurn(), GameState.NO_TERRITORY, GameState.NO_TERRITORY);
+			break;
+			
+		case END_TURN:
+			
+			if(armies != 0) {
+				
+				state.setArmies(from, state.armies(from) - armies);
+				state.setArmies(to, state.armies(to) + armies);
+				
+			}
+			
+			nextTurn(state);
+			break;
+			
+		case EXCHANGE:
+			
+			long cards = cards(move);
+			state.setCards(player, state.cardMask(player) & ~cards);
+			
+			for(long mask = cards; mask != 0L; mask &= mask - 1L)
+				state.pushCard(Card.VALUES.get(Long.numberOfTrailingZeros(mask)));
+			
+			state.shuffleDeck(random);
+			
+			state.setFreeArmies(player, state.freeArmies(player) + GameData.exchangeArmies(state.exchanges()));
+			state.setExchanges(state.exchanges() + 1);
+			break;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	// Attacks until the territory falls or the attacker is down to the stop
+	// armies, like a Blitz message, returns false if the attack is not allowed
+	public static boolean blitz(GameState state, int from, int to, int stopArmies, Random random) {
+		
+		stopArmies = Math.max(1, stopArmies);
+		
+		if(state.armies(from) <= stopArmies || !isValid(state, attack(from, to, 1)))
+			return false;
+		
+		while(state.owner(to) != state.playerTurn() && state.armies(from) > stopArmies)
+			roll(state, from, to, Math.min(BattleOdds.MAX_ATTACKER_DICE, state.armies(from) - 1), random);
+		
+		return true;
+		
+	}
+	
+	// Same as GameData.nextTurn()
+	public static void nextTurn(GameState state) {
+		
+		GamePhase phase = state.phase();
+		
+		if(phase == GamePhase.VICTORY)
+			return;
+		
+		int player = state.playerTurn();
+		
+		// Give old player a card
+		if(state.conqueredThisTurn() && state.deckSize() != 0)
+			state.setCards(player, state.cardMask(player) | state.drawCard().MASK);
+		
+		// Next player's turn, skip over players who are out
+		int playerCount = state.playerCount();
+		
+		do {
+			
+			player = (player + 1) % playerCount;
+			
+			if(phase == GamePhase.CLAIMING)
+				break;
+			
+		} while(state.territoryMask(player) == 0L);
+		
+		state.setPlayerTurn(player);
+		
+		// Give armies
+		if(state.freeArmies(player) == 0)
+			state.setFreeArmies(player, income(state, player));
+		
+		state.setConquest(false, GameState.NO_TERRITORY, GameState.NO_TERRITORY);
+		
+	}
+	
+	// Same as PlayerData.calculateIncome()
+	public static int income(GameState state, int slot) {
+		
+		long territories = state.territoryMask(slot);
+		int armies = Math.max(3, Util.countBits(territories) / 3);
+		
+		for(Continent continent : Continent.VALUES)
+			if((territories & continent.MASK) == continent.MASK)
+				armies += continent.ARMY_BONUS;
+		
+		return armies;
+		
+	}
+	
+	// Territories of the player next to someone else's
+	public static long borderTerritories(GameState state, int player) {
+		
+		long own = state.territoryMask(player);
+		long border = 0L;
+		
+		for(long mask = own; mask != 0L; mask &= mask - 1L) {
+			
+			int territory = Long.numberOfTrailingZeros(mask);
+			
+			if((ADJACENCIES[territory] & ~own) != 0L)
+				border |= 1L << territory;
+			
+		}
+		
+		return border;
+		
+	}
+	
+	// Three of the cards that make a set, or 0 if there are none
+	public static long exchangeableSet(long cards) {
+		
+		if(!Card.containsExchangeable(cards))
+			return 0L;
+		
+		// Drop every card the rest can do without, as the client window does
+		for(long rest = cards; rest != 0L; rest &= rest - 1L) {
+			
+			long card = rest & -rest;
+			
+			if(Card.containsExchangeable(cards & ~card))
+				cards &= ~card;
+			
+		}
+		
+		return cards;
+		
+	}
+	
+	private static boolean adjacent(int from, int to) {
+		return from < Territory.TERRITORY_COUNT && to < Territory.TERRITORY_COUNT && (ADJACENCIES[from] & (1L << to)) != 0L;
+	}
+	
+	// Rolls the dice for one attack with the odds GameData rolls them with
+	private static void roll(GameState state, int from, int to, int dice, Random random) {
+		
+		int defenderDice = BattleOdds.defenderDice(dice, state.armies(to));
+		int attackerLosses = BattleOdds.sampleAttackerLosses(random, dice, defenderDice);
+		
+		state.setArmies(from, state.armies(from) - attackerLosses);
+		state.setArmies(to, state.armies(to) - (defenderDice - attackerLosses));
+		
+		// Was territory conquered?
+		if(state.armies(to) == 0) {
+			
+			state.setTerritory(to, state.owner(from), 1);
+			state.setArmies(from, state.armies(from) - 1);
+			state.setConquest(true, from, to);
+			
+		}
+		
+		else
+			state.setConquest(state.conqueredThisTurn(), GameState.NO_TERRITORY, GameState.NO_TERRITORY);
+		
+	}
+
+}
@@ -0,0 +1,346 @@
+package conquest;
+
+import java.util.*;
+
+// A game position held entirely in primitive arrays so that simulations can
+// copy it without allocating. Players are referred to by slot, their index in
+// player ID order, rather than by ID. The mutators keep a Zobrist hash of the
+// position up to date as they go.
+public final class GameState {
+	
+	public static final int MAX_PLAYERS = 6;
+	public static final int NO_PLAYER = -1;
+	public static final int NO_TERRITORY = -1;
+	
+	private int playerCount;
+	private final int[] playerIDs;
+	private final long[] territoryMasks;
+	private final long[] cardMasks;
+	private final int[] cardCounts;
+	private final int[] freeArmies;
+	
+	private final byte[] owners;
+	private final short[] armies;
+	
+	// Cards are drawn from the end of the deck
+	private final byte[] deck;
+	private int deckSize;
+	
+	private int playerTurn;
+	private int exchanges;
+	private boolean conqueredThisTurn;
+	private int lastConquered, lastConquering;
+	
+	private long hash;
+	
+	public GameState() {
+		
+		this.playerIDs = new int[MAX_PLAYERS];
+		this.territoryMasks = new long[MAX_PLAYERS];
+		this.cardMasks = new long[MAX_PLAYERS];
+		this.cardCounts = new int[MAX_PLAYERS];
+		this.freeArmies = new int[MAX_PLAYERS];
+		
+		this.owners = new byte[Territory.TERRITORY_COUNT];
+		this.armies = new short[Territory.TERRITORY_COUNT];
+		
+		this.deck = new byte[Card.CARD_COUNT];
+		
+		clear();
+		
+	}
+	
+	public GameState(GameState state) {
+		
+		this();
+		state.copyInto(this);
+		
+	}
+	
+	public void clear() {
+		
+		playerCount = 0;
+		
+		Arrays.fill(territoryMasks, 0L);
+		Arrays.fill(cardMasks, 0L);
+		Arrays.fill(cardCounts, 0);
+		Arrays.fill(freeArmies, 0);
+		
+		Arrays.fill(owners, (byte) NO_PLAYER);
+		Arrays.fill(armies, (short) 0);
+		
+		deckSize = 0;
+		playerTurn = NO_PLAYER;
+		exchanges = 0;
+		conqueredThisTurn = false;
+		lastConquered = lastConquering = NO_TERRITORY;
+		hash = 0L;
+		
+	}
+	
+	public void copyInto(GameState other) {
+		
+		other.playerCount = playerCount;
+		
+		System.arraycopy(playerIDs, 0, other.playerIDs, 0, MAX_PLAYERS);
+		System.arraycopy(territoryMasks, 0, other.territoryMasks, 0, MAX_PLAYERS);
+		System.arraycopy(cardMasks, 0, other.cardMasks, 0, MAX_PLAYERS);
+		System.arraycopy(cardCounts, 0, other.cardCounts, 0, MAX_PLAYERS);
+		System.arraycopy(freeArmies, 0, other.freeArmies, 0, MAX_PLAYERS);
+		
+		System.arraycopy(owners, 0, other.owners, 0, Territory.TERRITORY_COUNT);
+		System.arraycopy(armies, 0, other.armies, 0, Territory.TERRITORY_COUNT);
+		
+		System.arraycopy(deck, 0, other.deck, 0, deckSize);
+		other.deckSize = deckSize;
+		
+		other.playerTurn = playerTurn;
+		other.exchanges = exchanges;
+		other.conqueredThisTurn = conqueredThisTurn;
+		other.lastConquered = lastConquered;
+		other.lastConquering = lastConquering;
+		other.hash = hash;
+		
+	}
+	
+	// Players
+	
+	public int playerCount() {
+		return playerCount;
+	}
+	
+	public int playerID(int slot) {
+		return playerIDs[slot];
+	}
+	
+	public int slotOf(int playerID) {
+		
+		for(int slot = 0; slot < playerCount; ++slot)
+			if(playerIDs[slot] == playerID)
+				return slot;
+		
+		return NO_PLAYER;
+		
+	}
+	
+	public long territoryMask(int slot) {
+		return territoryMasks[slot];
+	}
+	
+	public long cardMask(int slot) {
+		return cardMasks[slot];
+	}
+	
+	public int cardCount(int slot) {
+		return cardCounts[slot];
+	}
+	
+	public int freeArmies(int slot) {
+		return freeArmies[slot];
+	}
+	
+	public int playerTurn() {
+		return playerTurn;
+	}
+	
+	// Territories
+	
+	public int owner(int territory) {
+		return owners[territory];
+	}
+	
+	// Up to 65535, as many as the wire format holds
+	public int armies(int territory) {
+		return armies[territory] & 0xffff;
+	}
+	
+	public long ownedTerritoriesMask() {
+		
+		long mask = 0L;
+		
+		for(int slot = 0; slot < playerCount; ++slot)
+			mask |= territoryMasks[slot];
+		
+		return mask;
+		
+	}
+	
+	// Cards
+	
+	public int deckSize() {
+		return deckSize;
+	}
+	
+	public Card deckCard(int index) {
+		return Card.VALUES.get(deck[index]);
+	}
+	
+	public int exchanges() {
+		return exchanges;
+	}
+	
+	public boolean conqueredThisTurn() {
+		return conqueredThisTurn;
+	}
+	
+	public int lastConquered() {
+		return lastConquered;
+	}
+	
+	public int lastConquering() {
+		return lastConquering;
+	}
+	
+	// Zobrist hash of the position, see Zobrist
+	public long hash() {
+		return hash;
+	}
+	
+	// Same rules as GameData.phase(), worked out from the masks
+	public GamePhase phase() {
+		
+		long owned = 0L;
+		int playersWithFreeArmies = 0;
+		
+		for(int slot = 0; slot < playerCount; ++slot) {
+			
+			if(territoryMasks[slot] == Territory.ALL_TERRITORIES_MASK)
+				return GamePhase.VICTORY;
+			
+			owned |= territoryMasks[slot];
+			playersWithFreeArmies += freeArmies[slot] != 0 ? 1 : 0;
+			
+		}
+		
+		if(owned != Territory.ALL_TERRITORIES_MASK || playersWithFreeArmies > 1)
+			return GamePhase.CLAIMING;
+		
+		if(playerTurn != NO_PLAYER && freeArmies[playerTurn] != 0)
+			return GamePhase.PLACEMENT;
+		
+		return GamePhase.ATTACKING;
+		
+	}
+	
+	// Mutators
+	
+	void setPlayer(int slot, int playerID, int freeArmies, long cardMask, int cardCount) {
+		
+		hash ^= Zobrist.freeArmies(slot, this.freeArmies[slot]) ^ Zobrist.freeArmies(slot, freeArmies);
+		hash ^= Zobrist.cards(slot, this.cardMasks[slot] ^ cardMask);
+		
+		this.playerIDs[slot] = playerID;
+		this.freeArmies[slot] = freeArmies;
+		this.cardMasks[slot] = cardMask;
+		this.cardCounts[slot] = cardCount;
+		
+		playerCount = Math.max(playerCount, slot + 1);
+		
+	}
+	
+	void setPlayerTurn(int slot) {
+		
+		hash ^= Zobrist.turn(playerTurn) ^ Zobrist.turn(slot);
+		this.playerTurn = slot;
+		
+	}
+	
+	void setFreeArmies(int slot, int freeArmies) {
+		
+		hash ^= Zobrist.freeArmies(slot, this.freeArmies[slot]) ^ Zobrist.freeArmies(slot, freeArmies);
+		this.freeArmies[slot] = freeArmies;
+		
+	}
+	
+	void setCards(int slot, long cardMask) {
+		
+		hash ^= Zobrist.cards(slot, this.cardMasks[slot] ^ cardMask);
+		
+		this.cardMasks[slot] = cardMask;
+		this.cardCounts[slot] = Util.countBits(cardMask);
+		
+	}
+	
+	void setTerritory(int territory, int owner, int armies) {
+		
+		long mask = 1L << territory;
+		int oldOwner = owners[territory];
+		
+		if(oldOwner != NO_PLAYER)
+			territoryMasks[oldOwner] &= ~mask;
+		
+		if(owner != NO_PLAYER)
+			territoryMasks[owner] |= mask;
+		
+		hash ^= Zobrist.owner(territory, oldOwner) ^ Zobrist.owner(territory, owner);
+		hash ^= Zobrist.armies(territory, armies(territory)) ^ Zobrist.armies(territory, armies);
+		
+		this.owners[territory] = (byte) owner;
+		this.armies[territory] = (short) armies;
+		
+	}
+	
+	void setArmies(int territory, int armies) {
+		
+		hash ^= Zobrist.armies(territory, armies(territory)) ^ Zobrist.armies(territory, armies);
+		this.armies[territory] = (short) armies;
+		
+	}
+	
+	void setDeck(List<Card> cards) {
+		setDeck(cards, 0);
+	}
+	
+	// The cards from the index on, without making a sublist
+	void setDeck(List<Card> cards, int from) {
+		
+		deckSize = 0;
+		
+		for(int i = from; i < cards.size(); ++i)
+			deck[deckSize++] = (byte) cards.get(i).ID;
+		
+	}
+	
+	void pushCard(Card card) {
+		deck[deckSize++] = (byte) card.ID;
+	}
+	
+	Card drawCard() {
+		return Card.VALUES.get(deck[--deckSize]);
+	}
+	
+	// Same swaps as Collections.shuffle, so the same random numbers give the
+	// same order as GameData's deck
+	void shuffleDeck(Random random) {
+		
+		for(int i = deckSize; i > 1; --i) {
+			
+			int j = random.nextInt(i);
+			byte card = deck[i - 1];
+			
+			deck[i - 1] = deck[j];
+			deck[j] = card;
+			
+		}
+		
+	}
+	
+	void setExchanges(int exchanges) {
+		
+		hash ^= Zobrist.exchanges(this.exchanges) ^ Zobrist.exchanges(exchanges);
+		this.exchanges = exchanges;
+		
+	}
+	
+	void setConquest(boolean conqueredThisTurn, int lastConquering, int lastConquered) {
+		
+		hash ^= Zobrist.conquest(this.conqueredThisTurn, this.lastConquering, this.lastConquered);
+		hash ^= Zobrist.conquest(conqueredThisTurn, lastConquering, lastConquered);
+		
+		this.conqueredThisTurn = conqueredThisTurn;
+		this.lastConquering = lastConquering;
+		this.lastConquered = lastConquered;
+		
+	}
+
+}
@@ -24,14 +24,18 @@ public final class Hello extends Message {
 	}
 	
 	public static Hello fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Hello fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.HELLO, message, length))
+		if(!validateHeader(MessageType.HELLO, message, offset, length))
 			return null;
 		
 		if(length != LENGTH + HEADER_LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		char[] str = new char[MAX_NAME_LENGTH];
 		
 		// "CONQUEST"
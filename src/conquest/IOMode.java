@@ -0,0 +1,8 @@
+package conquest;
+
+public enum IOMode {
+	BLOCKING, SELECTOR,
+	
+	// Blocking I/O on virtual threads, see IOThreads
+	VIRTUAL
+}
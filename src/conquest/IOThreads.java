@@ -0,0 +1,53 @@
+package conquest;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+// Creates the threads that run blocking I/O. Virtual threads need Java 21, so
+// they are looked up by reflection and everything else still runs on older
+// versions.
+public final class IOThreads {
+	
+	private static final ThreadFactory PLATFORM = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			return new Thread(runnable);
+		}
+	};
+	
+	private static final ThreadFactory VIRTUAL = findVirtualThreadFactory();
+	
+	private IOThreads() {}
+	
+	public static boolean virtualThreadsAvailable() {
+		return VIRTUAL != null;
+	}
+	
+	public static ThreadFactory forMode(IOMode mode) {
+		
+		if(mode != IOMode.VIRTUAL)
+			return PLATFORM;
+		
+		if(VIRTUAL == null)
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		
+		return VIRTUAL;
+		
+	}
+	
+	// Thread.ofVirtual().factory()
+	private static ThreadFactory findVirtualThreadFactory() {
+		
+		try {
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			
+			return (ThreadFactory) factory.invoke(builder);
+			
+		} catch(Exception e) {
+			return null;
+		}
+		
+	}
+
+}
@@ -0,0 +1,79 @@
+package conquest;
+
+public final class JoinRoom extends Message {
+	
+	private static final int LENGTH = 3;
+	
+	public static final int ANY_ROOM = 0xffff;
+	public static final int MAX_ROOM = 0xfffe;
+	
+	// Asked for to watch a room, and sent back to confirm it
+	public static final int SPECTATOR = Hello.MAX_ID;
+	
+	public final int ROOM;
+	public final int ID;
+	
+	// Sent by a client to request a room (ID is only used to take back a seat
+	// in a game waiting for its players, or SPECTATOR to watch the room), and
+	// by the server to confirm the room and the player ID assigned in it
+	public JoinRoom(int room, int id) {
+		
+		if(room < 0 || room > ANY_ROOM)
+			throw new IllegalArgumentException();
+		
+		if(id < 0 || id > Hello.MAX_ID)
+			throw new IllegalArgumentException();
+		
+		this.ROOM = room;
+		this.ID = id;
+		
+	}
+	
+	public boolean isAnyRoom() {
+		return ROOM == ANY_ROOM;
+	}
+	
+	public static JoinRoom fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static JoinRoom fromBytes(byte[] message, int offset, int length) {
+		
+		if(!validateHeader(MessageType.JOIN_ROOM, message, offset, length))
+			return null;
+		
+		length -= HEADER_LENGTH;
+		if(length != LENGTH)
+			return null;
+		
+		int i = offset + HEADER_LENGTH;
+		
+		int room = (message[i++] & 0xff) << 8;
+		room    |= (message[i++] & 0xff);
+		
+		int id = message[i++] & 0xff;
+		
+		if(id > Hello.MAX_ID)
+			return null;
+		
+		return new JoinRoom(room, id);
+		
+	}
+	
+	@Override
+	public byte[] toBytes(Integer currentPlayer) {
+		
+		byte[] message = createMessage(MessageType.JOIN_ROOM, LENGTH);
+		
+		int i = HEADER_LENGTH;
+		
+		message[i++] = (byte) (ROOM >>> 8);
+		message[i++] = (byte) (ROOM      );
+		
+		message[i++] = (byte) ID;
+		
+		return message;
+		
+	}
+
+}
@@ -0,0 +1,401 @@
+package conquest;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// Keeps the journals of every game in progress in one directory. Appends only
+// write, a committer thread forces the journals written since its last commit
+// every commit interval, so many moves share one sync. A move is broadcast
+// before it is synced, at most one interval of moves is lost in a crash.
+//
+// Games that are played to the end are compacted into their own file in the
+// archive directory.
+public final class Journal {
+	
+	public static final long DEFAULT_COMMIT_MILLIS = 5;
+	public static final String SUFFIX = ".journal";
+	
+	private static final String PREFIX = "room-";
+	private static final String ARCHIVE = "archive";
+	
+	private final File directory;
+	private final long commitNanos;
+	
+	// Null when each game has its own file
+	private final SegmentLog segments;
+	
+	private final Set<JournalStore> open;
+	private final Set<JournalStore> dirty;
+	private final Thread committer;
+	
+	private volatile boolean closed;
+	
+	private final LongAdder records = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder appendNanos = new LongAdder();
+	private final LongAdder syncs = new LongAdder();
+	private final LongAdder syncNanos = new LongAdder();
+	private final LongAdder syncFailures = new LongAdder();
+	
+	public Journal(File directory) throws IOException {
+		this(directory, DEFAULT_COMMIT_MILLIS, JournalStorage.MAPPED);
+	}
+	
+	// An interval of 0 syncs every record before append returns
+	public Journal(File directory, long commitMillis, JournalStorage storage) throws IOException {
+		
+		if(commitMillis < 0)
+			throw new IllegalArgumentException();
+		
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create journal directory " + directory);
+		
+		this.directory = directory;
+		this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+		this.segments = storage == JournalStorage.MAPPED ? new SegmentLog(directory) : null;
+		this.open = ConcurrentHashMap.newKeySet();
+		this.dirty = ConcurrentHashMap.newKeySet();
+		
+		this.committer = new Thread(new Runnable() {
+			public void run() {
+				commitLoop();
+			}
+		}, "Journal committer");
+		
+		this.committer.setDaemon(true);
+		
+		if(commitNanos != 0)
+			this.committer.start();
+		
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	public File getArchiveDirectory() {
+		return new File(directory, ARCHIVE);
+	}
+	
+	public JournalStorage getStorage() {
+		return segments != null ? JournalStorage.MAPPED : JournalStorage.FILE;
+	}
+	
+	// Starts an empty journal for a room, replacing any old one
+	public JournalStore create(int roomID) throws IOException {
+		
+		if(segments == null)
+			return openStore(new File(directory, PREFIX + roomID + SUFFIX), true);
+		
+		JournalStore store = segments.create(roomID);
+		open.add(store);
+		
+		return store;
+		
+	}
+	
+	// Games left in the directory by a server that did not finish them, kept
+	// in either kind of storage. Journals that cannot be replayed are deleted.
+	public List<GameJournal> recover() throws IOException {
+		
+		ArrayList<GameJournal> games = new ArrayList<GameJournal>();
+		
+		if(segments != null) {
+			
+			for(SegmentLog.RoomLog room : segments.rooms()) {
+				
+				open.add(room);
+				recover(games, room.getRoomID(), room);
+				
+			}
+			
+		}
+		
+		File[] files = directory.listFiles();
+		
+		if(files == null)
+			return games;
+		
+		Arrays.sort(files);
+		
+		for(File file : files) {
+			
+			String name = file.getName();
+			
+			if(!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+				continue;
+			
+			int roomID;
+			
+			try {
+				roomID = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+			} catch(NumberFormatException e) {
+				continue;
+			}
+			
+			recover(games, roomID, openStore(file, false));
+			
+		}
+		
+		return games;
+		
+	}
+	
+	private void recover(List<GameJournal> games, int roomID, JournalStore store) throws IOException {
+		
+		GameJournal game = GameJournal.recover(this, roomID, store);
+		
+		if(game != null)
+			games.add(game);
+		
+		else
+			forget(store);
+		
+	}
+	
+	JournalStore openStore(File file, boolean truncate) throws IOException {
+		
+		JournalStore store = new FileJournalStore(file, truncate);
+		open.add(store);
+		
+		return store;
+		
+	}
+	
+	public void append(JournalStore store, byte[] record) throws IOException {
+		
+		if(closed)
+			throw new IOException("Journal is closed");
+		
+		long start = System.nanoTime();
+		store.append(record);
+		
+		if(commitNanos == 0)
+			force(store);
+		
+		// The first record since the last commit wakes the committer
+		else if(dirty.add(store))
+			LockSupport.unpark(committer);
+		
+		appendNanos.add(System.nanoTime() - start);
+		records.increment();
+		bytes.add(record.length);
+		
+	}
+	
+	// Closes and deletes the journal of a game that is over
+	public void forget(JournalStore store) {
+		
+		open.remove(store);
+		dirty.remove(store);
+		
+		try {
+			store.delete();
+		} catch(IOException e) {
+			syncFailures.increment();
+		}
+		
+	}
+	
+	// Keeps the records of a game that was played to the end in a file of
+	// its own in the archive directory, then deletes its journal
+	public File archive(JournalStore store, int roomID, List<byte[]> records) throws IOException {
+		
+		File archive = getArchiveDirectory();
+		
+		if(!archive.isDirectory() && !archive.mkdirs())
+			throw new IOException("Could not create archive directory " + archive);
+		
+		File file = new File(archive, PREFIX + roomID + "-" + System.currentTimeMillis() + SUFFIX);
+		FileJournalStore out = new FileJournalStore(file, true);
+		
+		try {
+			
+			for(byte[] record : records)
+				out.append(record);
+			
+			out.force();
+			
+		} finally {
+			out.close();
+		}
+		
+		forget(store);
+		
+		return file;
+		
+	}
+	
+	// Whether the file is a game archive() kept, rather than the journal of
+	// a game still being played
+	public static boolean isArchive(File file) {
+		
+		String name = file.getName();
+		
+		if(!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+			return false;
+		
+		String id = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+		int dash = id.indexOf('-');
+		
+		if(dash < 0)
+			return false;
+		
+		try {
+			
+			Integer.parseInt(id.substring(0, dash));
+			Long.parseLong(id.substring(dash + 1));
+			
+		} catch(NumberFormatException e) {
+			return false;
+		}
+		
+		return true;
+		
+	}
+	
+	// Forces every journal written since the last commit
+	public void sync() {
+		
+		// Segments are shared, syncing any game syncs them all
+		if(segments != null) {
+			
+			Iterator<JournalStore> stores = dirty.iterator();
+			
+			if(stores.hasNext()) {
+				
+				JournalStore store = stores.next();
+				
+				dirty.clear();
+				force(store);
+				
+			}
+			
+			return;
+			
+		}
+		
+		for(JournalStore store : dirty) {
+			
+			dirty.remove(store);
+			force(store);
+			
+		}
+		
+	}
+	
+	// Syncs what has been written and closes the journals, leaving them to
+	// be recovered
+	public void close() {
+		
+		if(closed)
+			return;
+		
+		closed = true;
+		LockSupport.unpark(committer);
+		
+		try {
+			committer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		sync();
+		
+		for(JournalStore store : open) {
+			
+			try {
+				store.close();
+			} catch(IOException e) {}
+			
+		}
+		
+		open.clear();
+		
+		if(segments != null) {
+			
+			try {
+				segments.close();
+			} catch(IOException e) {
+				syncFailures.increment();
+			}
+			
+		}
+		
+	}
+	
+	private void force(JournalStore store) {
+		
+		long start = System.nanoTime();
+		
+		try {
+			store.force();
+		} catch(ClosedChannelException e) {
+			// Forgotten while it was being synced
+			return;
+		} catch(IOException e) {
+			syncFailures.increment();
+			return;
+		}
+		
+		syncs.increment();
+		syncNanos.add(System.nanoTime() - start);
+		
+	}
+	
+	private void commitLoop() {
+		
+		while(!closed) {
+			
+			if(dirty.isEmpty()) {
+				LockSupport.park(this);
+				continue;
+			}
+			
+			// Lets the records of other games join this commit
+			long deadline = System.nanoTime() + commitNanos;
+			long remaining;
+			
+			while(!closed && (remaining = deadline - System.nanoTime()) > 0)
+				LockSupport.parkNanos(this, remaining);
+			
+			sync();
+			
+		}
+		
+	}
+	
+	public long getRecords() {
+		return records.sum();
+	}
+	
+	public long getBytes() {
+		return bytes.sum();
+	}
+	
+	public long getSyncs() {
+		return syncs.sum();
+	}
+	
+	@Override
+	public String toString() {
+		
+		long records = this.records.sum();
+		long syncs = this.syncs.sum();
+		
+		String append = String.format("%.1f", records == 0 ? 0.0 : appendNanos.sum() / 1000.0 / records);
+		String sync = String.format("%.1f", syncs == 0 ? 0.0 : syncNanos.sum() / 1000.0 / syncs);
+		String perSync = String.format("%.1f", syncs == 0 ? 0.0 : (double) records / syncs);
+		
+		String stats = records + " records, " + bytes.sum() + " bytes, " + append + " us per append, "
+			+ syncs + " syncs of " + perSync + " records, " + sync + " us per sync, " + syncFailures.sum() + " failures";
+		
+		return segments == null ? stats : stats + ", " + segments;
+		
+	}
+
+}
@@ -0,0 +1,278 @@
+package conquest;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Measures what journaling adds to each move and how long recovery takes.
+// Plays random games side by side, first without a journal and then with
+// one, then recovers the journals as a restarted server would and checks
+// every recovered game is the game that was being played.
+//
+//	java conquest.JournalBenchmark [games] [moves] [commit ms] [mapped|file] [directory]
+public final class JournalBenchmark {
+	
+	public static final int DEFAULT_GAMES = 200;
+	public static final int DEFAULT_MOVES = 500;
+	
+	// Random moves tried before a game is considered stuck
+	private static final int MAX_TRIES = 1000;
+	
+	private static final Territory[] TERRITORIES = Territory.values();
+	
+	private JournalBenchmark() {}
+	
+	public static void main(String[] args) throws Exception {
+		
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+		int moves = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MOVES;
+		long commitMillis = args.length > 2 ? Long.parseLong(args[2]) : Journal.DEFAULT_COMMIT_MILLIS;
+		JournalStorage storage = args.length > 3 ? JournalStorage.valueOf(args[3].toUpperCase()) : JournalStorage.MAPPED;
+		File directory = args.length > 4 ? new File(args[4]) : Files.createTempDirectory("conquest-journal").toFile();
+		
+		System.out.println(games + " games, " + moves + " moves each, " + commitMillis + " ms commit interval, " + storage + " storage, " + directory);
+		
+		// Warm up, then play without a journal
+		play(null, games, moves, 1);
+		double plain = play(null, games, moves, 2).nanosPerMove;
+		
+		Journal journal = new Journal(directory, commitMillis, storage);
+		Run journaled = play(journal, games, moves, 2);
+		
+		journal.sync();
+		
+		System.out.println(String.format("%-22s %10.2f us per move", "Without journal", plain / 1000.0));
+		System.out.println(String.format("%-22s %10.2f us per move", "With journal", journaled.nanosPerMove / 1000.0));
+		System.out.println("Journal:  " + journal);
+		
+		// Recover as if the server had stopped here
+		long start = System.nanoTime();
+		
+		Journal restarted = new Journal(directory, commitMillis, storage);
+		List<GameJournal> recovered = restarted.recover();
+		
+		double recoveryMillis = (System.nanoTime() - start) / 1e6;
+		
+		int replayed = 0, mismatched = 0;
+		
+		for(GameJournal game : recovered) {
+			
+			replayed += game.getReplayedMoves();
+			
+			GameData live = journaled.games.get(game.getRoomID());
+			
+			if(live == null || !sameGame(live, game.getRecoveredGame()))
+				++mismatched;
+			
+		}
+		
+		System.out.println(String.format("Recovered %d of %d games in %.1f ms (%.1f us per game), replayed %d moves, %d mismatched",
+			recovered.size(), journaled.games.size(), recoveryMillis, recovered.isEmpty() ? 0.0 : recoveryMillis * 1000.0 / recovered.size(), replayed, mismatched));
+		
+		for(GameJournal game : recovered)
+			game.delete();
+		
+		restarted.close();
+		journal.close();
+		
+		// Only clean up a directory made for this run
+		if(args.length <= 4) {
+			
+			File[] files = directory.listFiles();
+			
+			for(File file : files == null ? new File[0] : files)
+				file.delete();
+			
+			directory.delete();
+			
+		}
+		
+	}
+	
+	private static final class Run {
+		
+		// Games still in progress by room
+		private final TreeMap<Integer, GameData> games = new TreeMap<Integer, GameData>();
+		private double nanosPerMove;
+		
+	}
+	
+	private static Run play(Journal journal, int gameCount, int moves, long seed) throws IOException {
+		
+		// The same seed plays the same games, with or without a journal
+		GameRandom random = new GameRandom(seed);
+		Run run = new Run();
+		
+		GameData[] games = new GameData[gameCount];
+		GameJournal[] journals = new GameJournal[gameCount];
+		TreeSet<Integer> playerIDs = new TreeSet<Integer>(Arrays.asList(1, 2, 3, 4));
+		
+		for(int i = 0; i < gameCount; ++i) {
+			
+			games[i] = new GameData(playerIDs, random.nextLong());
+			games[i].initializeGame();
+			
+			if(journal != null) {
+				
+				journals[i] = GameJournal.create(journal, i);
+				journals[i].snapshot(games[i]);
+				
+			}
+			
+		}
+		
+		long elapsed = 0;
+		int played = 0;
+		
+		for(int move = 0; move < moves; ++move) {
+			
+			for(int i = 0; i < gameCount; ++i) {
+				
+				GameData data = games[i];
+				
+				if(data == null)
+					continue;
+				
+				Integer playerID = data.getPlayerTurn().getID();
+				
+				// Only the move itself and its journaling are timed
+				long start = System.nanoTime();
+				Message done = randomMove(data, playerID, random);
+				
+				if(done != null && journals[i] != null)
+					journals[i].recordMove(playerID, done, data);
+				
+				elapsed += System.nanoTime() - start;
+				
+				if(done != null)
+					++played;
+				
+				if(done == null || data.phase() == GamePhase.VICTORY) {
+					
+					games[i] = null;
+					
+					if(journals[i] != null)
+						journals[i].delete();
+					
+				}
+				
+			}
+			
+		}
+		
+		for(int i = 0; i < gameCount; ++i)
+			if(games[i] != null)
+				run.games.put(i, games[i]);
+		
+		run.nanosPerMove = played == 0 ? 0.0 : (double) elapsed / played;
+		
+		return run;
+		
+	}
+	
+	// Tries random moves until one is allowed, returns null if none was
+	private static Message randomMove(GameData data, Integer playerID, Random random) {
+		
+		PlayerData player = data.getPlayerTurn();
+		
+		for(int tries = 0; tries < MAX_TRIES; ++tries) {
+			
+			Territory from = TERRITORIES[random.nextInt(TERRITORIES.length)];
+			Territory to = TERRITORIES[random.nextInt(TERRITORIES.length)];
+			
+			if(data.phase() == GamePhase.CLAIMING || data.phase() == GamePhase.PLACEMENT) {
+				
+				if(player.cardCount() >= 3 && random.nextInt(4) == 0) {
+					
+					ExchangeCards exchange = randomExchange(player, random);
+					
+					if(exchange != null && data.doMove(playerID, exchange))
+						return exchange;
+					
+				}
+				
+				PlaceArmies place = new PlaceArmies(from, 1 + random.nextInt(Math.max(1, Math.min(3, player.getFreeArmies()))));
+				
+				if(data.doMove(playerID, place))
+					return place;
+				
+				continue;
+				
+			}
+			
+			int kind = random.nextInt(10);
+			
+			if(kind < 7 && from.isAdjacentTo(to)) {
+				
+				Attack attack = new Attack(from, to, 1 + random.nextInt(3));
+				
+				if(data.doMove(playerID, attack))
+					return attack;
+				
+			}
+			
+			else if(kind == 7 && from.isAdjacentTo(to)) {
+				
+				Blitz blitz = new Blitz(from, to, 1);
+				
+				if(data.doMove(playerID, blitz) != null)
+					return blitz;
+				
+			}
+			
+			else if(kind == 8 && data.getLastConquered() != null) {
+				
+				TransferArmies transfer = new TransferArmies(data.getLastConquering(), data.getLastConquered(), 1);
+				
+				if(data.doMove(playerID, transfer))
+					return transfer;
+				
+			}
+			
+			else if(kind == 9) {
+				
+				EndTurn endTurn = from.isAdjacentTo(to) && random.nextBoolean() ? new EndTurn(from, to, 1) : new EndTurn(null, null, 0);
+				
+				if(data.doMove(playerID, endTurn))
+					return endTurn;
+				
+			}
+			
+		}
+		
+		return null;
+		
+	}
+	
+	private static ExchangeCards randomExchange(PlayerData player, Random random) {
+		
+		ArrayList<Card> cards = new ArrayList<Card>(player.getOwnedCards());
+		Collections.shuffle(cards, random);
+		
+		return new ExchangeCards(EnumSet.copyOf(cards.subList(0, 3)));
+		
+	}
+	
+	private static boolean sameGame(GameData a, GameData b) {
+		
+		if(a.getSequence() != b.getSequence() || !a.getPlayerIDs().equals(b.getPlayerIDs()))
+			return false;
+		
+		for(Integer playerID : a.getPlayerIDs())
+			if(!Arrays.equals(a.toBytes(playerID), b.toBytes(playerID)))
+				return false;
+		
+		GameState x = a.toGameState(), y = b.toGameState();
+		
+		if(x.deckSize() != y.deckSize() || x.exchanges() != y.exchanges() || x.conqueredThisTurn() != y.conqueredThisTurn())
+			return false;
+		
+		for(int i = 0; i < x.deckSize(); ++i)
+			if(x.deckCard(i) != y.deckCard(i))
+				return false;
+		
+		return x.lastConquering() == y.lastConquering() && x.lastConquered() == y.lastConquered();
+		
+	}
+
+}
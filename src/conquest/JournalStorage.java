@@ -0,0 +1,12 @@
+package conquest;
+
+// How a journal keeps the records of its games
+public enum JournalStorage {
+	
+	// A file for each game
+	FILE,
+	
+	// Every game in shared memory mapped segments, see SegmentLog
+	MAPPED
+
+}
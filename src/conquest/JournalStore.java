@@ -0,0 +1,24 @@
+package conquest;
+
+import java.io.*;
+import java.util.*;
+
+// Where a game journal keeps its records
+public interface JournalStore {
+	
+	// The record is only durable once force() returns
+	public void append(byte[] record) throws IOException;
+	
+	public void force() throws IOException;
+	
+	// Every intact record in order. A record torn by a crash ends the journal
+	// and is removed, later appends go after the last intact record.
+	public List<byte[]> readAll() throws IOException;
+	
+	public long size() throws IOException;
+	
+	public void close() throws IOException;
+	
+	public void delete() throws IOException;
+
+}
@@ -0,0 +1,449 @@
+package conquest;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Picks moves with Monte Carlo tree search. Each search thread grows its own
+// tree until the time budget runs out and the most visited move over all the
+// trees is played. Dice make the same moves lead to different positions, so
+// trees are keyed by the moves played, and every iteration plays them again
+// from the root on a copy of the state. Cards other players hold and the
+// deck order are unknown to clients, so each iteration deals them at random
+// first. Rewards are the share of the board each player ends up with, or 1
+// for the winner, and every node counts the reward of the player who moved.
+// Positions reached again, by other moves or dice or by another thread, take
+// the average rewards of the playouts already run from them out of a shared
+// transposition table instead of playing out once more.
+public final class MctsBot implements Bot {
+	
+	public static final long DEFAULT_BUDGET_MILLIS = 200;
+	
+	private static final double EXPLORATION = 0.7;
+	private static final int MIN_ITERATIONS = 32;
+	private static final int MAX_TREE_DEPTH = 64;
+	static final int MAX_MOVES = 512;
+	
+	// Entries hold a playout count in the top 16 bits and each player's
+	// average reward in a byte below
+	private static final int TABLE_SIZE = 1 << 14;
+	private static final int TABLE_PLAYOUTS = 8;
+	private static final int REWARD_BITS = 8;
+	private static final int REWARD_SCALE = (1 << REWARD_BITS) - 1;
+	private static final int COUNT_SHIFT = 48;
+	
+	private final Executor executor;
+	private final int threads;
+	private final long budgetNanos;
+	private final GameRandom random;
+	private final TranspositionTable table;
+	
+	// Searches run on the executor, which can be shared by many bots
+	public MctsBot(Executor executor, int threads, long budgetMillis) {
+		this(executor, threads, budgetMillis, GameRandom.newSeed());
+	}
+	
+	public MctsBot(Executor executor, int threads, long budgetMillis, long seed) {
+		
+		if(threads < 1 || budgetMillis < 0)
+			throw new IllegalArgumentException();
+		
+		this.executor = executor;
+		this.threads = threads;
+		this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+		this.random = new GameRandom(seed);
+		this.table = new TranspositionTable(TABLE_SIZE);
+		
+	}
+	
+	public static ExecutorService newSearchPool(int threads) {
+		
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				
+				Thread thread = new Thread(runnable, "Bot search " + count.getAndIncrement());
+				thread.setDaemon(true);
+				
+				return thread;
+				
+			}
+			
+		});
+		
+	}
+	
+	@Override
+	public long chooseMove(GameState state, int slot) {
+		
+		long[] moves = new long[MAX_MOVES];
+		
+		if(candidates(state, moves) == 1)
+			return moves[0];
+		
+		// Searches that wait in the executor's queue past the deadline still
+		// get a few iterations
+		long deadline = System.nanoTime() + budgetNanos;
+		CountDownLatch done = new CountDownLatch(threads);
+		Search[] searches = new Search[threads];
+		
+		synchronized(random) {
+			
+			for(int i = 0; i < threads; ++i)
+				searches[i] = new Search(state, slot, table, random.split(), deadline, done);
+			
+		}
+		
+		for(Search search : searches)
+			executor.execute(search);
+		
+		try {
+			done.await();
+		} catch(InterruptedException e) {
+			
+			Thread.currentThread().interrupt();
+			return moves[0];
+			
+		}
+		
+		// Adds up the visits of each move over all the trees
+		HashMap<Long, Integer> visits = new HashMap<Long, Integer>();
+		long best = moves[0];
+		int mostVisits = 0;
+		
+		for(Search search : searches) {
+			
+			for(int i = 0; i < search.root.childCount; ++i) {
+				
+				Node child = search.root.children[i];
+				Integer total = visits.get(child.move);
+				int sum = (total == null ? 0 : total) + child.visits;
+				
+				visits.put(child.move, sum);
+				
+				if(sum > mostVisits) {
+					
+					mostVisits = sum;
+					best = child.move;
+					
+				}
+				
+			}
+			
+		}
+		
+		return best;
+		
+	}
+	
+	// Moves worth searching, returns how many were put in moves. Armies are
+	// always placed all at once, on territories next to enemies, and only
+	// attacks with at least as many armies as the defender are tried.
+	static int candidates(GameState state, long[] moves) {
+		
+		int player = state.playerTurn();
+		long own = state.territoryMask(player);
+		long border = GameRules.borderTerritories(state, player);
+		int count = 0;
+		
+		switch(state.phase()) {
+			
+		case CLAIMING:
+			
+			long unowned = Territory.ALL_TERRITORIES_MASK & ~state.ownedTerritoriesMask();
+			
+			for(long mask = unowned != 0L ? unowned : border != 0L ? border : own; mask != 0L; mask &= mask - 1L)
+				moves[count++] = GameRules.place(Long.numberOfTrailingZeros(mask), 1);
+			
+			return count;
+			
+		case PLACEMENT:
+			
+			long set = GameRules.exchangeableSet(state.cardMask(player));
+			
+			if(set != 0L)
+				moves[count++] = GameRules.exchange(set);
+			
+			for(long mask = border != 0L ? border : own; mask != 0L; mask &= mask - 1L)
+				moves[count++] = GameRules.place(Long.numberOfTrailingZeros(mask), state.freeArmies(player));
+			
+			return count;
+			
+		case ATTACKING:
+			
+			// Moving in after a conquest, everything or half
+			int conquering = state.lastConquering();
+			int conquered = state.lastConquered();
+			
+			if(conquering != GameState.NO_TERRITORY && state.armies(conquering) > 1) {
+				
+				int armies = state.armies(conquering) - 1;
+				moves[count++] = GameRules.transfer(conquering, conquered, armies);
+				
+				if(armies > 1)
+					moves[count++] = GameRules.transfer(conquering, conquered, armies / 2);
+				
+			}
+			
+			set = GameRules.exchangeableSet(state.cardMask(player));
+			
+			if(set != 0L)
+				moves[count++] = GameRules.exchange(set);
+			
+			for(long mask = MoveGenerator.attackSources(state); mask != 0L; mask &= mask - 1L) {
+				
+				int from = Long.numberOfTrailingZeros(mask);
+				int attackers = state.armies(from) - 1;
+				
+				for(long enemies = MoveGenerator.attackTargets(state, from); enemies != 0L; enemies &= enemies - 1L) {
+					
+					int to = Long.numberOfTrailingZeros(enemies);
+					
+					if(attackers >= state.armies(to))
+						moves[count++] = GameRules.attack(from, to, MoveGenerator.maxDice(state, from));
+					
+				}
+				
+			}
+			
+			moves[count++] = GameRules.endTurn();
+			
+			// Ending the turn moving the largest army away from the interior
+			int from = GameState.NO_TERRITORY;
+			
+			for(long mask = own & ~border; mask != 0L; mask &= mask - 1L) {
+				
+				int territory = Long.numberOfTrailingZeros(mask);
+				
+				if(state.armies(territory) > 1 && (from == GameState.NO_TERRITORY || state.armies(territory) > state.armies(from)))
+					from = territory;
+				
+			}
+			
+			if(from != GameState.NO_TERRITORY) {
+				
+				long targets = GameRules.adjacencies(from) & own;
+				long frontline = targets & border;
+				int to = Long.numberOfTrailingZeros(frontline != 0L ? frontline : targets);
+				
+				moves[count++] = GameRules.endTurn(from, to, state.armies(from) - 1);
+				
+			}
+			
+			return count;
+			
+		default:
+			return 0;
+			
+		}
+		
+	}
+	
+	private static final class Node {
+		
+		private static final Node[] NO_CHILDREN = new Node[0];
+		
+		private final long move;
+		private final int player;
+		
+		private int visits;
+		private double reward;
+		
+		private Node[] children = NO_CHILDREN;
+		private int childCount;
+		
+		public Node(long move, int player) {
+			
+			this.move = move;
+			this.player = player;
+			
+		}
+		
+		public Node child(long move) {
+			
+			for(int i = 0; i < childCount; ++i)
+				if(children[i].move == move)
+					return children[i];
+			
+			return null;
+			
+		}
+		
+		public Node addChild(long move, int player) {
+			
+			if(childCount == children.length)
+				children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+			
+			return children[childCount++] = new Node(move, player);
+			
+		}
+		
+	}
+	
+	private static final class Search implements Runnable {
+		
+		private final GameState rootState;
+		private final int slot;
+		private final TranspositionTable table;
+		private final GameRandom random;
+		private final long deadline;
+		private final CountDownLatch done;
+		
+		private final Node root;
+		private final GameState state;
+		private final long[] moves;
+		private final long[] untried;
+		private final Node[] path;
+		private final double[] rewards;
+		private final ArrayList<Card> cards;
+		
+		public Search(GameState state, int slot, TranspositionTable table, GameRandom random, long deadline, CountDownLatch done) {
+			
+			this.rootState = new GameState(state);
+			this.slot = slot;
+			this.table = table;
+			this.random = random;
+			this.deadline = deadline;
+			this.done = done;
+			
+			this.root = new Node(GameRules.NO_MOVE, GameState.NO_PLAYER);
+			this.state = new GameState();
+			this.moves = new long[MAX_MOVES];
+			this.untried = new long[MAX_MOVES];
+			this.path = new Node[MAX_TREE_DEPTH + 1];
+			this.rewards = new double[GameState.MAX_PLAYERS];
+			this.cards = new ArrayList<Card>(Card.CARD_COUNT);
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				for(int i = 0; i < MIN_ITERATIONS || System.nanoTime() < deadline; ++i)
+					iterate();
+				
+			} finally {
+				done.countDown();
+			}
+			
+		}
+		
+		private void iterate() {
+			
+			rootState.copyInto(state);
+			RolloutEngine.dealUnknownCards(state, slot, random, cards);
+			
+			// Selection and expansion
+			Node node = root;
+			int depth = 0;
+			
+			path[depth++] = root;
+			
+			while(depth <= MAX_TREE_DEPTH && state.phase() != GamePhase.VICTORY) {
+				
+				int count = candidates(state, moves);
+				int untriedCount = 0;
+				Node best = null;
+				double bestScore = Double.NEGATIVE_INFINITY;
+				double logVisits = Math.log(Math.max(1, node.visits));
+				
+				for(int i = 0; i < count; ++i) {
+					
+					Node child = node.child(moves[i]);
+					
+					if(child == null) {
+						
+						untried[untriedCount++] = moves[i];
+						continue;
+						
+					}
+					
+					double score = child.reward / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+					
+					if(score > bestScore) {
+						
+						bestScore = score;
+						best = child;
+						
+					}
+					
+				}
+				
+				if(untriedCount != 0) {
+					
+					long move = untried[random.nextInt(untriedCount)];
+					
+					path[depth++] = node.addChild(move, state.playerTurn());
+					GameRules.doMove(state, move, random);
+					break;
+					
+				}
+				
+				if(best == null)
+					break;
+				
+				GameRules.doMove(state, best.move, random);
+				path[depth++] = node = best;
+				
+			}
+			
+			evaluate();
+			
+			// Each node keeps the reward of the player who made its move
+			root.visits++;
+			
+			for(int i = 1; i < depth; ++i) {
+				
+				path[i].visits++;
+				path[i].reward += rewards[path[i].player];
+				
+			}
+			
+		}
+		
+		// Rewards of the state, from the table once enough playouts have
+		// been run from it, otherwise from one more playout added to them
+		private void evaluate() {
+			
+			int playerCount = state.playerCount();
+			long hash = state.hash();
+			long entry = table.get(hash);
+			int count = (int) (entry >>> COUNT_SHIFT);
+			
+			if(count >= TABLE_PLAYOUTS) {
+				
+				for(int player = 0; player < playerCount; ++player)
+					rewards[player] = reward(entry, player);
+				
+				return;
+				
+			}
+			
+			RolloutEngine.playout(state, moves, random, RolloutEngine.DEFAULT_PLAYOUT_MOVES);
+			RolloutEngine.score(state, rewards);
+			
+			long updated = (long) (count + 1) << COUNT_SHIFT;
+			
+			for(int player = 0; player < playerCount; ++player) {
+				
+				double average = (reward(entry, player) * count + rewards[player]) / (count + 1);
+				updated |= Math.round(average * REWARD_SCALE) << (player * REWARD_BITS);
+				
+			}
+			
+			table.put(hash, updated);
+			
+		}
+		
+		private static double reward(long entry, int player) {
+			return ((entry >>> (player * REWARD_BITS)) & REWARD_SCALE) / (double) REWARD_SCALE;
+		}
+		
+	}
+
+}
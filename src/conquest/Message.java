@@ -21,11 +21,16 @@ public abstract class Message {
 	}
 	
 	protected static boolean validateHeader(int type, byte[] message, int length) {
+		return validateHeader(type, message, 0, length);
+	}
+	
+	// Messages may be parsed where they lie in a larger receive buffer
+	protected static boolean validateHeader(int type, byte[] message, int offset, int length) {
 		
-		if((message[0] & 0xff) != type)
+		if((message[offset] & 0xff) != type)
 			return false;
 		
-		if((message[1] & 0xff) != length - HEADER_LENGTH)
+		if((message[offset + 1] & 0xff) != length - HEADER_LENGTH)
 			return false;
 		
 		return true;
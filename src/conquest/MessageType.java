@@ -14,5 +14,10 @@ public final class MessageType {
 	public static final int END_TURN        = 0x07;
 	public static final int GAME_FAIL       = 0x08;
 	public static final int CHAT            = 0x09;
+	public static final int JOIN_ROOM       = 0x0A;
+	public static final int GAME_DELTA      = 0x0B;
+	public static final int RESYNC          = 0x0C;
+	public static final int BLITZ           = 0x0D;
+	public static final int BLITZ_RESULT    = 0x0E;
 	
 }
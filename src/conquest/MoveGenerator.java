@@ -0,0 +1,287 @@
+package conquest;
+
+// Lists the moves the rules allow the player whose turn it is, worked out
+// with territory and adjacency masks instead of by trying moves one at a
+// time. The masks say where each kind of move can be made, with any number
+// of armies from one up to the most allowed, and generate() writes encoded
+// moves into an array the caller keeps, so nothing is allocated per move.
+public final class MoveGenerator {
+	
+	private static final long INFANTRY_CARDS = cardsOfType(CardType.INFANTRY);
+	private static final long CAVALRY_CARDS = cardsOfType(CardType.CAVALRY);
+	private static final long ARTILLERY_CARDS = cardsOfType(CardType.ARTILLERY);
+	private static final long WILD_CARDS = cardsOfType(CardType.WILD);
+	
+	private MoveGenerator() {}
+	
+	private static long cardsOfType(CardType type) {
+		
+		long mask = 0L;
+		
+		for(Card card : Card.VALUES)
+			if(card.TYPE == type)
+				mask |= card.MASK;
+		
+		return mask;
+		
+	}
+	
+	// Placements
+	
+	public static long placementTerritories(GameState state) {
+		
+		int player = state.playerTurn();
+		
+		if(player == GameState.NO_PLAYER || state.freeArmies(player) == 0)
+			return 0L;
+		
+		switch(state.phase()) {
+			
+		case CLAIMING:
+			
+			long unowned = Territory.ALL_TERRITORIES_MASK & ~state.ownedTerritoriesMask();
+			return unowned != 0L ? unowned : state.territoryMask(player);
+			
+		case PLACEMENT:
+			return state.territoryMask(player);
+			
+		default:
+			return 0L;
+			
+		}
+		
+	}
+	
+	// One while claiming, otherwise all the free armies
+	public static int maxPlacement(GameState state) {
+		return state.phase() == GamePhase.CLAIMING ? 1 : state.freeArmies(state.playerTurn());
+	}
+	
+	// Attacks
+	
+	public static long attackSources(GameState state) {
+		
+		if(!isAttacking(state))
+			return 0L;
+		
+		long own = state.territoryMask(state.playerTurn());
+		long sources = 0L;
+		
+		for(long mask = own; mask != 0L; mask &= mask - 1L) {
+			
+			int territory = Long.numberOfTrailingZeros(mask);
+			
+			if(state.armies(territory) > 1 && (GameRules.adjacencies(territory) & ~own) != 0L)
+				sources |= 1L << territory;
+			
+		}
+		
+		return sources;
+		
+	}
+	
+	public static long attackTargets(GameState state, int from) {
+		
+		int player = state.playerTurn();
+		
+		if(!isAttacking(state) || state.owner(from) != player || state.armies(from) < 2)
+			return 0L;
+		
+		return GameRules.adjacencies(from) & ~state.territoryMask(player);
+		
+	}
+	
+	public static int maxDice(GameState state, int from) {
+		return Math.min(BattleOdds.MAX_ATTACKER_DICE, state.armies(from) - 1);
+	}
+	
+	// Moving armies, after a conquest or when ending the turn
+	
+	public static boolean canTransfer(GameState state) {
+		
+		int from = state.lastConquering();
+		int to = state.lastConquered();
+		int player = state.playerTurn();
+		
+		return isAttacking(state) && from != GameState.NO_TERRITORY && to != GameState.NO_TERRITORY &&
+			state.armies(from) > 1 && state.owner(from) == player && state.owner(to) == player;
+		
+	}
+	
+	public static boolean canEndTurn(GameState state) {
+		return isAttacking(state);
+	}
+	
+	public static long fortifySources(GameState state) {
+		
+		if(!isAttacking(state))
+			return 0L;
+		
+		long own = state.territoryMask(state.playerTurn());
+		long sources = 0L;
+		
+		for(long mask = own; mask != 0L; mask &= mask - 1L) {
+			
+			int territory = Long.numberOfTrailingZeros(mask);
+			
+			if(state.armies(territory) > 1 && (GameRules.adjacencies(territory) & own) != 0L)
+				sources |= 1L << territory;
+			
+		}
+		
+		return sources;
+		
+	}
+	
+	public static long fortifyTargets(GameState state, int from) {
+		
+		int player = state.playerTurn();
+		
+		if(!isAttacking(state) || state.owner(from) != player || state.armies(from) < 2)
+			return 0L;
+		
+		return GameRules.adjacencies(from) & state.territoryMask(player);
+		
+	}
+	
+	// Cards
+	
+	// Whether exactly three cards make a set, the same answer as
+	// Card.containsExchangeable() without going through the cards
+	public static boolean isExchangeable(long cards) {
+		
+		if(Long.bitCount(cards) != 3)
+			return false;
+		
+		if((cards & WILD_CARDS) != 0L)
+			return true;
+		
+		int infantry = Long.bitCount(cards & INFANTRY_CARDS);
+		int cavalry = Long.bitCount(cards & CAVALRY_CARDS);
+		int artillery = Long.bitCount(cards & ARTILLERY_CARDS);
+		
+		return infantry == 3 || cavalry == 3 || artillery == 3 || (infantry == 1 && cavalry == 1 && artillery == 1);
+		
+	}
+	
+	// Every set of three of the cards that can be exchanged, returns how many
+	// there are even if they did not all fit
+	public static int exchangeSets(long cards, long[] sets) {
+		return addExchangeSets(cards, sets, 0, 0L);
+	}
+	
+	// Adds each set ORed with the bits given, which for exchange moves are
+	// the bits of GameRules.exchange() with no cards
+	private static int addExchangeSets(long cards, long[] moves, int count, long bits) {
+		
+		for(long first = cards; first != 0L; first &= first - 1L) {
+			
+			for(long second = first & (first - 1L); second != 0L; second &= second - 1L) {
+				
+				for(long third = second & (second - 1L); third != 0L; third &= third - 1L) {
+					
+					long set = (first & -first) | (second & -second) | (third & -third);
+					
+					if(isExchangeable(set))
+						count = add(moves, count, bits | set);
+					
+				}
+				
+			}
+			
+		}
+		
+		return count;
+		
+	}
+	
+	// Moves
+	
+	// Every legal move with the most armies or dice allowed, one per kind of
+	// move and territories. Returns how many there are even if they did not
+	// all fit.
+	public static int generate(GameState state, long[] moves) {
+		return generate(state, moves, false);
+	}
+	
+	// Every legal move with every number of armies or dice allowed
+	public static int generateAll(GameState state, long[] moves) {
+		return generate(state, moves, true);
+	}
+	
+	private static int generate(GameState state, long[] moves, boolean everyAmount) {
+		
+		int player = state.playerTurn();
+		
+		if(player == GameState.NO_PLAYER || state.phase() == GamePhase.VICTORY)
+			return 0;
+		
+		// Cards can be exchanged in any phase
+		int count = addExchangeSets(state.cardMask(player), moves, 0, GameRules.exchange(0L));
+		
+		int maxPlacement = maxPlacement(state);
+		
+		for(long mask = placementTerritories(state); mask != 0L; mask &= mask - 1L) {
+			
+			int territory = Long.numberOfTrailingZeros(mask);
+			
+			for(int armies = everyAmount ? 1 : maxPlacement; armies <= maxPlacement; ++armies)
+				count = add(moves, count, GameRules.place(territory, armies));
+			
+		}
+		
+		if(!isAttacking(state))
+			return count;
+		
+		if(canTransfer(state)) {
+			
+			int from = state.lastConquering();
+			int max = state.armies(from) - 1;
+			
+			for(int armies = everyAmount ? 1 : max; armies <= max; ++armies)
+				count = add(moves, count, GameRules.transfer(from, state.lastConquered(), armies));
+			
+		}
+		
+		for(long sources = attackSources(state); sources != 0L; sources &= sources - 1L) {
+			
+			int from = Long.numberOfTrailingZeros(sources);
+			int maxDice = maxDice(state, from);
+			
+			for(long targets = attackTargets(state, from); targets != 0L; targets &= targets - 1L)
+				for(int dice = everyAmount ? 1 : maxDice; dice <= maxDice; ++dice)
+					count = add(moves, count, GameRules.attack(from, Long.numberOfTrailingZeros(targets), dice));
+			
+		}
+		
+		count = add(moves, count, GameRules.endTurn());
+		
+		for(long sources = fortifySources(state); sources != 0L; sources &= sources - 1L) {
+			
+			int from = Long.numberOfTrailingZeros(sources);
+			int max = state.armies(from) - 1;
+			
+			for(long targets = fortifyTargets(state, from); targets != 0L; targets &= targets - 1L)
+				for(int armies = everyAmount ? 1 : max; armies <= max; ++armies)
+					count = add(moves, count, GameRules.endTurn(from, Long.numberOfTrailingZeros(targets), armies));
+			
+		}
+		
+		return count;
+		
+	}
+	
+	private static int add(long[] moves, int count, long move) {
+		
+		if(count < moves.length)
+			moves[count] = move;
+		
+		return count + 1;
+		
+	}
+	
+	private static boolean isAttacking(GameState state) {
+		return state.playerTurn() != GameState.NO_PLAYER && state.phase() == GamePhase.ATTACKING;
+	}
+
+}
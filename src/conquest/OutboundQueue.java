@@ -0,0 +1,121 @@
+package conquest;
+
+import java.util.concurrent.atomic.*;
+
+// Bounded queue of messages waiting to be written to one connection. Any
+// thread may offer messages, but only the connection's writer may poll.
+public final class OutboundQueue {
+	
+	public static final int DEFAULT_CAPACITY = 256;
+	
+	private final OverflowPolicy policy;
+	private final int capacity;
+	private final AtomicReferenceArray<byte[]> slots;
+	private final AtomicLong tail;
+	private final AtomicLong head;
+	
+	// Latest full state that did not fit in the queue, sent once it drains
+	private final AtomicReference<byte[]> latestState;
+	
+	public OutboundQueue(int capacity, OverflowPolicy policy) {
+		
+		if(capacity < 1)
+			throw new IllegalArgumentException();
+		
+		if(policy == null)
+			throw new NullPointerException();
+		
+		this.policy = policy;
+		this.capacity = capacity;
+		this.slots = new AtomicReferenceArray<byte[]>(capacity);
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+		this.latestState = new AtomicReference<byte[]>();
+		
+	}
+	
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+	
+	// Returns false if the message will not be sent
+	public boolean offer(byte[] message) {
+		
+		int type = message[0] & 0xff;
+		
+		if(policy == OverflowPolicy.COALESCE && latestState.get() != null) {
+			
+			// A delta can not be applied until the waiting state has been sent,
+			// and a newer state supersedes it
+			if(type == MessageType.GAME_STATE) {
+				
+				latestState.set(message);
+				return true;
+				
+			}
+			
+			if(type == MessageType.GAME_DELTA)
+				return false;
+			
+		}
+		
+		for(;;) {
+			
+			long t = tail.get();
+			
+			if(t - head.get() >= capacity)
+				break;
+			
+			if(tail.compareAndSet(t, t + 1)) {
+				
+				slots.set((int) (t % capacity), message);
+				return true;
+				
+			}
+			
+		}
+		
+		if(policy == OverflowPolicy.COALESCE && type == MessageType.GAME_STATE) {
+			
+			latestState.set(message);
+			return true;
+			
+		}
+		
+		return false;
+		
+	}
+	
+	// Called only by the writer, returns null if nothing is waiting
+	public byte[] poll() {
+		
+		long h = head.get();
+		int index = (int) (h % capacity);
+		byte[] message = slots.get(index);
+		
+		// The slot is still empty while its producer is storing the message
+		if(message != null) {
+			
+			slots.set(index, null);
+			head.lazySet(h + 1);
+			
+			return message;
+			
+		}
+		
+		if(h != tail.get())
+			return null;
+		
+		return latestState.getAndSet(null);
+		
+	}
+	
+	public boolean isEmpty() {
+		return head.get() == tail.get() && latestState.get() == null;
+	}
+	
+	public int size() {
+		return (int) (tail.get() - head.get()) + (latestState.get() != null ? 1 : 0);
+	}
+
+}
@@ -0,0 +1,16 @@
+package conquest;
+
+// What a connection does with a message when its outbound queue is full
+public enum OverflowPolicy {
+	
+	// Full game states replace any state still waiting to be sent, deltas and
+	// other messages are dropped
+	COALESCE,
+	
+	// The message is dropped
+	DROP,
+	
+	// The connection is closed
+	DISCONNECT
+
+}
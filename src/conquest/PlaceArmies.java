@@ -49,8 +49,12 @@ public final class PlaceArmies extends Message {
 	}
 	
 	public static PlaceArmies fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static PlaceArmies fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.PLACE_ARMY, message, length))
+		if(!validateHeader(MessageType.PLACE_ARMY, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
@@ -58,7 +62,7 @@ public final class PlaceArmies extends Message {
 		if(length != LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		int territoryID = message[i++] & 0xff;
 		
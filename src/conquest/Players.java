@@ -19,8 +19,12 @@ public class Players extends Message {
 	}
 	
 	public static Players fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Players fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.PLAYERS, message, length))
+		if(!validateHeader(MessageType.PLAYERS, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
@@ -33,7 +37,7 @@ public class Players extends Message {
 			return null;
 		
 		HashMap<Integer, String> players = new HashMap<Integer, String>();
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		char[] str = new char[MAX_NAME_LENGTH];
 		
 		for(int j = 0; j < playerCount; ++j) {
@@ -2,40 +2,134 @@ package conquest;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class Program {
 
 	public static void main(String[] args) throws IOException {
 		
-		if(args.length == 0 || args.length == 2) {
+		ArrayList<String> arguments = new ArrayList<String>();
+		HashMap<String, String> options = new HashMap<String, String>();
+		
+		for(String arg : args) {
+			
+			if(!arg.startsWith("--")) {
+				
+				arguments.add(arg);
+				continue;
+				
+			}
+			
+			int equals = arg.indexOf('=');
+			
+			if(equals < 0)
+				options.put(arg.substring(2), "");
+			
+			else
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+			
+		}
+		
+		if(arguments.size() == 0 || arguments.size() == 2) {
 			
-			System.out.println("Server Usage:\n\tjava Program <port>\n");
-			System.out.println("Client Usage:\n\tjava Program <host> <port> <username>");
+			System.out.println("Server Usage:\n\tjava Program <port> [--io=blocking|selector|virtual] [--autostart=<players>] [--headless] [--queue=<messages>] [--overflow=coalesce|drop|disconnect] [--nodelay=true|false] [--journal=<directory>] [--journal-storage=mapped|file] [--spectators=<per room>]\n");
+			System.out.println("Client Usage:\n\tjava Program <host> <port> <username> [--room=<room>] [--player=<id>] [--spectate] [--io=blocking|virtual] [--nodelay=true|false] [--bot[=<ms per move>]] [--bots=<count>] [--search-threads=<per move>] [--strategy=mcts|rollout] [--playouts=<per move>]");
 			
 			return;
 			
 		}
 		
-		if(args.length == 1) {
+		if(arguments.size() == 1) {
 			
-			int port = Integer.parseInt(args[0]);
+			int port = Integer.parseInt(arguments.get(0));
+			IOMode mode = IOMode.valueOf(getOption(options, "io", "blocking").toUpperCase());
+			
+			boolean headless = options.containsKey("headless");
+			
+			ServerInstance server = new ServerInstance(port, mode, headless);
+			server.setAutoStartPlayers(Integer.parseInt(getOption(options, "autostart", "0")));
+			server.setOutboundLimit(
+				Integer.parseInt(getOption(options, "queue", "" + OutboundQueue.DEFAULT_CAPACITY)),
+				OverflowPolicy.valueOf(getOption(options, "overflow", "coalesce").toUpperCase()));
+			server.setTcpNoDelay(Boolean.parseBoolean(getOption(options, "nodelay", "true")));
+			server.setMaxSpectators(Integer.parseInt(getOption(options, "spectators", "" + ServerInstance.DEFAULT_MAX_SPECTATORS)));
+			
+			if(options.containsKey("journal"))
+				server.setJournal(new File(getOption(options, "journal", "journal")),
+					JournalStorage.valueOf(getOption(options, "journal-storage", "mapped").toUpperCase()));
 			
-			ServerInstance server = new ServerInstance(port);
 			server.start();
 			
+			if(headless)
+				new Thread(new ServerConsole(server, System.in)).start();
+			
+		}
+		
+		else if(options.containsKey("bot") || options.containsKey("bots")) {
+			
+			int port = Integer.parseInt(arguments.get(1));
+			int room = Integer.parseInt(getOption(options, "room", "" + JoinRoom.ANY_ROOM));
+			
+			IOMode mode = IOMode.valueOf(getOption(options, "io", "blocking").toUpperCase());
+			
+			int bots = Integer.parseInt(getOption(options, "bots", "1"));
+			int threads = Integer.parseInt(getOption(options, "search-threads", "1"));
+			long budget = Long.parseLong(getOption(options, "bot", "" + MctsBot.DEFAULT_BUDGET_MILLIS));
+			
+			boolean rollout = getOption(options, "strategy", "mcts").equals("rollout");
+			int playouts = Integer.parseInt(getOption(options, "playouts", "" + RolloutBot.DEFAULT_PLAYOUTS));
+			
+			// Headless bots all search on one pool the size of the machine
+			int cores = Runtime.getRuntime().availableProcessors();
+			ExecutorService searchPool = rollout ? null : MctsBot.newSearchPool(cores);
+			RolloutEngine engine = rollout ? new RolloutEngine(new ForkJoinPool(cores)) : null;
+			
+			for(int i = 0; i < bots; ++i) {
+				
+				String name = bots == 1 ? arguments.get(2) : arguments.get(2) + (i + 1);
+				Bot bot = rollout ? new RolloutBot(engine, playouts) : new MctsBot(searchPool, threads, budget);
+				
+				ClientInstance client = new ClientInstance(InetAddress.getByName(arguments.get(0)), port, name, room, mode, bot);
+				client.setTcpNoDelay(Boolean.parseBoolean(getOption(options, "nodelay", "true")));
+				client.start();
+				
+			}
+			
 		}
 		
 		else {
 			
 			GameMap.loadImages();
 			
-			int port = Integer.parseInt(args[1]);
+			int port = Integer.parseInt(arguments.get(1));
+			int room = Integer.parseInt(getOption(options, "room", "" + JoinRoom.ANY_ROOM));
+			
+			IOMode mode = IOMode.valueOf(getOption(options, "io", "blocking").toUpperCase());
+			
+			ClientInstance client = new ClientInstance(InetAddress.getByName(arguments.get(0)), port, arguments.get(2), room, mode);
+			client.setTcpNoDelay(Boolean.parseBoolean(getOption(options, "nodelay", "true")));
+			
+			// Takes back a seat in a game recovered by the server
+			if(options.containsKey("player"))
+				client.rejoinAs(Integer.parseInt(options.get("player")));
+			
+			// Watches the room without playing
+			if(options.containsKey("spectate"))
+				client.rejoinAs(JoinRoom.SPECTATOR);
 			
-			ClientInstance client = new ClientInstance(InetAddress.getByName(args[0]), port, args[2]);
 			client.start();
 			
 		}
 		
 	}
+	
+	private static String getOption(Map<String, String> options, String name, String defaultValue) {
+		
+		String value = options.get(name);
+		
+		return value == null || value.isEmpty() ? defaultValue : value;
+		
+	}
 
 }
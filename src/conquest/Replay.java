@@ -0,0 +1,291 @@
+package conquest;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+// A finished game in as few bytes as possible: the seed and players it
+// started with, then every move in its wire format preceded by the ID of the
+// player who made it. Playing the moves on a new game from the same seed
+// repeats the game exactly, down to the dice. The final state's sequence and
+// checksum are kept to tell whether it still does after a rule change.
+public final class Replay {
+	
+	public static final String SUFFIX = ".replay";
+	
+	private static final int MAGIC = 0x43515250;
+	private static final int VERSION = 1;
+	
+	private static final int MESSAGE_HEADER_LENGTH = 2;
+	
+	private final long seed;
+	private final int[] playerIDs;
+	private final byte[] moves;
+	private final int moveCount;
+	private final int finalSequence;
+	private final int finalChecksum;
+	
+	private Replay(long seed, int[] playerIDs, byte[] moves, int moveCount, int finalSequence, int finalChecksum) {
+		
+		this.seed = seed;
+		this.playerIDs = playerIDs;
+		this.moves = moves;
+		this.moveCount = moveCount;
+		this.finalSequence = finalSequence;
+		this.finalChecksum = finalChecksum;
+		
+	}
+	
+	// Sees every move as it is played
+	public interface Listener {
+		
+		// The move lies in message at offset, it has already been applied
+		public void moveDone(GameData data, Integer playerID, byte[] message, int offset, int length);
+		
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public Set<Integer> getPlayerIDs() {
+		return toSet(playerIDs);
+	}
+	
+	public int moveCount() {
+		return moveCount;
+	}
+	
+	public int getFinalSequence() {
+		return finalSequence;
+	}
+	
+	// The game as it stands before the first move
+	public GameData newGame() {
+		return newGame(seed, playerIDs);
+	}
+	
+	private static GameData newGame(long seed, int[] playerIDs) {
+		
+		GameData data = new GameData(toSet(playerIDs), seed);
+		data.initializeGame();
+		
+		return data;
+		
+	}
+	
+	private static Set<Integer> toSet(int[] playerIDs) {
+		
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		
+		for(int id : playerIDs)
+			ids.add(id);
+		
+		return ids;
+		
+	}
+	
+	public GameData play() {
+		return play(null);
+	}
+	
+	// Plays every move on a new game, returns null if one is not allowed
+	public GameData play(Listener listener) {
+		
+		GameData data = newGame();
+		int i = 0;
+		
+		while(i < moves.length) {
+			
+			Integer playerID = moves[i] & 0xff;
+			int offset = i + 1;
+			int length = MESSAGE_HEADER_LENGTH + (moves[offset + 1] & 0xff);
+			
+			if(!data.doMove(playerID, moves, offset, length))
+				return null;
+			
+			if(listener != null)
+				listener.moveDone(data, playerID, moves, offset, length);
+			
+			i = offset + length;
+			
+		}
+		
+		return data;
+		
+	}
+	
+	// Whether the moves still end in the state they ended in when recorded
+	public boolean matches(GameData data) {
+		return data != null && data.getSequence() == finalSequence && checksum(data) == finalChecksum;
+	}
+	
+	private static int checksum(GameData data) {
+		
+		CRC32 crc = new CRC32();
+		
+		byte[] state = data.toSharedBytes();
+		crc.update(state, 0, state.length);
+		
+		return (int) crc.getValue();
+		
+	}
+	
+	public byte[] toBytes() {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + moves.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		try {
+			
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			
+			out.writeByte(playerIDs.length);
+			
+			for(int id : playerIDs)
+				out.writeByte(id);
+			
+			out.writeInt(moveCount);
+			out.writeShort(finalSequence);
+			out.writeInt(finalChecksum);
+			
+			out.writeInt(moves.length);
+			out.write(moves);
+			
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		return bytes.toByteArray();
+		
+	}
+	
+	// Returns null if the bytes are not a replay
+	public static Replay fromBytes(byte[] bytes) {
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		
+		try {
+			
+			if(in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				return null;
+			
+			long seed = in.readLong();
+			int[] playerIDs = new int[in.readUnsignedByte()];
+			
+			if(playerIDs.length < ServerInstance.MIN_PLAYERS || playerIDs.length > GameState.MAX_PLAYERS)
+				return null;
+			
+			for(int i = 0; i < playerIDs.length; ++i)
+				playerIDs[i] = in.readUnsignedByte();
+			
+			int moveCount = in.readInt();
+			int finalSequence = in.readUnsignedShort();
+			int finalChecksum = in.readInt();
+			
+			int length = in.readInt();
+			
+			if(length < 0 || length > in.available())
+				return null;
+			
+			byte[] moves = new byte[length];
+			in.readFully(moves);
+			
+			if(!framed(moves, moveCount))
+				return null;
+			
+			return new Replay(seed, playerIDs, moves, moveCount, finalSequence, finalChecksum);
+			
+		} catch(IOException e) {
+			return null;
+		}
+		
+	}
+	
+	// Whether the moves are exactly moveCount whole messages
+	private static boolean framed(byte[] moves, int moveCount) {
+		
+		int i = 0, count = 0;
+		
+		while(i < moves.length) {
+			
+			if(i + 1 + MESSAGE_HEADER_LENGTH > moves.length)
+				return false;
+			
+			i += 1 + MESSAGE_HEADER_LENGTH + (moves[i + 2] & 0xff);
+			++count;
+			
+		}
+		
+		return i == moves.length && count == moveCount;
+		
+	}
+	
+	public static Replay read(File file) throws IOException {
+		
+		Replay replay = fromBytes(Files.readAllBytes(file.toPath()));
+		
+		if(replay == null)
+			throw new IOException(file + " is not a replay");
+		
+		return replay;
+		
+	}
+	
+	public void write(File file) throws IOException {
+		Files.write(file.toPath(), toBytes());
+	}
+	
+	// Collects the moves of a game as they are played
+	public static final class Recorder {
+		
+		private final long seed;
+		private final int[] playerIDs;
+		private final ByteArrayOutputStream moves;
+		private int moveCount;
+		
+		public Recorder(long seed, Set<Integer> playerIDs) {
+			
+			this.seed = seed;
+			this.playerIDs = new int[playerIDs.size()];
+			this.moves = new ByteArrayOutputStream(4096);
+			
+			int i = 0;
+			
+			for(Integer id : playerIDs)
+				this.playerIDs[i++] = id;
+			
+		}
+		
+		public GameData newGame() {
+			return Replay.newGame(seed, playerIDs);
+		}
+		
+		public void add(Integer playerID, byte[] message, int offset, int length) {
+			
+			moves.write(playerID);
+			moves.write(message, offset, length);
+			++moveCount;
+			
+		}
+		
+		// Plays the moves to find where they end, returns null if one of them
+		// is not allowed
+		public Replay finish() {
+			
+			Replay replay = new Replay(seed, playerIDs, moves.toByteArray(), moveCount, 0, 0);
+			GameData data = replay.play();
+			
+			if(data == null)
+				return null;
+			
+			return new Replay(seed, playerIDs, replay.moves, moveCount, data.getSequence(), checksum(data));
+			
+		}
+		
+	}
+
+}
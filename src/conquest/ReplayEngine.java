@@ -0,0 +1,328 @@
+package conquest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Plays replays again as fast as the rules allow, with no network or window,
+// to check that rule changes still end every game the way it ended and to
+// count what happens in them. Archived journals are turned into replays as
+// they are read, and can be written out as replay files with --export.
+// Replays are read before the clock starts, so only playing them is timed.
+//
+//	java conquest.ReplayEngine [--threads=N] [--rounds=N] [--export=<directory>] <replay, archive or directory>...
+public final class ReplayEngine {
+	
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	private static final int[] MOVE_TYPES = {
+		MessageType.PLACE_ARMY, MessageType.EXCHANGE_CARDS, MessageType.ATTACK,
+		MessageType.BLITZ, MessageType.TRANSFER_ARMIES, MessageType.END_TURN
+	};
+	
+	private static final String[] MOVE_NAMES = {
+		"Place armies", "Exchange cards", "Attack", "Blitz", "Transfer armies", "End turn"
+	};
+	
+	private final List<Replay> replays;
+	private final int threads;
+	
+	private final LongAdder games, moves, refused, mismatched, unfinished;
+	private final LongAdder[] movesByType;
+	private final LongAdder[] winsBySeat;
+	
+	public ReplayEngine(List<Replay> replays, int threads) {
+		
+		if(threads < 1)
+			throw new IllegalArgumentException("Must have at least one thread");
+		
+		this.replays = replays;
+		this.threads = threads;
+		
+		this.games = new LongAdder();
+		this.moves = new LongAdder();
+		this.refused = new LongAdder();
+		this.mismatched = new LongAdder();
+		this.unfinished = new LongAdder();
+		
+		this.movesByType = newAdders(MOVE_TYPES.length);
+		this.winsBySeat = newAdders(GameState.MAX_PLAYERS);
+		
+	}
+	
+	private static LongAdder[] newAdders(int count) {
+		
+		LongAdder[] adders = new LongAdder[count];
+		
+		for(int i = 0; i < count; ++i)
+			adders[i] = new LongAdder();
+		
+		return adders;
+		
+	}
+	
+	public static void main(String[] args) throws Exception {
+		
+		int threads = DEFAULT_THREADS, rounds = 1;
+		File export = null;
+		ArrayList<File> files = new ArrayList<File>();
+		
+		for(String arg : args) {
+			
+			if(arg.startsWith("--threads="))
+				threads = Integer.parseInt(arg.substring("--threads=".length()));
+			
+			else if(arg.startsWith("--rounds="))
+				rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+			
+			else if(arg.startsWith("--export="))
+				export = new File(arg.substring("--export=".length()));
+			
+			else
+				addFiles(new File(arg), files);
+			
+		}
+		
+		if(files.isEmpty()) {
+			
+			System.out.println("Usage:  java conquest.ReplayEngine [--threads=N] [--rounds=N] [--export=<directory>] <replay, archive or directory>...");
+			return;
+			
+		}
+		
+		if(export != null && !export.isDirectory() && !export.mkdirs())
+			throw new IOException("Could not create directory " + export);
+		
+		ArrayList<Replay> replays = new ArrayList<Replay>();
+		int unreadable = 0;
+		long bytes = 0;
+		
+		for(File file : files) {
+			
+			Replay replay = read(file);
+			
+			if(replay == null) {
+				
+				System.out.println("Could not read " + file);
+				++unreadable;
+				continue;
+				
+			}
+			
+			replays.add(replay);
+			bytes += replay.toBytes().length;
+			
+			if(export != null && file.getName().endsWith(Journal.SUFFIX))
+				replay.write(new File(export, file.getName().substring(0, file.getName().length() - Journal.SUFFIX.length()) + Replay.SUFFIX));
+			
+		}
+		
+		System.out.println(String.format("Read %d replays (%.1f bytes per move), %d unreadable", replays.size(), (double) bytes / Math.max(1, moveCount(replays)), unreadable));
+		
+		if(replays.isEmpty())
+			return;
+		
+		ReplayEngine engine = new ReplayEngine(replays, threads);
+		
+		// The first round warms up and is not counted
+		engine.run();
+		engine.reset();
+		
+		long start = System.nanoTime();
+		
+		for(int round = 0; round < rounds; ++round)
+			engine.run();
+		
+		engine.report(System.nanoTime() - start);
+		
+	}
+	
+	private static void addFiles(File file, List<File> files) {
+		
+		if(file.isDirectory()) {
+			
+			File[] children = file.listFiles();
+			
+			if(children == null)
+				return;
+			
+			Arrays.sort(children);
+			
+			for(File child : children)
+				if(child.isDirectory() || child.getName().endsWith(Replay.SUFFIX) || Journal.isArchive(child))
+					addFiles(child, files);
+			
+		}
+		
+		else
+			files.add(file);
+		
+	}
+	
+	// Returns null if the file is neither a replay nor an archived game,
+	// journals of games still being played are left alone
+	private static Replay read(File file) {
+		
+		try {
+			
+			if(file.getName().endsWith(Journal.SUFFIX))
+				return Journal.isArchive(file) ? GameJournal.toReplay(file) : null;
+			
+			return Replay.read(file);
+			
+		} catch(IOException e) {
+			return null;
+		}
+		
+	}
+	
+	private static long moveCount(List<Replay> replays) {
+		
+		long count = 0;
+		
+		for(Replay replay : replays)
+			count += replay.moveCount();
+		
+		return count;
+		
+	}
+	
+	// Plays every replay once, spread over the threads
+	public void run() throws InterruptedException {
+		
+		final AtomicInteger next = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		
+		for(int i = 0; i < threads; ++i) {
+			
+			executor.execute(new Runnable() {
+				public void run() {
+					
+					MoveCounter counter = new MoveCounter();
+					int index;
+					
+					while((index = next.getAndIncrement()) < replays.size())
+						play(replays.get(index), counter);
+					
+					counter.addTo(movesByType);
+					
+				}
+			});
+			
+		}
+		
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		
+	}
+	
+	private void play(Replay replay, MoveCounter counter) {
+		
+		GameData data = replay.play(counter);
+		
+		games.increment();
+		
+		if(data == null) {
+			
+			refused.increment();
+			return;
+			
+		}
+		
+		moves.add(replay.moveCount());
+		
+		if(!replay.matches(data))
+			mismatched.increment();
+		
+		PlayerData winner = data.winner();
+		
+		if(winner == null) {
+			
+			unfinished.increment();
+			return;
+			
+		}
+		
+		// Seats are the players in ID order
+		int seat = 0;
+		
+		for(Integer id : data.getPlayerIDs()) {
+			
+			if(id.equals(winner.getID()))
+				break;
+			
+			++seat;
+			
+		}
+		
+		winsBySeat[seat].increment();
+		
+	}
+	
+	// Counted by each thread on its own, then added up once it is done
+	private static final class MoveCounter implements Replay.Listener {
+		
+		private final long[] counts = new long[MOVE_TYPES.length];
+		
+		@Override
+		public void moveDone(GameData data, Integer playerID, byte[] message, int offset, int length) {
+			
+			for(int i = 0; i < MOVE_TYPES.length; ++i) {
+				
+				if(MOVE_TYPES[i] == message[offset]) {
+					
+					++counts[i];
+					break;
+					
+				}
+				
+			}
+			
+		}
+		
+		private void addTo(LongAdder[] adders) {
+			
+			for(int i = 0; i < counts.length; ++i)
+				adders[i].add(counts[i]);
+			
+		}
+		
+	}
+	
+	public void reset() {
+		
+		games.reset();
+		moves.reset();
+		refused.reset();
+		mismatched.reset();
+		unfinished.reset();
+		
+		for(LongAdder adder : movesByType)
+			adder.reset();
+		
+		for(LongAdder adder : winsBySeat)
+			adder.reset();
+		
+	}
+	
+	private void report(long nanos) {
+		
+		double seconds = nanos / 1e9;
+		long games = this.games.sum(), moves = this.moves.sum();
+		
+		System.out.println(String.format("Replayed %d games (%d moves) in %.1f ms on %d threads:  %.0f games per minute, %.2f us per move",
+			games, moves, seconds * 1000.0, threads, games / seconds * 60.0, moves == 0 ? 0.0 : nanos / 1000.0 / moves));
+		
+		System.out.println(String.format("%d refused a move, %d ended differently than recorded, %d were not won", refused.sum(), mismatched.sum(), unfinished.sum()));
+		
+		for(int i = 0; i < MOVE_TYPES.length; ++i)
+			System.out.println(String.format("%-22s %10.1f per game", MOVE_NAMES[i], games == 0 ? 0.0 : (double) movesByType[i].sum() / games));
+		
+		for(int seat = 0; seat < winsBySeat.length; ++seat)
+			if(winsBySeat[seat].sum() != 0)
+				System.out.println(String.format("%-22s %10.1f%%", "Wins in seat " + (seat + 1), 100.0 * winsBySeat[seat].sum() / games));
+		
+	}
+
+}
@@ -0,0 +1,32 @@
+package conquest;
+
+public final class Resync extends Message {
+	
+	private static final int LENGTH = 0;
+	
+	// Sent by a client whose game state no longer matches the server's, which
+	// answers with a full GAME_STATE
+	public Resync() {}
+	
+	public static Resync fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static Resync fromBytes(byte[] message, int offset, int length) {
+		
+		if(!validateHeader(MessageType.RESYNC, message, offset, length))
+			return null;
+		
+		if(length - HEADER_LENGTH != LENGTH)
+			return null;
+		
+		return new Resync();
+		
+	}
+	
+	@Override
+	public byte[] toBytes(Integer currentPlayer) {
+		return createMessage(MessageType.RESYNC, LENGTH);
+	}
+
+}
@@ -0,0 +1,48 @@
+package conquest;
+
+// Plays the candidate move whose playouts score best, without building a
+// tree. Each move gets the same number of playouts however many there are,
+// so the time per move varies rather than the quality.
+public final class RolloutBot implements Bot {
+	
+	public static final int DEFAULT_PLAYOUTS = 100;
+	
+	private final RolloutEngine engine;
+	private final int playoutsPerMove;
+	private final GameRandom random;
+	
+	public RolloutBot(RolloutEngine engine, int playoutsPerMove) {
+		this(engine, playoutsPerMove, GameRandom.newSeed());
+	}
+	
+	public RolloutBot(RolloutEngine engine, int playoutsPerMove, long seed) {
+		
+		if(playoutsPerMove < 1)
+			throw new IllegalArgumentException();
+		
+		this.engine = engine;
+		this.playoutsPerMove = playoutsPerMove;
+		this.random = new GameRandom(seed);
+		
+	}
+	
+	@Override
+	public long chooseMove(GameState state, int slot) {
+		
+		long[] moves = new long[MctsBot.MAX_MOVES];
+		int count = MctsBot.candidates(state, moves);
+		
+		if(count == 1)
+			return moves[0];
+		
+		GameRandom random;
+		
+		synchronized(this.random) {
+			random = this.random.split();
+		}
+		
+		return engine.evaluate(state, moves, count, playoutsPerMove, random).bestMove();
+		
+	}
+
+}
@@ -0,0 +1,505 @@
+package conquest;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Scores candidate moves by playing quick random games out after each of
+// them, split over a fork join pool. Tasks split their random numbers along
+// with their playouts, so an evaluation comes out the same whichever worker
+// runs what, and each worker plays on its own copy of the state. Playouts
+// that have not ended after a set number of moves are scored by each
+// player's share of the board.
+//
+//	java conquest.RolloutEngine [--threads=N] [--positions=N] [--playouts=N] [--moves=N] [--players=N] [--seed=N]
+public final class RolloutEngine {
+	
+	public static final int DEFAULT_PLAYOUT_MOVES = 200;
+	
+	private static final int LEAF_PLAYOUTS = 32;
+	
+	private final ForkJoinPool pool;
+	private final int playoutMoves;
+	
+	// The state and scratch space each worker plays on
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			return new Worker();
+		}
+	};
+	
+	public RolloutEngine(ForkJoinPool pool) {
+		this(pool, DEFAULT_PLAYOUT_MOVES);
+	}
+	
+	public RolloutEngine(ForkJoinPool pool, int playoutMoves) {
+		
+		if(playoutMoves < 0)
+			throw new IllegalArgumentException();
+		
+		this.pool = pool;
+		this.playoutMoves = playoutMoves;
+		
+	}
+	
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+	
+	// Plays the specified number of games after each of the first count
+	// moves, scored for the player whose turn it is. Cards that player has not
+	// seen are dealt again at random for every playout.
+	public Evaluation evaluate(GameState state, long[] moves, int count, int playoutsPerMove, GameRandom random) {
+		
+		if(count < 1 || playoutsPerMove < 1)
+			throw new IllegalArgumentException();
+		
+		long start = System.nanoTime();
+		
+		Job job = new Job(new GameState(state), Arrays.copyOf(moves, count));
+		Totals totals = pool.invoke(new Playouts(job, 0, count * playoutsPerMove, random));
+		
+		return new Evaluation(job.moves, totals, System.nanoTime() - start, Math.min(pool.getParallelism(), Runtime.getRuntime().availableProcessors()));
+		
+	}
+	
+	// Plays quick moves until the game is won or the moves run out, returns
+	// how many were played
+	public static int playout(GameState state, long[] moves, Random random, int maxMoves) {
+		
+		int played = 0;
+		
+		while(played < maxMoves && state.phase() != GamePhase.VICTORY && GameRules.doMove(state, rolloutMove(state, moves, random), random))
+			++played;
+		
+		return played;
+		
+	}
+	
+	// A quick move for playouts, always one of the candidates or a cheaper
+	// version of one
+	static long rolloutMove(GameState state, long[] moves, Random random) {
+		
+		int player = state.playerTurn();
+		long own = state.territoryMask(player);
+		long border = GameRules.borderTerritories(state, player);
+		
+		switch(state.phase()) {
+			
+		case CLAIMING:
+			
+			long unowned = Territory.ALL_TERRITORIES_MASK & ~state.ownedTerritoriesMask();
+			return GameRules.place(randomBit(unowned != 0L ? unowned : border != 0L ? border : own, random), 1);
+			
+		case PLACEMENT:
+			
+			long set = GameRules.exchangeableSet(state.cardMask(player));
+			
+			if(set != 0L)
+				return GameRules.exchange(set);
+			
+			return GameRules.place(randomBit(border != 0L ? border : own, random), state.freeArmies(player));
+			
+		case ATTACKING:
+			
+			int conquering = state.lastConquering();
+			
+			if(conquering != GameState.NO_TERRITORY && state.armies(conquering) > 2)
+				return GameRules.transfer(conquering, state.lastConquered(), state.armies(conquering) / 2);
+			
+			// A random attack with more armies than the defender
+			int count = 0;
+			
+			for(long mask = border; mask != 0L; mask &= mask - 1L) {
+				
+				int from = Long.numberOfTrailingZeros(mask);
+				int attackers = state.armies(from) - 1;
+				
+				for(long enemies = GameRules.adjacencies(from) & ~own; enemies != 0L; enemies &= enemies - 1L) {
+					
+					int to = Long.numberOfTrailingZeros(enemies);
+					
+					if(attackers > state.armies(to))
+						moves[count++] = GameRules.attack(from, to, Math.min(BattleOdds.MAX_ATTACKER_DICE, attackers));
+					
+				}
+				
+			}
+			
+			return count != 0 ? moves[random.nextInt(count)] : GameRules.endTurn();
+			
+		default:
+			return GameRules.NO_MOVE;
+			
+		}
+		
+	}
+	
+	private static int randomBit(long mask, Random random) {
+		
+		for(int skip = random.nextInt(Util.countBits(mask)); skip > 0; --skip)
+			mask &= mask - 1L;
+		
+		return Long.numberOfTrailingZeros(mask);
+		
+	}
+	
+	// Deals the cards the player in the slot has not seen, to the other
+	// players up to the number they hold and the rest to the deck in a random
+	// order
+	static void dealUnknownCards(GameState state, int slot, Random random, ArrayList<Card> cards) {
+		
+		cards.clear();
+		
+		for(int i = 0; i < Card.CARD_COUNT; ++i)
+			if((state.cardMask(slot) & Card.VALUES.get(i).MASK) == 0L)
+				cards.add(Card.VALUES.get(i));
+		
+		Collections.shuffle(cards, random);
+		
+		int dealt = 0;
+		
+		for(int player = 0; player < state.playerCount(); ++player) {
+			
+			if(player == slot)
+				continue;
+			
+			long mask = 0L;
+			
+			for(int i = 0; i < state.cardCount(player) && dealt < cards.size(); ++i)
+				mask |= cards.get(dealt++).MASK;
+			
+			state.setCards(player, mask);
+			
+		}
+		
+		state.setDeck(cards, dealt);
+		
+	}
+	
+	// Each player's share of territories, continent bonuses and armies, or 1
+	// for the winner
+	static void score(GameState state, double[] rewards) {
+		
+		int playerCount = state.playerCount();
+		
+		if(state.phase() == GamePhase.VICTORY) {
+			
+			for(int player = 0; player < playerCount; ++player)
+				rewards[player] = state.territoryMask(player) == Territory.ALL_TERRITORIES_MASK ? 1.0 : 0.0;
+			
+			return;
+			
+		}
+		
+		double total = 0.0;
+		
+		for(int player = 0; player < playerCount; ++player) {
+			
+			long territories = state.territoryMask(player);
+			int armies = 0;
+			
+			for(long mask = territories; mask != 0L; mask &= mask - 1L)
+				armies += state.armies(Long.numberOfTrailingZeros(mask));
+			
+			rewards[player] = Util.countBits(territories) + 0.25 * armies + 2.0 * (GameRules.income(state, player) - 3);
+			total += rewards[player];
+			
+		}
+		
+		for(int player = 0; player < playerCount; ++player)
+			rewards[player] = total > 0.0 ? rewards[player] / total : 0.0;
+		
+	}
+	
+	private static final class Job {
+		
+		private final GameState state;
+		private final long[] moves;
+		
+		public Job(GameState state, long[] moves) {
+			
+			this.state = state;
+			this.moves = moves;
+			
+		}
+		
+	}
+	
+	private static final class Worker {
+		
+		private final GameState state = new GameState();
+		private final long[] moves = new long[MctsBot.MAX_MOVES];
+		private final double[] rewards = new double[GameState.MAX_PLAYERS];
+		private final ArrayList<Card> cards = new ArrayList<Card>(Card.CARD_COUNT);
+		
+	}
+	
+	// Playout i follows move i modulo the number of moves
+	private final class Playouts extends RecursiveTask<Totals> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Job job;
+		private final int from, to;
+		private final GameRandom random;
+		
+		public Playouts(Job job, int from, int to, GameRandom random) {
+			
+			this.job = job;
+			this.from = from;
+			this.to = to;
+			this.random = random;
+			
+		}
+		
+		@Override
+		protected Totals compute() {
+			
+			if(to - from <= LEAF_PLAYOUTS)
+				return play();
+			
+			int middle = (from + to) >>> 1;
+			
+			Playouts first = new Playouts(job, from, middle, random.split());
+			first.fork();
+			
+			Totals totals = new Playouts(job, middle, to, random).compute();
+			totals.add(first.join());
+			
+			return totals;
+			
+		}
+		
+		private Totals play() {
+			
+			Worker worker = workers.get();
+			GameState state = worker.state;
+			int slot = job.state.playerTurn();
+			Totals totals = new Totals(job.moves.length);
+			
+			for(int i = from; i < to; ++i) {
+				
+				int move = i % job.moves.length;
+				
+				job.state.copyInto(state);
+				dealUnknownCards(state, slot, random, worker.cards);
+				
+				if(!GameRules.doMove(state, job.moves[move], random))
+					continue;
+				
+				totals.moves += 1 + playout(state, worker.moves, random, playoutMoves);
+				score(state, worker.rewards);
+				
+				totals.playouts[move]++;
+				totals.rewards[move] += worker.rewards[slot];
+				totals.wins[move] += worker.rewards[slot] == 1.0 && state.phase() == GamePhase.VICTORY ? 1 : 0;
+				
+			}
+			
+			return totals;
+			
+		}
+		
+	}
+	
+	private static final class Totals {
+		
+		private final int[] playouts;
+		private final int[] wins;
+		private final double[] rewards;
+		private long moves;
+		
+		public Totals(int count) {
+			
+			this.playouts = new int[count];
+			this.wins = new int[count];
+			this.rewards = new double[count];
+			
+		}
+		
+		public void add(Totals other) {
+			
+			for(int i = 0; i < playouts.length; ++i) {
+				
+				playouts[i] += other.playouts[i];
+				wins[i] += other.wins[i];
+				rewards[i] += other.rewards[i];
+				
+			}
+			
+			moves += other.moves;
+			
+		}
+		
+	}
+	
+	public static final class Evaluation {
+		
+		private final long[] moves;
+		private final Totals totals;
+		private final long nanos;
+		private final int cores;
+		
+		private Evaluation(long[] moves, Totals totals, long nanos, int cores) {
+			
+			this.moves = moves;
+			this.totals = totals;
+			this.nanos = nanos;
+			this.cores = cores;
+			
+		}
+		
+		public int moveCount() {
+			return moves.length;
+		}
+		
+		public long getMove(int index) {
+			return moves[index];
+		}
+		
+		public int getPlayouts(int index) {
+			return totals.playouts[index];
+		}
+		
+		// Share of the playouts after the move that the player went on to win
+		public double getWinRate(int index) {
+			return totals.playouts[index] == 0 ? 0.0 : (double) totals.wins[index] / totals.playouts[index];
+		}
+		
+		// Average score, counting the games that did not end by board share
+		public double getScore(int index) {
+			return totals.playouts[index] == 0 ? 0.0 : totals.rewards[index] / totals.playouts[index];
+		}
+		
+		// The move with the best score
+		public long bestMove() {
+			
+			int best = 0;
+			
+			for(int i = 1; i < moves.length; ++i)
+				if(getScore(i) > getScore(best))
+					best = i;
+			
+			return moves[best];
+			
+		}
+		
+		public long playoutCount() {
+			
+			long count = 0;
+			
+			for(int playouts : totals.playouts)
+				count += playouts;
+			
+			return count;
+			
+		}
+		
+		public long playoutMoveCount() {
+			return totals.moves;
+		}
+		
+		public long getNanos() {
+			return nanos;
+		}
+		
+		public double playoutsPerSecondPerCore() {
+			return nanos == 0 ? 0.0 : playoutCount() / (nanos / 1e9) / cores;
+		}
+		
+	}
+	
+	public static void main(String[] args) {
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		int positions = 50, playouts = 200, moves = DEFAULT_PLAYOUT_MOVES, players = 4;
+		long seed = GameRandom.newSeed();
+		
+		for(String arg : args) {
+			
+			String value = arg.substring(arg.indexOf('=') + 1);
+			
+			if(arg.startsWith("--threads="))
+				threads = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--positions="))
+				positions = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--playouts="))
+				playouts = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--moves="))
+				moves = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--players="))
+				players = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--seed="))
+				seed = Long.parseLong(value);
+			
+			else {
+				
+				System.out.println("Usage:  java conquest.RolloutEngine [--threads=N] [--positions=N] [--playouts=N] [--moves=N] [--players=N] [--seed=N]");
+				return;
+				
+			}
+			
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		RolloutEngine engine = new RolloutEngine(pool, moves);
+		GameRandom random = new GameRandom(seed);
+		
+		// Positions from games played some way in, so they are not all claiming
+		ArrayList<GameState> states = new ArrayList<GameState>();
+		long[] candidates = new long[MctsBot.MAX_MOVES];
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		
+		for(int id = 1; id <= players; ++id)
+			ids.add(id);
+		
+		while(states.size() < positions) {
+			
+			GameData data = new GameData(ids, random.nextLong());
+			data.initializeGame();
+			
+			GameState state = data.toGameState();
+			playout(state, candidates, random, 50 + random.nextInt(400));
+			
+			if(state.phase() != GamePhase.VICTORY)
+				states.add(state);
+			
+		}
+		
+		// The first pass warms up and is not counted
+		for(int pass = 0; pass < 2; ++pass) {
+			
+			long total = 0, totalMoves = 0, evaluated = 0;
+			long start = System.nanoTime();
+			
+			for(GameState state : states) {
+				
+				int count = MctsBot.candidates(state, candidates);
+				Evaluation evaluation = engine.evaluate(state, candidates, count, Math.max(1, playouts / count), random.split());
+				
+				total += evaluation.playoutCount();
+				totalMoves += evaluation.playoutMoveCount();
+				evaluated += count;
+				
+			}
+			
+			double seconds = (System.nanoTime() - start) / 1e9;
+			int cores = Math.min(threads, Runtime.getRuntime().availableProcessors());
+			
+			if(pass == 1)
+				System.out.println(String.format("Evaluated %d moves in %d positions with %d playouts (%.1f moves each) in %.1f ms on %d threads:  %.0f playouts per second, %.0f per core",
+					evaluated, states.size(), total, (double) totalMoves / total, seconds * 1000.0, threads, total / seconds, total / seconds / cores));
+			
+		}
+		
+		pool.shutdown();
+		
+	}
+
+}
@@ -0,0 +1,682 @@
+package conquest;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+// The journals of every game written into a few large memory mapped segment
+// files instead of one file per game. Each record is tagged with its room, and
+// each room keeps an index of where its records are. A new segment is started
+// when the current one is full, and segments are deleted oldest first once no
+// room has records left in them. When a new segment is started, rooms whose
+// records are still in the oldest segment have them copied forward, so one
+// long game does not keep every segment after it alive.
+public final class SegmentLog {
+	
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	private static final String PREFIX = "segment-";
+	private static final String SUFFIX = ".log";
+	
+	// [size][crc][room][kind] then the record, size and crc cover from room on
+	private static final int HEADER_LENGTH = 13;
+	private static final int TAG_LENGTH = 5;
+	
+	private static final byte RECORD = 1;
+	// All of a room's records, replacing the ones written before
+	private static final byte HISTORY = 2;
+	// The room's journal was deleted
+	private static final byte RESET = 3;
+	
+	// Segments kept before rooms are copied out of the oldest one
+	private static final int COMPACT_SEGMENTS = 2;
+	
+	private static final int ZERO_CHUNK = 4096;
+	
+	private final File directory;
+	private final int segmentSize;
+	private final TreeMap<Integer, Segment> segments;
+	private final TreeMap<Integer, RoomLog> rooms;
+	private final CRC32 crc;
+	private final Object forceLock;
+	
+	private Segment current;
+	private boolean closed;
+	
+	public SegmentLog(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+	
+	// Opens the segments in the directory and indexes the records in them
+	public SegmentLog(File directory, int segmentSize) throws IOException {
+		
+		if(segmentSize < 1024)
+			throw new IllegalArgumentException("Segments must be at least 1 KB");
+		
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segments = new TreeMap<Integer, Segment>();
+		this.rooms = new TreeMap<Integer, RoomLog>();
+		this.crc = new CRC32();
+		this.forceLock = new Object();
+		
+		TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+		File[] list = directory.listFiles();
+		
+		if(list != null) {
+			
+			for(File file : list) {
+				
+				String name = file.getName();
+				
+				if(!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+					continue;
+				
+				try {
+					files.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+				} catch(NumberFormatException e) {}
+				
+			}
+			
+		}
+		
+		boolean torn = false;
+		
+		for(Map.Entry<Integer, File> entry : files.entrySet()) {
+			
+			// Nothing after a torn record can be trusted
+			if(torn) {
+				entry.getValue().delete();
+				continue;
+			}
+			
+			Segment segment = new Segment(entry.getKey(), entry.getValue(), 0);
+			segments.put(segment.number, segment);
+			
+			torn = !scan(segment);
+			current = segment;
+			
+		}
+		
+		if(current == null)
+			current = newSegment(0);
+		
+		// Appends overwrite whatever a crash left after the last record
+		else
+			clearFrom(current, current.position);
+		
+	}
+	
+	// Starts an empty journal for a room, deleting any it already had
+	public synchronized JournalStore create(int roomID) throws IOException {
+		
+		checkOpen();
+		
+		RoomLog room = rooms.get(roomID);
+		
+		if(room != null)
+			room.delete();
+		
+		room = new RoomLog(roomID);
+		rooms.put(roomID, room);
+		
+		return room;
+		
+	}
+	
+	// Rooms with records, as found when the log was opened
+	public synchronized List<RoomLog> rooms() {
+		
+		ArrayList<RoomLog> list = new ArrayList<RoomLog>();
+		
+		for(RoomLog room : rooms.values())
+			if(room.count != 0)
+				list.add(room);
+		
+		return list;
+		
+	}
+	
+	// Syncs every segment written since the last call, then deletes the
+	// oldest segments no room needs any more
+	public void force() throws IOException {
+		
+		synchronized(forceLock) {
+			
+			ArrayList<Segment> dirty = new ArrayList<Segment>();
+			ArrayList<Segment> unused = new ArrayList<Segment>();
+			
+			// Records that freed a segment were written before this, so they
+			// are synced before the segment is deleted
+			synchronized(this) {
+				
+				for(Segment segment : segments.values()) {
+					
+					if(segment.dirty) {
+						segment.dirty = false;
+						dirty.add(segment);
+					}
+					
+				}
+				
+				for(Segment segment : segments.values()) {
+					
+					if(segment == current || segment.references != 0)
+						break;
+					
+					unused.add(segment);
+					
+				}
+				
+			}
+			
+			for(Segment segment : dirty)
+				segment.buffer.force();
+			
+			if(unused.isEmpty())
+				return;
+			
+			synchronized(this) {
+				
+				for(Segment segment : unused) {
+					
+					segments.remove(segment.number);
+					segment.close();
+					segment.file.delete();
+					
+				}
+				
+			}
+			
+		}
+		
+	}
+	
+	public void close() throws IOException {
+		
+		synchronized(this) {
+			
+			if(closed)
+				return;
+			
+		}
+		
+		force();
+		
+		synchronized(this) {
+			
+			closed = true;
+			
+			for(Segment segment : segments.values())
+				segment.close();
+			
+		}
+		
+	}
+	
+	public synchronized int segmentCount() {
+		return segments.size();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return segments.size() + " segments of " + segmentSize / 1024 + " KB, " + rooms.size() + " rooms";
+	}
+	
+	// Called with the lock held
+	private void checkOpen() throws IOException {
+		
+		if(closed)
+			throw new IOException("Segment log is closed");
+		
+	}
+	
+	// Called with the lock held, returns where the data was written
+	private int write(Segment segment, int roomID, byte kind, byte[] data, int length) {
+		
+		int position = segment.position;
+		int size = TAG_LENGTH + length;
+		
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(position + 8);
+		buffer.putInt(roomID);
+		buffer.put(kind);
+		buffer.put(data, 0, length);
+		
+		ByteBuffer written = segment.buffer.duplicate();
+		written.position(position + 8);
+		written.limit(position + 8 + size);
+		
+		crc.reset();
+		crc.update(written);
+		
+		buffer.position(position);
+		buffer.putInt(size);
+		buffer.putInt((int) crc.getValue());
+		
+		segment.position += HEADER_LENGTH + length;
+		segment.dirty = true;
+		
+		return position + HEADER_LENGTH;
+		
+	}
+	
+	// Called with the lock held
+	private void append(RoomLog room, byte[] record) throws IOException {
+		
+		checkOpen();
+		
+		if(!fits(current, record.length))
+			roll(record.length);
+		
+		int offset = write(current, room.roomID, RECORD, record, record.length);
+		room.add(current, offset, record.length);
+		
+	}
+	
+	private boolean fits(Segment segment, int length) {
+		return segment.position + HEADER_LENGTH + length <= segment.capacity;
+	}
+	
+	// Called with the lock held
+	private void roll(int length) throws IOException {
+		
+		if(HEADER_LENGTH + length > segmentSize)
+			throw new IOException("Record of " + length + " bytes does not fit in a segment");
+		
+		current = newSegment(current.number + 1);
+		
+		if(segments.size() <= COMPACT_SEGMENTS)
+			return;
+		
+		Segment oldest = segments.firstEntry().getValue();
+		
+		for(RoomLog room : rooms.values()) {
+			
+			if(oldest.references == 0)
+				break;
+			
+			if(room.count != 0 && room.segments[0] == oldest)
+				relocate(room, length);
+			
+		}
+		
+	}
+	
+	// Copies all of a room's records into the current segment as one record,
+	// unless that would leave no room for the record being appended
+	private void relocate(RoomLog room, int reserved) {
+		
+		int length = 0;
+		
+		for(int i = 0; i < room.count; ++i)
+			length += 4 + room.lengths[i];
+		
+		if(current.position + HEADER_LENGTH + length + HEADER_LENGTH + reserved > current.capacity)
+			return;
+		
+		byte[] history = new byte[length];
+		ByteBuffer out = ByteBuffer.wrap(history);
+		
+		for(int i = 0; i < room.count; ++i) {
+			
+			ByteBuffer in = room.segments[i].buffer.duplicate();
+			in.position(room.offsets[i]);
+			in.limit(room.offsets[i] + room.lengths[i]);
+			
+			out.putInt(room.lengths[i]);
+			out.put(in);
+			
+		}
+		
+		int offset = write(current, room.roomID, HISTORY, history, length);
+		
+		room.clear();
+		addHistory(room, current, offset, length);
+		
+	}
+	
+	// Returns false if the history is malformed
+	private boolean addHistory(RoomLog room, Segment segment, int offset, int length) {
+		
+		int end = offset + length;
+		
+		while(offset < end) {
+			
+			if(offset + 4 > end)
+				return false;
+			
+			int recordLength = segment.buffer.getInt(offset);
+			offset += 4;
+			
+			if(recordLength < 0 || offset + recordLength > end)
+				return false;
+			
+			room.add(segment, offset, recordLength);
+			offset += recordLength;
+			
+		}
+		
+		return true;
+		
+	}
+	
+	// Indexes a segment's records, returns false if it ends in a torn record
+	private boolean scan(Segment segment) {
+		
+		ByteBuffer buffer = segment.buffer;
+		int position = 0;
+		
+		while(position + HEADER_LENGTH <= segment.capacity) {
+			
+			int size = buffer.getInt(position);
+			int expected = buffer.getInt(position + 4);
+			
+			// Never written
+			if(size == 0 && expected == 0)
+				break;
+			
+			if(size < TAG_LENGTH || position + 8 + size > segment.capacity) {
+				segment.position = position;
+				return false;
+			}
+			
+			ByteBuffer written = buffer.duplicate();
+			written.position(position + 8);
+			written.limit(position + 8 + size);
+			
+			crc.reset();
+			crc.update(written);
+			
+			if((int) crc.getValue() != expected) {
+				segment.position = position;
+				return false;
+			}
+			
+			int roomID = buffer.getInt(position + 8);
+			byte kind = buffer.get(position + 12);
+			int offset = position + HEADER_LENGTH;
+			int length = size - TAG_LENGTH;
+			
+			RoomLog room = rooms.get(roomID);
+			
+			if(room == null && kind != RESET) {
+				room = new RoomLog(roomID);
+				rooms.put(roomID, room);
+			}
+			
+			if(kind == RECORD)
+				room.add(segment, offset, length);
+			
+			else if(kind == HISTORY) {
+				
+				room.clear();
+				
+				if(!addHistory(room, segment, offset, length)) {
+					segment.position = position;
+					return false;
+				}
+				
+			}
+			
+			else if(kind == RESET && room != null) {
+				
+				room.clear();
+				rooms.remove(roomID);
+				
+			}
+			
+			position += 8 + size;
+			
+		}
+		
+		segment.position = position;
+		
+		return true;
+		
+	}
+	
+	private Segment newSegment(int number) throws IOException {
+		
+		File file = new File(directory, PREFIX + String.format("%010d", number) + SUFFIX);
+		Segment segment = new Segment(number, file, segmentSize);
+		
+		segments.put(number, segment);
+		
+		return segment;
+		
+	}
+	
+	// Zeroes the rest of a segment, skipping what is already zero so a sparse
+	// file stays sparse
+	private void clearFrom(Segment segment, int position) {
+		
+		byte[] zeros = new byte[ZERO_CHUNK];
+		ByteBuffer buffer = segment.buffer.duplicate();
+		
+		while(position < segment.capacity) {
+			
+			int length = Math.min(ZERO_CHUNK, segment.capacity - position);
+			boolean clear = true;
+			
+			for(int i = 0; i < length && clear; ++i)
+				clear = buffer.get(position + i) == 0;
+			
+			if(!clear) {
+				
+				buffer.position(position);
+				buffer.put(zeros, 0, length);
+				segment.dirty = true;
+				
+			}
+			
+			position += length;
+			
+		}
+		
+	}
+	
+	private static final class Segment {
+		
+		private final int number;
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		
+		// Only changed with the log's lock held
+		private int position;
+		private int references;
+		private boolean dirty;
+		
+		// A size of 0 opens an existing segment at its current size
+		public Segment(int number, File file, int size) throws IOException {
+			
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			
+			try {
+				
+				if(size != 0)
+					raf.setLength(size);
+				
+				this.channel = raf.getChannel();
+				this.capacity = (int) Math.min(Integer.MAX_VALUE, channel.size());
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+				
+			} catch(IOException e) {
+				raf.close();
+				throw e;
+			}
+			
+			this.number = number;
+			this.file = file;
+			
+		}
+		
+		public void close() {
+			
+			try {
+				channel.close();
+			} catch(IOException e) {}
+			
+		}
+		
+	}
+	
+	// One room's records in the log
+	public final class RoomLog implements JournalStore {
+		
+		private final int roomID;
+		
+		private Segment[] segments;
+		private int[] offsets;
+		private int[] lengths;
+		private int count;
+		private boolean deleted;
+		
+		private RoomLog(int roomID) {
+			
+			this.roomID = roomID;
+			this.segments = new Segment[16];
+			this.offsets = new int[16];
+			this.lengths = new int[16];
+			
+		}
+		
+		public int getRoomID() {
+			return roomID;
+		}
+		
+		@Override
+		public void append(byte[] record) throws IOException {
+			
+			synchronized(SegmentLog.this) {
+				
+				if(deleted)
+					throw new IOException("Journal of room " + roomID + " was deleted");
+				
+				SegmentLog.this.append(this, record);
+				
+			}
+			
+		}
+		
+		// Syncs the whole log, other rooms' records share the sync
+		@Override
+		public void force() throws IOException {
+			SegmentLog.this.force();
+		}
+		
+		@Override
+		public List<byte[]> readAll() {
+			
+			synchronized(SegmentLog.this) {
+				
+				ArrayList<byte[]> records = new ArrayList<byte[]>(count);
+				
+				for(int i = 0; i < count; ++i) {
+					
+					byte[] record = new byte[lengths[i]];
+					
+					ByteBuffer buffer = segments[i].buffer.duplicate();
+					buffer.position(offsets[i]);
+					buffer.get(record);
+					
+					records.add(record);
+					
+				}
+				
+				return records;
+				
+			}
+			
+		}
+		
+		@Override
+		public long size() {
+			
+			synchronized(SegmentLog.this) {
+				
+				long size = 0;
+				
+				for(int i = 0; i < count; ++i)
+					size += lengths[i];
+				
+				return size;
+				
+			}
+			
+		}
+		
+		// The log is closed as a whole
+		@Override
+		public void close() {}
+		
+		@Override
+		public void delete() throws IOException {
+			
+			synchronized(SegmentLog.this) {
+				
+				if(deleted)
+					return;
+				
+				checkOpen();
+				
+				deleted = true;
+				
+				if(rooms.get(roomID) == this)
+					rooms.remove(roomID);
+				
+				// Only needed while older segments still hold its records
+				if(count == 0)
+					return;
+				
+				if(!fits(current, 0))
+					roll(0);
+				
+				write(current, roomID, RESET, new byte[0], 0);
+				clear();
+				
+			}
+			
+		}
+		
+		// Called with the log's lock held
+		private void add(Segment segment, int offset, int length) {
+			
+			if(count == offsets.length) {
+				
+				segments = Arrays.copyOf(segments, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+				
+			}
+			
+			segments[count] = segment;
+			offsets[count] = offset;
+			lengths[count] = length;
+			++count;
+			
+			++segment.references;
+			
+		}
+		
+		// Called with the log's lock held
+		private void clear() {
+			
+			for(int i = 0; i < count; ++i) {
+				
+				--segments[i].references;
+				segments[i] = null;
+				
+			}
+			
+			count = 0;
+			
+		}
+		
+	}
+
+}
@@ -0,0 +1,388 @@
+package conquest;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public final class SelectorTransport extends Transport {
+	
+	public static final int DEFAULT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
+	private final ServerSocketChannel serverChannel;
+	private final EventLoop[] loops;
+	
+	private volatile boolean stopped;
+	private int nextLoop;
+	
+	public SelectorTransport(int port, int loopCount) throws IOException {
+		
+		if(loopCount < 1)
+			throw new IllegalArgumentException("Must have at least one event loop");
+		
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(port));
+		this.serverChannel.configureBlocking(false);
+		
+		this.loops = new EventLoop[loopCount];
+		
+		for(int i = 0; i < loops.length; ++i)
+			loops[i] = new EventLoop(i);
+		
+	}
+	
+	@Override
+	protected void listen() {
+		
+		// The first loop also accepts connections
+		try {
+			loops[0].selector.wakeup();
+			serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		} catch(Exception e) {
+			getAcceptor().acceptFailed(e);
+			return;
+		}
+		
+		for(EventLoop loop : loops)
+			loop.thread.start();
+		
+	}
+	
+	@Override
+	public int getLocalPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	@Override
+	public void stopAccepting() {
+		
+		stopped = true;
+		
+		try {
+			serverChannel.close();
+		} catch(Exception e) {}
+		
+	}
+	
+	@Override
+	public void close() {
+		
+		stopAccepting();
+		
+		for(EventLoop loop : loops) {
+			
+			loop.quit = true;
+			loop.selector.wakeup();
+			
+		}
+		
+	}
+	
+	private void accept() {
+		
+		SocketChannel channel;
+		
+		try {
+			
+			while((channel = serverChannel.accept()) != null) {
+				
+				channel.configureBlocking(false);
+				configureSocket(channel.socket());
+				
+				EventLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop + 1) % loops.length;
+				
+				getAcceptor().connectionAccepted(new ChannelConnection(channel, loop, newOutboundQueue(), getWriteStats()));
+				
+			}
+			
+		} catch(Exception e) {
+			
+			if(!stopped)
+				getAcceptor().acceptFailed(e);
+			
+		}
+		
+	}
+	
+	private final class EventLoop implements Runnable {
+		
+		private final Selector selector;
+		private final Thread thread;
+		private final Queue<ChannelConnection> registrations;
+		private final Queue<ChannelConnection> pendingWrites;
+		private final Queue<ChannelConnection> lowPriorityWrites;
+		
+		private volatile boolean quit;
+		
+		public EventLoop(int index) throws IOException {
+			
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "Selector loop " + index);
+			this.registrations = new ConcurrentLinkedQueue<ChannelConnection>();
+			this.pendingWrites = new ConcurrentLinkedQueue<ChannelConnection>();
+			this.lowPriorityWrites = new ConcurrentLinkedQueue<ChannelConnection>();
+			
+		}
+		
+		public void register(ChannelConnection connection) {
+			
+			registrations.add(connection);
+			selector.wakeup();
+			
+		}
+		
+		public void scheduleWrite(ChannelConnection connection) {
+			
+			(connection.isLowPriority() ? lowPriorityWrites : pendingWrites).add(connection);
+			
+			if(Thread.currentThread() != thread)
+				selector.wakeup();
+			
+		}
+		
+		@Override
+		public void run() {
+			
+			try {
+				
+				while(!quit) {
+					
+					selector.select();
+					
+					ChannelConnection connection;
+					
+					while((connection = registrations.poll()) != null)
+						connection.register(selector);
+					
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					
+					while(keys.hasNext()) {
+						
+						SelectionKey key = keys.next();
+						keys.remove();
+						
+						if(!key.isValid())
+							continue;
+						
+						if(key.isAcceptable()) {
+							accept();
+							continue;
+						}
+						
+						connection = (ChannelConnection) key.attachment();
+						
+						if(key.isReadable())
+							connection.read();
+						
+						if(key.isValid() && key.isWritable())
+							connection.flush();
+						
+					}
+					
+					// Includes writes scheduled while handling received messages
+					while((connection = pendingWrites.poll()) != null)
+						connection.flush();
+					
+					// Low priority writes wait for any others scheduled meanwhile
+					while((connection = lowPriorityWrites.poll()) != null) {
+						
+						connection.flush();
+						
+						while((connection = pendingWrites.poll()) != null)
+							connection.flush();
+						
+					}
+					
+				}
+				
+			} catch(Exception e) {
+				
+				if(!quit && !stopped)
+					getAcceptor().acceptFailed(e);
+				
+			} finally {
+				
+				for(SelectionKey key : selector.keys()) {
+					
+					if(key.attachment() instanceof ChannelConnection)
+						((ChannelConnection) key.attachment()).fail("Server connection closed");
+					
+				}
+				
+				try {
+					selector.close();
+				} catch(Exception e) {}
+				
+			}
+			
+		}
+		
+	}
+	
+	private final class ChannelConnection extends Connection {
+		
+		private final SocketChannel channel;
+		private final EventLoop loop;
+		private final ByteBuffer writeBuffer;
+		private final AtomicBoolean writeScheduled;
+		
+		private SelectionKey key;
+		private byte[] leftOver;
+		
+		public ChannelConnection(SocketChannel channel, EventLoop loop, OutboundQueue pendingOut, WriteStats writeStats) {
+			
+			super(pendingOut, writeStats);
+			
+			this.channel = channel;
+			this.loop = loop;
+			this.writeScheduled = new AtomicBoolean();
+			
+			// Holds bytes still to be written between position and limit
+			this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			this.writeBuffer.limit(0);
+			
+		}
+		
+		@Override
+		protected void open() {
+			loop.register(this);
+		}
+		
+		@Override
+		protected void closeChannel() {
+			
+			try {
+				channel.close();
+			} catch(Exception e) {}
+			
+		}
+		
+		// Once closed, the loop still has to flush to notice, even while the
+		// connection waits to be writable
+		@Override
+		protected void wakeWriter() {
+			
+			if(writeScheduled.compareAndSet(false, true) || isClosed())
+				loop.scheduleWrite(this);
+			
+		}
+		
+		// Called from the event loop
+		private void register(Selector selector) {
+			
+			if(isClosed())
+				return;
+			
+			try {
+				key = channel.register(selector, SelectionKey.OP_READ, this);
+			} catch(Exception e) {
+				fail("Error registering client:  " + e.getMessage());
+				return;
+			}
+			
+			// Messages may have been sent before the channel was registered
+			flush();
+			
+		}
+		
+		// Called from the event loop
+		private void read() {
+			
+			try {
+				
+				// Anything that did not fit is read on the next select
+				if(decoder.read(channel) < 0)
+					throw new IOException("Input stream was closed");
+				
+				messagesReceived();
+				
+			} catch(Exception e) {
+				fail("Error reading from client:  " + e.getMessage());
+			}
+			
+		}
+		
+		// Called from the event loop
+		private void flush() {
+			
+			if(isClosed()) {
+				
+				checkOverflow();
+				return;
+				
+			}
+			
+			if(key == null)
+				return;
+			
+			try {
+				
+				for(;;) {
+					
+					if(!writeBuffer.hasRemaining() && !fillWriteBuffer()) {
+						
+						writeScheduled.set(false);
+						
+						// A message may have been added after the poll
+						if(pendingOut.isEmpty() || !writeScheduled.compareAndSet(false, true))
+							break;
+						
+						continue;
+						
+					}
+					
+					channel.write(writeBuffer);
+					
+					// Socket buffer is full, wait until it is writable again
+					if(writeBuffer.hasRemaining()) {
+						
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+						
+					}
+					
+				}
+				
+				key.interestOps(SelectionKey.OP_READ);
+				
+			} catch(Exception e) {
+				fail("Error writing to client:  " + e.getMessage());
+			}
+			
+		}
+		
+		// Packs as many queued messages as fit into the empty write buffer,
+		// returns false if there were none
+		private boolean fillWriteBuffer() {
+			
+			writeBuffer.clear();
+			
+			int frames = 0;
+			byte[] message = leftOver != null ? leftOver : pendingOut.poll();
+			
+			while(message != null && message.length <= writeBuffer.remaining()) {
+				
+				writeBuffer.put(message);
+				++frames;
+				
+				message = pendingOut.poll();
+				
+			}
+			
+			leftOver = message;
+			writeBuffer.flip();
+			
+			if(frames != 0)
+				writeStats.record(frames, writeBuffer.remaining());
+			
+			return frames != 0;
+			
+		}
+		
+	}
+
+}
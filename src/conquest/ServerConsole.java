@@ -0,0 +1,119 @@
+package conquest;
+
+import java.io.*;
+
+// Administers a headless server with the same actions as the server window
+public final class ServerConsole implements Runnable {
+	
+	private static final String HELP =
+		"Commands:  rooms | stats | start <room> | kick <room> <player> | cancel [reason] | quit";
+	
+	private final ServerInstance server;
+	private final BufferedReader in;
+	
+	public ServerConsole(ServerInstance server, InputStream in) {
+		
+		this.server = server;
+		this.in = new BufferedReader(new InputStreamReader(in));
+		
+	}
+	
+	@Override
+	public void run() {
+		
+		try {
+			
+			String line;
+			
+			while((line = in.readLine()) != null) {
+				
+				if(!execute(line.trim().split("\\s+", 2)))
+					return;
+				
+			}
+			
+		} catch(IOException e) {
+			server.log("Error reading console:  " + e.getMessage());
+		}
+		
+	}
+	
+	// Returns false once the server has been shut down
+	private boolean execute(String[] command) {
+		
+		String argument = command.length > 1 ? command[1] : "";
+		
+		try {
+			
+			switch(command[0]) {
+				
+			case "":
+				break;
+				
+			case "rooms":
+				
+				for(GameRoom room : server.getRooms())
+					server.log(room + ":  " + room.size() + " clients, " + room.spectatorCount() + " spectators" + (room.isWaitingForPlayers() ? ", waiting for players" : room.hasStartedGame() ? ", in game" : ""));
+				
+				break;
+				
+			case "stats":
+				
+				server.log("Sent " + server.getWriteStats());
+				
+				if(server.isJournaling())
+					server.log("Journaled " + server.getJournal());
+				
+				break;
+				
+			case "start":
+				
+				int roomID = Integer.parseInt(argument);
+				
+				if(!server.startGame(roomID))
+					server.log("Could not start game in room " + roomID);
+				
+				break;
+				
+			case "kick":
+				
+				String[] ids = argument.split("\\s+");
+				
+				if(ids.length != 2) {
+					
+					server.log(HELP);
+					break;
+					
+				}
+				
+				server.kick(Integer.parseInt(ids[0]), Integer.parseInt(ids[1]));
+				break;
+				
+			case "cancel":
+				server.quit(argument.isEmpty() ? "Server admin cancelled the game" : argument);
+				break;
+				
+			case "quit":
+				
+				// Journaled games are left to be recovered on the next start
+				if(!server.isJournaling())
+					server.quit("Server admin shut down server");
+				
+				server.shutdown();
+				return false;
+				
+			default:
+				server.log(HELP);
+				break;
+				
+			}
+			
+		} catch(NumberFormatException e) {
+			server.log(HELP);
+		}
+		
+		return true;
+		
+	}
+
+}
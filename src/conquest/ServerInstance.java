@@ -2,424 +2,547 @@ package conquest;
 
 import java.awt.event.*;
 import java.io.*;
-import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import javax.swing.*;
 import javax.swing.event.*;
 
 public final class ServerInstance {
 	
-	public static final int MAX_CLIENTS = 15;
 	public static final int MAX_PLAYERS = 6;
 	public static final int MIN_PLAYERS = 2;
+	public static final int DEFAULT_MAX_SPECTATORS = 1000;
 	
-	private final Thread listeningThread;
-	private final ServerSocket serverSocket;
-	private final TreeMap<Integer, ClientConnection> clients;
-	private final TreeSet<Integer> idPool;
+	private static final int LOBBY_ID = 0;
+	private static final int ROOM_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int SPECTATOR_THREADS = Math.max(1, ROOM_THREADS / 2);
 	
+	private final Transport transport;
+	private final ConcurrentSkipListMap<Integer, ClientConnection> clients;
+	private final TreeMap<Integer, GameRoom> rooms;
+	private final ExecutorService roomExecutor;
+	private final ExecutorService spectatorExecutor;
+	
+	private final AsyncLog log;
 	private final ServerWindow serverWindow;
+	private final AtomicBoolean clientListPending;
 	
-	private volatile boolean startGame;
-	private boolean hasQuit;
+	private volatile int autoStartPlayers;
+	private volatile int maxSpectators = DEFAULT_MAX_SPECTATORS;
+	private volatile Journal journal;
 	private boolean serverStarted;
 	
-	private GameData data;
+	private final AtomicInteger nextClient = new AtomicInteger();
+	private int nextRoom;
+	private GameRoom openRoom;
 	
 	public ServerInstance(int port) throws IOException {
+		this(port, IOMode.BLOCKING);
+	}
+	
+	public ServerInstance(int port, IOMode mode) throws IOException {
+		this(port, mode, false);
+	}
+	
+	// A headless server has no window, logs to standard output and is
+	// administered through its public methods (see ServerConsole)
+	public ServerInstance(int port, IOMode mode, boolean headless) throws IOException {
 		
-		this.idPool = new TreeSet<Integer>();
+		this.transport = Transport.create(mode, port);
+		this.clients = new ConcurrentSkipListMap<Integer, ClientConnection>();
+		this.rooms = new TreeMap<Integer, GameRoom>();
+		this.roomExecutor = Executors.newFixedThreadPool(ROOM_THREADS, new ServerThreads("Room thread", Thread.NORM_PRIORITY));
+		this.spectatorExecutor = Executors.newFixedThreadPool(SPECTATOR_THREADS, new ServerThreads("Spectator thread", Thread.MIN_PRIORITY));
+		this.clientListPending = new AtomicBoolean();
 		
-		for(int i = 1; i <= MAX_CLIENTS; ++i)
-			this.idPool.add(i);
+		if(headless) {
 			
+			this.serverWindow = null;
+			this.log = new AsyncLog(AsyncLog.streamSink(System.out));
+			
+		} else {
+			
+			this.serverWindow = new ServerWindow();
+			this.serverWindow.setVisible(true);
+			this.log = new AsyncLog(new WindowLog());
+			
+		}
+		
+	}
+	
+	public boolean isHeadless() {
+		return serverWindow == null;
+	}
+	
+	// Starts a room's game as soon as it has this many players, 0 to only
+	// start games from the server window
+	public void setAutoStartPlayers(int players) {
 		
-		this.serverSocket = new ServerSocket(port);
-		this.listeningThread = new Thread(new Listener());
-		this.clients = new TreeMap<Integer, ClientConnection>();
+		if(players != 0 && (players < MIN_PLAYERS || players > MAX_PLAYERS))
+			throw new IllegalArgumentException("Must auto start with " + MIN_PLAYERS + "-" + MAX_PLAYERS + " players");
 		
-		this.serverWindow = new ServerWindow();
-		this.serverWindow.setVisible(true);
+		this.autoStartPlayers = players;
 		
 	}
 	
-	public void start() {
+	// Limits how many spectators may watch each room, 0 to allow none
+	public void setMaxSpectators(int maxSpectators) {
 		
-		if(serverStarted)
-			return;
+		if(maxSpectators < 0)
+			throw new IllegalArgumentException();
 		
-		serverStarted = true;
-		listeningThread.start();
+		this.maxSpectators = maxSpectators;
 		
 	}
 	
-	private void kill() {
+	public int getMaxSpectators() {
+		return maxSpectators;
+	}
+	
+	// Limits how many messages may wait to be sent to each client and what
+	// happens to a client that falls further behind
+	public void setOutboundLimit(int queueCapacity, OverflowPolicy overflowPolicy) {
 		
-		try {
-			serverSocket.close();
-		} catch(Exception e) {}
+		if(serverStarted)
+			throw new IllegalStateException("Server has already started");
 		
-		synchronized(clients) {
-			
-			for(ClientConnection client : clients.values())
-				client.kill();
-			
-			clients.clear();
-			
-		}
+		transport.setOutboundLimit(queueCapacity, overflowPolicy);
 		
 	}
 	
-	public boolean startGame() {
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		transport.setTcpNoDelay(tcpNoDelay);
+	}
+	
+	public WriteStats getWriteStats() {
+		return transport.getWriteStats();
+	}
+	
+	public void setJournal(File directory) throws IOException {
+		setJournal(directory, JournalStorage.MAPPED);
+	}
+	
+	// Journals games in the directory so they survive a restart, and recovers
+	// the games left there by the last server to use it
+	public void setJournal(File directory, JournalStorage storage) throws IOException {
+		
+		if(serverStarted)
+			throw new IllegalStateException("Server has already started");
+		
+		long start = System.nanoTime();
+		
+		Journal journal = new Journal(directory, Journal.DEFAULT_COMMIT_MILLIS, storage);
+		List<GameJournal> games = journal.recover();
 		
-		synchronized(clients) {
+		synchronized(rooms) {
 			
-			if(!startGame && clients.size() >= MIN_PLAYERS && clients.size() <= MAX_PLAYERS) {
+			for(GameJournal game : games) {
 				
-				startGame = true;
-				listeningThread.interrupt();
-				
-				data = new GameData(clients.keySet());
-				data.initializeGame();
+				if(game.getRoomID() > JoinRoom.MAX_ROOM || rooms.containsKey(game.getRoomID())) {
+					
+					game.delete();
+					continue;
+					
+				}
 				
-				broadcastGameState();
+				GameRoom room = newRoom(game.getRoomID());
+				rooms.put(room.getID(), room);
+				room.restore(game);
 				
-				return true;
+				log("Recovered game in room " + room.getID() + ", replayed " + game.getReplayedMoves() + " moves in " + game.getRecoveryNanos() / 1000 + " us");
 				
 			}
 			
 		}
 		
-		return false;
+		this.journal = journal;
 		
+		log("Recovered " + games.size() + " games from " + directory + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		
+	}
+	
+	public Journal getJournal() {
+		return journal;
+	}
+	
+	public boolean isJournaling() {
+		return journal != null;
 	}
 	
-	private void broadcastGameState() {
+	public void start() {
 		
-		synchronized(clients) {
-			
-			for(ClientConnection client : clients.values()) {
-				
-				byte[] message = data.toBytes(client.id);
-				client.sendMessage(message);
-				
-			}
-			
-		}
+		if(serverStarted)
+			return;
+		
+		serverStarted = true;
+		transport.start(new Acceptor());
+		
+		log("Listening on port " + transport.getLocalPort() + "...");
 		
 	}
 	
-	private void broadcastPlayerList() {
+	public void shutdown() {
 		
-		synchronized(clients) {
-			
-			TreeMap<Integer, String> players = new TreeMap<Integer, String>();
-			
-			for(Map.Entry<Integer, ClientConnection> entry : clients.entrySet())
-				players.put(entry.getKey(), entry.getValue().name);
+		transport.close();
+		
+		for(ClientConnection client : clients.values())
+			client.kill();
+		
+		roomExecutor.shutdown();
+		spectatorExecutor.shutdown();
+		
+		// Finish what the rooms were doing before syncing their journals
+		if(journal != null) {
 			
-			Players p = new Players(players);
-			byte[] message = p.toBytes(null);
+			try {
+				roomExecutor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 			
-			for(ClientConnection client : clients.values())
-				client.sendMessage(message);
+			journal.close();
 			
 		}
 		
+		log("Server shut down");
+		log.close();
+		
 	}
 	
-	private void broadcastChat(Chat chat) {
+	public boolean startGame(int roomID) {
 		
-		synchronized(clients) {
-			
-			byte[] message = chat.toBytes(null);
-			
-			for(ClientConnection client : clients.values())
-				client.sendMessage(message);
-			
+		GameRoom room;
+		
+		synchronized(rooms) {
+			room = rooms.get(roomID);
 		}
 		
+		return room != null && room.startGame();
+		
 	}
 	
-	private final class Listener implements Runnable {
-
-		@Override
-		public void run() {
+	private GameRoom newRoom(int roomID) {
+		return new GameRoom(this, roomID, roomExecutor, spectatorExecutor);
+	}
+	
+	// A client asking for a room with a game in progress takes back the seat
+	// of the player ID it asked for
+	private boolean joinRoom(ClientConnection client, int roomID, int playerID) {
+		
+		synchronized(rooms) {
 			
-			try {
+			// Spectators can only watch a room that is already there
+			if(playerID == JoinRoom.SPECTATOR) {
 				
-				log("Listening on port " + serverSocket.getLocalPort() + "...");
+				GameRoom room = rooms.get(roomID);
 				
-				for(;;) {
-					
-					Socket socket = serverSocket.accept();
-					
-					synchronized(clients) {
-						
-						new ClientConnection(socket).start();
-						
-					}
-					
-				}
+				return room != null && room.spectate(client);
+				
+			}
+			
+			GameRoom room;
+			
+			if(roomID == JoinRoom.ANY_ROOM)
+				room = findOpenRoom();
+			
+			else {
 				
-			} catch(Exception e) {
+				room = rooms.get(roomID);
 				
-				if(!startGame) {
+				if(room == null) {
 					
-					log("Error listening for clients:  " + e.getMessage());
-					kill();
+					room = newRoom(roomID);
+					rooms.put(roomID, room);
 					
 				}
 				
 			}
 			
+			if(room == null)
+				return false;
+			
+			if(room.hasStartedGame())
+				return room.rejoin(client, playerID);
+			
+			if(!room.join(client)) {
+				
+				if(room.isEmpty() && !room.isWaitingForPlayers())
+					rooms.remove(room.getID());
+				
+				return false;
+				
+			}
+			
+			if(autoStartPlayers != 0 && room.size() >= autoStartPlayers)
+				room.startGame();
+			
+			return true;
+			
 		}
 		
 	}
 	
-	public boolean hasStartedGame() {
+	// Called with the rooms lock held
+	private GameRoom findOpenRoom() {
 		
-		synchronized(clients) {
-			return data != null;
-		}
+		if(openRoom != null && openRoom.isOpen() && rooms.get(openRoom.getID()) == openRoom)
+			return openRoom;
+		
+		if(rooms.size() > JoinRoom.MAX_ROOM)
+			return null;
+		
+		while(rooms.containsKey(nextRoom))
+			nextRoom = (nextRoom + 1) % (JoinRoom.MAX_ROOM + 1);
+		
+		openRoom = newRoom(nextRoom);
+		rooms.put(nextRoom, openRoom);
+		
+		return openRoom;
 		
 	}
 	
-	private void cancelGameIfStarted(String reason) {
+	private void leaveRoom(ClientConnection client, GameRoom room) {
 		
-		synchronized(clients) {
-			if(hasStartedGame())
-				quit(reason);
+		room.leave(client);
+		
+		synchronized(rooms) {
+			
+			if(room.isEmpty() && !room.isWaitingForPlayers() && rooms.get(room.getID()) == room)
+				rooms.remove(room.getID());
+			
 		}
 		
 	}
 	
-	public void quit(String reason) {
+	private static final class ServerThreads implements ThreadFactory {
 		
-		reason = reason == null ? "No reason given" : reason;
+		private final String name;
+		private final int priority;
+		private final AtomicInteger count = new AtomicInteger();
 		
-		synchronized(clients) {
+		public ServerThreads(String name, int priority) {
 			
-			if(!hasStartedGame())
-				return;
+			this.name = name;
+			this.priority = priority;
 			
-			if(hasQuit)
-				return;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
 			
-			hasQuit = true;
+			Thread thread = new Thread(runnable, name + " " + count.getAndIncrement());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
 			
-			for(ClientConnection client : clients.values())
-				client.quit(reason);
+			return thread;
 			
 		}
 		
 	}
 	
-	public void kick(Integer id) {
+	private final class Acceptor implements Transport.Acceptor {
+		
+		@Override
+		public void connectionAccepted(Connection connection) {
+			new ClientConnection(connection).start();
+		}
 		
-		synchronized(clients) {
+		@Override
+		public void acceptFailed(Exception e) {
 			
-			if(!serverStarted || hasQuit || !clients.containsKey(id))
-				return;
+			log("Error listening for clients:  " + e.getMessage());
+			shutdown();
 			
-			ClientConnection client = clients.get(id);
-			client.kill();
+		}
+		
+	}
+	
+	public void quit(String reason) {
+		
+		ArrayList<GameRoom> rooms;
+		
+		synchronized(this.rooms) {
+			rooms = new ArrayList<GameRoom>(this.rooms.values());
+		}
+		
+		for(GameRoom room : rooms)
+			room.quit(reason);
+		
+		// Games waiting for players who left are over too
+		synchronized(this.rooms) {
+			
+			for(GameRoom room : rooms)
+				if(room.isEmpty() && this.rooms.get(room.getID()) == room)
+					this.rooms.remove(room.getID());
 			
 		}
 		
 	}
 	
-	private final class ClientConnection {
+	public List<GameRoom> getRooms() {
 		
-		private static final int BUFFER_SIZE = 512;
-		private static final int HEADER_LENGTH = 2;
-		private static final int MESSAGE_TYPE_OFFSET = 0;
-		private static final int MESSAGE_LENGTH_OFFSET = 1;
+		synchronized(rooms) {
+			return new ArrayList<GameRoom>(rooms.values());
+		}
+		
+	}
+	
+	public void kick(int roomID, Integer playerID) {
+		
+		GameRoom room;
+		
+		synchronized(rooms) {
+			room = rooms.get(roomID);
+		}
+		
+		if(!serverStarted || room == null)
+			return;
+		
+		room.kick(playerID);
+		
+	}
+	
+	final class ClientConnection implements ConnectionHandler {
 		
-		private final Thread readThread, writeThread;
+		private static final int MESSAGE_TYPE_OFFSET = 0;
 		
-		private final Socket socket;
-		private final Integer id;
-		private final Queue<byte[]> pendingOut;
+		private final Connection connection;
+		private final Integer serial;
+		private volatile Integer id;
+		private volatile GameRoom room;
 		private volatile String name;
 		private volatile boolean quit;
 		
 		private boolean helloReceived;
 		
-		public ClientConnection(Socket socket) {
+		public ClientConnection(Connection connection) {
 			
-			synchronized(clients) {
-				
-				id = idPool.pollFirst();
-				
-				if(id == null)
-					throw new IllegalStateException("ID pool exhausted (too many clients connected?)");
-				
-				this.socket = socket;
-				this.pendingOut = new LinkedList<byte[]>();
-				
-				this.name = "Player " + id;
-				clients.put(id, this);
-				
-			}
+			this.serial = nextClient.getAndIncrement();
+			this.connection = connection;
 			
-			readThread = new Thread(new Reader());
-			writeThread = new Thread(new Writer());
+			this.id = LOBBY_ID;
+			this.name = "Player";
+			clients.put(serial, this);
 			
 		}
 		
+		public Integer getID() {
+			return id;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public GameRoom getRoom() {
+			return room;
+		}
+		
+		public boolean isSpectator() {
+			return id == JoinRoom.SPECTATOR;
+		}
+		
 		private void start() {
 			
-			readThread.start();
-			writeThread.start();
+			connection.start(this);
 			
 			Hello hello = new Hello(name, id);
 			sendMessage(hello.toBytes(id));
 			
 		}
 		
-		private void kill() {
+		// Called by the room once it has assigned this client a player ID, or
+		// taken it in as a spectator
+		void joinedRoom(GameRoom room, Integer id) {
 			
-			synchronized(clients) {
-				
-				quit = true;
-				
-				idPool.add(id);
-				clients.remove(id);
-				
-				try {
-					socket.close();
-				} catch(Exception e) {}
-				
-				// If game has started, cancel it
-				cancelGameIfStarted("Player " + name + " was disconnected");
-				
-			}
+			this.room = room;
+			this.id = id;
+			
+			// Spectators' writes wait behind the players'
+			if(isSpectator())
+				connection.setLowPriority();
+			
+			JoinRoom joinRoom = new JoinRoom(room.getID(), id);
+			sendMessage(joinRoom.toBytes(id));
+			
+			updateClientList();
 			
 		}
 		
-		private final class Reader implements Runnable {
-
-			@Override
-			public void run() {
-				
-				byte[] buffer = new byte[BUFFER_SIZE];
-				
-				try {
-					
-					InputStream is = socket.getInputStream();
-					int offset = 0;
-					
-					for(;;) {
-						
-						if(quit)
-							return;
-						
-						int read = is.read(buffer, offset, buffer.length - offset);
-						
-						if(read < 0)
-							throw new IOException("Input stream was closed");
-						
-						offset += read;
-						
-						// Do we have a header?
-						while(offset >= HEADER_LENGTH) {
-							
-							if(quit)
-								return;
-							
-							int length = (buffer[MESSAGE_LENGTH_OFFSET] & 0xff) + HEADER_LENGTH;
-							
-							// Do we have a full message?
-							if(offset >= length) {
-								
-								decodeMessage(buffer, length);
-								
-								System.arraycopy(buffer, length, buffer, 0, offset - length);
-								offset -= length;
-								
-							}
-						
-						}
-				
-					}
-					
-				} catch(Exception e) {
-					
-					log("Error reading from server:  " + e.getMessage());
-					kill();
-					
-				}
-				
-			}
+		void kill() {
+			
+			if(clients.remove(serial) == null)
+				return;
+			
+			quit = true;
+			
+			connection.close();
+			
+			GameRoom room = this.room;
+			
+			if(room != null)
+				leaveRoom(this, room);
+			
+			updateClientList();
 			
 		}
 		
-		private final class Writer implements Runnable {
-
-			@Override
-			public void run() {
-				
-				try {
-					
-					OutputStream os = socket.getOutputStream();
-					
-					synchronized(pendingOut) {
-						
-						for(;;) {
-							
-							byte[] message;
-							
-							while((message = pendingOut.poll()) != null)
-								os.write(message);
-							
-							pendingOut.wait();
-							
-						}
-						
-					}
-					
-				} catch(Exception e) {
-					
-					log("Error writing to client:  " + e.getMessage());
-					kill();
-					
-				}
-				
-			}
+		@Override
+		public void messageReceived(byte[] message, int offset, int length) {
+			decodeMessage(message, offset, length);
+		}
+		
+		@Override
+		public void connectionClosed(String reason) {
+			
+			log(reason);
+			kill();
 			
 		}
 		
-		public void decodeMessage(byte[] message, int length) {
+		public void decodeMessage(byte[] message, int offset, int length) {
 			
-			switch((int) message[MESSAGE_TYPE_OFFSET]) {
+			switch((int) message[offset + MESSAGE_TYPE_OFFSET]) {
 			
 			case MessageType.HELLO:
-				onHello(Hello.fromBytes(message, length));
+				onHello(Hello.fromBytes(message, offset, length));
+				break;
+				
+			case MessageType.JOIN_ROOM:
+				onJoinRoom(JoinRoom.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.PLACE_ARMY:
-				onPlaceArmies(PlaceArmies.fromBytes(message, length));
+				onPlaceArmies(PlaceArmies.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.EXCHANGE_CARDS:
-				onExchangeCards(ExchangeCards.fromBytes(message, length));
+				onExchangeCards(ExchangeCards.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.ATTACK:
-				onAttack(Attack.fromBytes(message, length));
+				onAttack(Attack.fromBytes(message, offset, length));
+				break;
+				
+			case MessageType.BLITZ:
+				onBlitz(Blitz.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.TRANSFER_ARMIES:
-				onTransferArmies(TransferArmies.fromBytes(message, length));
+				onTransferArmies(TransferArmies.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.END_TURN:
-				onEndTurn(EndTurn.fromBytes(message, length));
+				onEndTurn(EndTurn.fromBytes(message, offset, length));
 				break;
 				
 			case MessageType.CHAT:
-				onChat(Chat.fromBytes(message, length));
+				onChat(Chat.fromBytes(message, offset, length));
+				break;
+				
+			case MessageType.RESYNC:
+				onResync(Resync.fromBytes(message, offset, length));
 				break;
 			
 			}
@@ -437,23 +560,34 @@ public final class ServerInstance {
 			
 		}
 		
-		public void sendMessage(byte[] message) {
+		// Called by the room when it could not apply one of this client's moves
+		void moveRejected(String move) {
 			
-			synchronized(pendingOut) {
-				
-				if(quit)
-					return;
-				
-				pendingOut.add(message);
-				pendingOut.notifyAll();
-				
-			}
+			log("Received " + move + " packet at bad time from " + name);
+			kill();
+			
+		}
+		
+		// Returns false if the message was dropped
+		public boolean sendMessage(byte[] message) {
+			
+			if(quit)
+				return false;
+			
+			return connection.sendMessage(message);
 			
 		}
 		
 		@Override
 		public String toString() {
-			return name;
+			
+			GameRoom room = this.room;
+			
+			if(room == null)
+				return name;
+			
+			return name + (isSpectator() ? " (watching " : " (") + room + ")";
+			
 		}
 		
 		private void onHello(Hello hello) {
@@ -476,21 +610,42 @@ public final class ServerInstance {
 			
 			helloReceived = true;
 			
-			synchronized(clients) {
+			name = hello.NAME;
+			log(name + " connected to the server");
+			updateClientList();
+			
+		}
+		
+		private void onJoinRoom(JoinRoom joinRoom) {
+			
+			if(!helloReceived || room != null) {
 				
-				name = hello.NAME;
-				log(name + " connected to the server");
-				updateClientList();
+				log("Received join room packet at wrong time from " + name);
+				kill();
+				return;
 				
 			}
 			
-			broadcastPlayerList();
+			if(joinRoom == null) {
+				
+				log("Received bad join room packet from " + name);
+				kill();
+				return;
+				
+			}
+			
+			if(!joinRoom(this, joinRoom.ROOM, joinRoom.ID)) {
+				
+				GameFail fail = new GameFail("Room " + joinRoom.ROOM + " is not accepting " + (joinRoom.ID == JoinRoom.SPECTATOR ? "spectators" : "players"));
+				connection.sendMessage(fail.toBytes(null));
+				
+			}
 			
 		}
 		
 		private void onPlaceArmies(PlaceArmies placeArmies) {
 			
-			if(!helloReceived || !hasStartedGame()) {
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
 				
 				log("Received place army packet at wrong time from " + name);
 				kill();
@@ -506,21 +661,13 @@ public final class ServerInstance {
 				
 			}
 			
-			if(!data.doMove(id, placeArmies)) {
-				
-				log("Received place armies packet at bad time from " + name);
-				kill();
-				return;
-				
-			}
-			
-			broadcastGameState();
+			room.doMove(this, placeArmies);
 			
 		}
 		
 		private void onExchangeCards(ExchangeCards exchangeCards) {
 			
-			if(!helloReceived || !hasStartedGame()) {
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
 				
 				log("Received exchange cards packet at wrong time from " + name);
 				kill();
@@ -536,21 +683,13 @@ public final class ServerInstance {
 				
 			}
 			
-			if(!data.doMove(id, exchangeCards)) {
-				
-				log("Received exchange cards packet at bad time from " + name);
-				kill();
-				return;
-				
-			}
-			
-			broadcastGameState();
+			room.doMove(this, exchangeCards);
 			
 		}
 		
 		private void onAttack(Attack attack) {
 			
-			if(!helloReceived || !hasStartedGame()) {
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
 				
 				log("Received attack packet at wrong time from " + name);
 				kill();
@@ -566,21 +705,35 @@ public final class ServerInstance {
 				
 			}
 			
-			if(!data.doMove(id, attack)) {
+			room.doMove(this, attack);
+			
+		}
+		
+		private void onBlitz(Blitz blitz) {
+			
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
+				
+				log("Received blitz packet at wrong time from " + name);
+				kill();
+				return;
+				
+			}
+			
+			if(blitz == null) {
 				
-				log("Received attack packet at bad time from " + name);
+				log("Received bad blitz packet from " + name);
 				kill();
 				return;
 				
 			}
 			
-			broadcastGameState();
+			room.doMove(this, blitz);
 			
 		}
 		
 		private void onTransferArmies(TransferArmies transferArmies) {
 			
-			if(!helloReceived || !hasStartedGame()) {
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
 				
 				log("Received transfer armies packet at wrong time from " + name);
 				kill();
@@ -596,21 +749,13 @@ public final class ServerInstance {
 				
 			}
 			
-			if(!data.doMove(id, transferArmies)) {
-				
-				log("Received transfer armies packet at bad time from " + name);
-				kill();
-				return;
-				
-			}
-			
-			broadcastGameState();
+			room.doMove(this, transferArmies);
 			
 		}
 		
 		private void onEndTurn(EndTurn endTurn) {
 			
-			if(!helloReceived || !hasStartedGame()) {
+			if(!helloReceived || room == null || !room.hasStartedGame()) {
 				
 				log("Received end turn packet at wrong time from " + name);
 				kill();
@@ -626,60 +771,81 @@ public final class ServerInstance {
 				
 			}
 			
-			if(!data.doMove(id, endTurn)) {
+			room.doMove(this, endTurn);
+			
+		}
+		
+		private void onChat(Chat chat) {
+			
+			if(!helloReceived || room == null) {
+				
+				log("Received chat packet at wrong time from " + name);
+				kill();
+				return;
+				
+			}
+			
+			if(chat == null || !chat.getPlayerID().equals(id)) {
 				
-				log("Received end turn packet at bad time from " + name);
+				log("Received bad chat packet from " + name);
 				kill();
 				return;
 				
 			}
 			
-			broadcastGameState();
+			room.broadcastChat(chat);
 			
 		}
 		
-		private void onChat(Chat chat) {
+		private void onResync(Resync resync) {
 			
-			if(!helloReceived) {
+			if(!helloReceived || room == null) {
 				
-				log("Received chat packet at wrong time from " + name);
+				log("Received resync packet at wrong time from " + name);
 				kill();
 				return;
 				
 			}
 			
-			if(!chat.getPlayerID().equals(id)) {
+			if(resync == null) {
 				
-				log("Received bad chat packet from " + name);
+				log("Received bad resync packet from " + name);
 				kill();
 				return;
 				
 			}
 			
-			broadcastChat(chat);
+			room.resync(this);
 			
 		}
 		
 	}
 	
-	private void log(String message) {
-		SwingUtilities.invokeLater(new LogUpdater(message));
+	void log(String message) {
+		log.log(message);
 	}
 	
 	private void updateClientList() {
-		SwingUtilities.invokeLater(serverWindow);
-	}
-	
-	private final class LogUpdater implements Runnable {
 		
-		private final String log;
+		// Several updates before the window gets to run collapse into one
+		if(serverWindow != null && clientListPending.compareAndSet(false, true))
+			SwingUtilities.invokeLater(serverWindow);
 		
-		public LogUpdater(String log) {
-			this.log = log;
-		}
+	}
+	
+	private final class WindowLog implements AsyncLog.Sink {
 		
-		public void run() {
-			serverWindow.log(log);
+		@Override
+		public void write(String[] lines, int count) {
+			
+			String[] batch = Arrays.copyOf(lines, count);
+			
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					serverWindow.log(batch);
+				}
+			});
+			
 		}
 		
 	}
@@ -734,23 +900,33 @@ public final class ServerInstance {
 			this.setSize(640, 480);
 			
 			run();
-			valueChanged(null);
 			
 		}
 		
-		public void log(String log) {
-			logModel.add(logModel.getSize(), log);
+		public void log(String[] lines) {
+			
+			for(String line : lines)
+				logModel.add(logModel.getSize(), line);
+			
 		}
 
 		@Override
 		public void actionPerformed(ActionEvent e) {
 			
 			if(e.getSource() == start) {
-				startGame();
+				
+				ClientConnection client = clientList.getSelectedValue();
+				GameRoom room = client == null ? null : client.getRoom();
+				
+				if(room != null)
+					room.startGame();
+				
+				run();
+				
 			}
 			
 			else if(e.getSource() == quit) {
-				kill();
+				shutdown();
 				dispose();
 			}
 			
@@ -758,8 +934,8 @@ public final class ServerInstance {
 				
 				ClientConnection client = clientList.getSelectedValue();
 				
-				if(client != null )
-					kick(client.id);
+				if(client != null)
+					client.kill();
 				
 			}
 			
@@ -791,21 +967,23 @@ public final class ServerInstance {
 		@Override
 		public void run() {
 			
+			clientListPending.set(false);
+			
 			// Update buttons, clients
-			synchronized(clients) {
-				
-				start.setEnabled(clients.size() >= 2 && clients.size() <= 6);
-				
-				clientModel.clear();
-				clientModel.addAll(clients.values());
-				
-			}
+			clientModel.clear();
+			clientModel.addAll(clients.values());
+			
+			valueChanged(null);
 			
 		}
 
 		@Override
 		public void valueChanged(ListSelectionEvent e) {
-			kick.setEnabled(clientList.getSelectedValue() != null);
+			ClientConnection client = clientList.getSelectedValue();
+			GameRoom room = client == null ? null : client.getRoom();
+			
+			kick.setEnabled(client != null);
+			start.setEnabled(room != null && room.canStartGame());
 		}
 		
 	}
@@ -0,0 +1,478 @@
+package conquest;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Plays bots against each other in this process, straight on GameData as the
+// server would, for tuning bots and for checking rule changes over many
+// games. Each game runs on one thread of a fork join pool, which rollout bots
+// also split their playouts over, and games share nothing until their
+// results are added up at the end. Seats go round the strategies from one
+// game to the next so no strategy always moves first. Bots see the game as
+// clients do, without the other players' cards.
+//
+//	java conquest.Tournament [--games=N] [--threads=N] [--bots=<strategy>,<strategy>...] [--max-turns=N] [--seed=N]
+//
+// Strategies are mcts[:<ms per move>], rollout[:<playouts per move>] and
+// playout, the quick moves playouts are made of.
+public final class Tournament {
+	
+	public static final int DEFAULT_GAMES = 100;
+	public static final int DEFAULT_MAX_TURNS = 1000;
+	public static final String DEFAULT_BOTS = "mcts:20,rollout:10,playout";
+	
+	// Searches run on the game's thread, which already has a core to itself
+	private static final Executor SAME_THREAD = new Executor() {
+		
+		@Override
+		public void execute(Runnable runnable) {
+			runnable.run();
+		}
+		
+	};
+	
+	private final ForkJoinPool pool;
+	private final RolloutEngine engine;
+	private final String[] strategies;
+	private final int maxTurns;
+	
+	public Tournament(ForkJoinPool pool, String[] strategies, int maxTurns) {
+		
+		if(strategies.length < 2 || strategies.length > GameState.MAX_PLAYERS || maxTurns < 1)
+			throw new IllegalArgumentException();
+		
+		this.pool = pool;
+		this.engine = new RolloutEngine(pool);
+		this.strategies = strategies.clone();
+		this.maxTurns = maxTurns;
+		
+		// Fails on strategies that do not exist before any game starts
+		for(String strategy : strategies)
+			newBot(strategy, 0L);
+		
+	}
+	
+	// Plays the games on the pool and waits for all of them
+	public Results play(int games, long seed) {
+		
+		GameRandom random = new GameRandom(seed);
+		ArrayList<ForkJoinTask<Results>> tasks = new ArrayList<ForkJoinTask<Results>>(games);
+		long start = System.nanoTime();
+		
+		for(int game = 0; game < games; ++game) {
+			
+			final long gameSeed = random.nextLong();
+			final int rotation = game % strategies.length;
+			
+			tasks.add(pool.submit(new Callable<Results>() {
+				
+				@Override
+				public Results call() {
+					return playGame(gameSeed, rotation);
+				}
+				
+			}));
+			
+		}
+		
+		Results results = new Results(strategies);
+		
+		for(ForkJoinTask<Results> task : tasks)
+			results.add(task.join());
+		
+		results.nanos = System.nanoTime() - start;
+		results.threads = pool.getParallelism();
+		
+		return results;
+		
+	}
+	
+	private Results playGame(long seed, int rotation) {
+		
+		GameRandom random = new GameRandom(seed);
+		int players = strategies.length;
+		String[] seats = new String[players];
+		Bot[] bots = new Bot[players];
+		TreeSet<Integer> ids = new TreeSet<Integer>();
+		
+		for(int seat = 0; seat < players; ++seat) {
+			
+			seats[seat] = strategies[(seat + rotation) % players];
+			bots[seat] = newBot(seats[seat], random.nextLong());
+			ids.add(seat + 1);
+			
+		}
+		
+		GameData data = new GameData(ids, random.nextLong());
+		data.initializeGame();
+		
+		Results results = new Results(strategies);
+		GameState view = new GameState();
+		int turns = 0, exchanges = 0;
+		long start = System.nanoTime();
+		
+		for(int seat = 0; seat < players; ++seat)
+			results.standing(seats[seat]).games++;
+		
+		while(data.phase() != GamePhase.VICTORY && turns < maxTurns) {
+			
+			Integer playerID = data.getPlayerTurn().getID();
+			data.copyInto(view);
+			
+			int slot = view.slotOf(playerID);
+			
+			for(int other = 0; other < players; ++other)
+				if(other != slot)
+					view.setPlayer(other, view.playerID(other), view.freeArmies(other), 0L, view.cardCount(other));
+			
+			long move = bots[slot].chooseMove(view, slot);
+			
+			// A move the server would turn down is a bug in a bot or the rules
+			if(!apply(data, playerID, move)) {
+				
+				results.rejected++;
+				
+				if(results.firstRejected == null)
+					results.firstRejected = seats[slot] + " tried to " + GameRules.toString(move) + " in the " + view.phase() + " phase";
+				
+				break;
+				
+			}
+			
+			results.moves++;
+			
+			switch(GameRules.type(move)) {
+				
+			case GameRules.END_TURN:
+				++turns;
+				break;
+				
+			case GameRules.EXCHANGE:
+				
+				++exchanges;
+				results.exchangeArmies += GameData.exchangeArmies(view.exchanges());
+				results.standing(seats[slot]).exchanges++;
+				break;
+				
+			}
+			
+		}
+		
+		results.nanos = System.nanoTime() - start;
+		results.gameNanos = results.nanos;
+		results.games = 1;
+		results.turns = turns;
+		results.exchanges = exchanges;
+		results.mostExchanges = exchanges;
+		
+		PlayerData winner = data.winner();
+		
+		if(winner != null) {
+			
+			results.standing(seats[winner.getID() - 1]).wins++;
+			results.shortestGame = results.longestGame = turns;
+			
+		}
+		
+		else
+			results.unfinished = 1;
+		
+		return results;
+		
+	}
+	
+	private static boolean apply(GameData data, Integer playerID, long move) {
+		
+		Message message = GameRules.toMessage(move);
+		
+		switch(GameRules.type(move)) {
+			
+		case GameRules.PLACE:
+			return data.doMove(playerID, (PlaceArmies) message);
+			
+		case GameRules.ATTACK:
+			return data.doMove(playerID, (Attack) message);
+			
+		case GameRules.TRANSFER:
+			return data.doMove(playerID, (TransferArmies) message);
+			
+		case GameRules.END_TURN:
+			return data.doMove(playerID, (EndTurn) message);
+			
+		case GameRules.EXCHANGE:
+			return data.doMove(playerID, (ExchangeCards) message);
+			
+		default:
+			return false;
+			
+		}
+		
+	}
+	
+	private Bot newBot(String strategy, long seed) {
+		
+		int colon = strategy.indexOf(':');
+		String name = colon < 0 ? strategy : strategy.substring(0, colon);
+		String parameter = colon < 0 ? null : strategy.substring(colon + 1);
+		
+		try {
+			
+			switch(name) {
+				
+			case "mcts":
+				return new MctsBot(SAME_THREAD, 1, parameter == null ? MctsBot.DEFAULT_BUDGET_MILLIS : Long.parseLong(parameter), seed);
+				
+			case "rollout":
+				return new RolloutBot(engine, parameter == null ? RolloutBot.DEFAULT_PLAYOUTS : Integer.parseInt(parameter), seed);
+				
+			case "playout":
+				
+				if(parameter == null)
+					return new PlayoutBot(seed);
+				
+				break;
+				
+			}
+			
+		} catch(NumberFormatException e) {}
+		
+		throw new IllegalArgumentException("Unknown strategy:  " + strategy);
+		
+	}
+	
+	// Plays the moves playouts are made of, as a baseline
+	private static final class PlayoutBot implements Bot {
+		
+		private final GameRandom random;
+		private final long[] moves;
+		
+		public PlayoutBot(long seed) {
+			
+			this.random = new GameRandom(seed);
+			this.moves = new long[MctsBot.MAX_MOVES];
+			
+		}
+		
+		@Override
+		public long chooseMove(GameState state, int slot) {
+			return RolloutEngine.rolloutMove(state, moves, random);
+		}
+		
+	}
+	
+	// How each strategy did, games counts the games it had a seat in
+	public static final class Standing {
+		
+		private int games;
+		private int wins;
+		private long exchanges;
+		
+		public int getGames() {
+			return games;
+		}
+		
+		public int getWins() {
+			return wins;
+		}
+		
+		public double getWinRate() {
+			return games == 0 ? 0.0 : (double) wins / games;
+		}
+		
+		public long getExchanges() {
+			return exchanges;
+		}
+		
+	}
+	
+	public static final class Results {
+		
+		private final LinkedHashMap<String, Standing> standings = new LinkedHashMap<String, Standing>();
+		
+		private int games;
+		private int unfinished;
+		private int rejected;
+		private String firstRejected;
+		
+		private long moves;
+		private long turns;
+		private int shortestGame = Integer.MAX_VALUE;
+		private int longestGame;
+		
+		private long exchanges;
+		private long exchangeArmies;
+		private int mostExchanges;
+		
+		private long nanos;
+		private long gameNanos;
+		private int threads = 1;
+		
+		private Results(String[] strategies) {
+			
+			for(String strategy : strategies)
+				standing(strategy);
+			
+		}
+		
+		private Standing standing(String strategy) {
+			
+			Standing standing = standings.get(strategy);
+			
+			if(standing == null)
+				standings.put(strategy, standing = new Standing());
+			
+			return standing;
+			
+		}
+		
+		private void add(Results other) {
+			
+			for(Map.Entry<String, Standing> entry : other.standings.entrySet()) {
+				
+				Standing standing = standing(entry.getKey());
+				
+				standing.games += entry.getValue().games;
+				standing.wins += entry.getValue().wins;
+				standing.exchanges += entry.getValue().exchanges;
+				
+			}
+			
+			games += other.games;
+			unfinished += other.unfinished;
+			rejected += other.rejected;
+			
+			if(firstRejected == null)
+				firstRejected = other.firstRejected;
+			
+			moves += other.moves;
+			turns += other.turns;
+			shortestGame = Math.min(shortestGame, other.shortestGame);
+			longestGame = Math.max(longestGame, other.longestGame);
+			
+			exchanges += other.exchanges;
+			exchangeArmies += other.exchangeArmies;
+			mostExchanges = Math.max(mostExchanges, other.mostExchanges);
+			
+			gameNanos += other.gameNanos;
+			
+		}
+		
+		public Map<String, Standing> getStandings() {
+			return Collections.unmodifiableMap(standings);
+		}
+		
+		public int getGames() {
+			return games;
+		}
+		
+		// Games stopped at the turn limit or by a rejected move
+		public int getUnfinished() {
+			return unfinished;
+		}
+		
+		public int getRejected() {
+			return rejected;
+		}
+		
+		public String getFirstRejected() {
+			return firstRejected;
+		}
+		
+		public double turnsPerGame() {
+			return games == 0 ? 0.0 : (double) turns / games;
+		}
+		
+		public double movesPerGame() {
+			return games == 0 ? 0.0 : (double) moves / games;
+		}
+		
+		public double turnsPerSecond() {
+			return nanos == 0 ? 0.0 : turns / (nanos / 1e9);
+		}
+		
+		// Turns per second of time spent in games, what one thread manages
+		public double turnsPerSecondPerThread() {
+			return gameNanos == 0 ? 0.0 : turns / (gameNanos / 1e9);
+		}
+		
+		public double exchangesPerGame() {
+			return games == 0 ? 0.0 : (double) exchanges / games;
+		}
+		
+		public double armiesPerExchange() {
+			return exchanges == 0 ? 0.0 : (double) exchangeArmies / exchanges;
+		}
+		
+		public void print(PrintStream out) {
+			
+			out.println(String.format("%d games on %d threads in %.1f s, %d unfinished, %d rejected moves", games, threads, nanos / 1e9, unfinished, rejected));
+			
+			if(firstRejected != null)
+				out.println("First rejected move:  " + firstRejected);
+			
+			out.println(String.format("%-16s %8s %8s %9s %12s", "Strategy", "Games", "Wins", "Win rate", "Exchanges"));
+			
+			for(Map.Entry<String, Standing> entry : standings.entrySet()) {
+				
+				Standing standing = entry.getValue();
+				out.println(String.format("%-16s %8d %8d %8.1f%% %12d", entry.getKey(), standing.games, standing.wins, standing.getWinRate() * 100.0, standing.exchanges));
+				
+			}
+			
+			if(games > unfinished)
+				out.println(String.format("%.1f turns per game, %d to %d in finished games, %.1f moves per game", turnsPerGame(), shortestGame, longestGame, movesPerGame()));
+			
+			out.println(String.format("%.0f turns per second, %.0f per thread", turnsPerSecond(), turnsPerSecondPerThread()));
+			out.println(String.format("%.2f exchanges per game, at most %d in one, %.1f armies per exchange", exchangesPerGame(), mostExchanges, armiesPerExchange()));
+			
+		}
+		
+	}
+	
+	public static void main(String[] args) {
+		
+		int games = DEFAULT_GAMES, threads = Runtime.getRuntime().availableProcessors(), maxTurns = DEFAULT_MAX_TURNS;
+		String bots = DEFAULT_BOTS;
+		long seed = GameRandom.newSeed();
+		
+		for(String arg : args) {
+			
+			String value = arg.substring(arg.indexOf('=') + 1);
+			
+			if(arg.startsWith("--games="))
+				games = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--threads="))
+				threads = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--bots="))
+				bots = value;
+			
+			else if(arg.startsWith("--max-turns="))
+				maxTurns = Integer.parseInt(value);
+			
+			else if(arg.startsWith("--seed="))
+				seed = Long.parseLong(value);
+			
+			else {
+				
+				System.out.println("Usage:  java conquest.Tournament [--games=N] [--threads=N] [--bots=<strategy>,<strategy>...] [--max-turns=N] [--seed=N]");
+				System.out.println("Strategies:  mcts[:<ms per move>] | rollout[:<playouts per move>] | playout");
+				return;
+				
+			}
+			
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Tournament tournament = new Tournament(pool, bots.split(","), maxTurns);
+		
+		System.out.println(games + " games of " + bots + ", seed " + seed);
+		tournament.play(games, seed).print(System.out);
+		
+		pool.shutdown();
+		
+	}
+
+}
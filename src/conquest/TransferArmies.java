@@ -9,7 +9,7 @@ public class TransferArmies extends Message {
 	
 	public TransferArmies(Territory from, Territory to, int armies) {
 		
-		if(from.isAdjacentTo(to))
+		if(!from.isAdjacentTo(to))
 			throw new IllegalArgumentException();
 		
 		if(armies < 1)
@@ -60,15 +60,19 @@ public class TransferArmies extends Message {
 	}
 	
 	public static TransferArmies fromBytes(byte[] message, int length) {
+		return fromBytes(message, 0, length);
+	}
+	
+	public static TransferArmies fromBytes(byte[] message, int offset, int length) {
 		
-		if(!validateHeader(MessageType.TRANSFER_ARMIES, message, length))
+		if(!validateHeader(MessageType.TRANSFER_ARMIES, message, offset, length))
 			return null;
 		
 		length -= HEADER_LENGTH;
 		if(length != LENGTH)
 			return null;
 		
-		int i = HEADER_LENGTH;
+		int i = offset + HEADER_LENGTH;
 		
 		int fromID = message[i++] & 0xff;
 		
@@ -89,7 +93,7 @@ public class TransferArmies extends Message {
 		Territory from = Territory.fromID(fromID);
 		Territory to = Territory.fromID(toID);
 		
-		if(from.isAdjacentTo(to))
+		if(!from.isAdjacentTo(to))
 			return null;
 		
 		return new TransferArmies(from, to, armies);
@@ -0,0 +1,99 @@
+package conquest;
+
+import java.io.*;
+import java.net.*;
+
+public abstract class Transport {
+	
+	public interface Acceptor {
+		
+		public void connectionAccepted(Connection connection);
+		
+		public void acceptFailed(Exception e);
+		
+	}
+	
+	private volatile Acceptor acceptor;
+	private volatile int queueCapacity = OutboundQueue.DEFAULT_CAPACITY;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.COALESCE;
+	private volatile boolean tcpNoDelay = true;
+	
+	private final WriteStats writeStats = new WriteStats();
+	
+	public static Transport create(IOMode mode, int port) throws IOException {
+		
+		switch(mode) {
+			
+		case BLOCKING:
+		case VIRTUAL:
+			return new BlockingTransport(port, IOThreads.forMode(mode));
+			
+		case SELECTOR:
+			return new SelectorTransport(port, SelectorTransport.DEFAULT_LOOPS);
+			
+		}
+		
+		throw new IllegalArgumentException("Unknown I/O mode:  " + mode);
+		
+	}
+	
+	public final void start(Acceptor acceptor) {
+		
+		if(acceptor == null)
+			throw new NullPointerException();
+		
+		if(this.acceptor != null)
+			throw new IllegalStateException("Transport already started");
+		
+		this.acceptor = acceptor;
+		listen();
+		
+	}
+	
+	protected final Acceptor getAcceptor() {
+		return acceptor;
+	}
+	
+	// Applies to connections accepted from now on
+	public final void setOutboundLimit(int queueCapacity, OverflowPolicy overflowPolicy) {
+		
+		if(queueCapacity < 1)
+			throw new IllegalArgumentException();
+		
+		if(overflowPolicy == null)
+			throw new NullPointerException();
+		
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = overflowPolicy;
+		
+	}
+	
+	protected final OutboundQueue newOutboundQueue() {
+		return new OutboundQueue(queueCapacity, overflowPolicy);
+	}
+	
+	// Messages are already batched per write, so Nagle's algorithm only adds
+	// delay by default
+	public final void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+	
+	protected final void configureSocket(Socket socket) throws SocketException {
+		socket.setTcpNoDelay(tcpNoDelay);
+	}
+	
+	// Shared by all connections
+	public final WriteStats getWriteStats() {
+		return writeStats;
+	}
+	
+	protected abstract void listen();
+	
+	public abstract int getLocalPort();
+	
+	// Stops accepting new connections, but leaves accepted connections open
+	public abstract void stopAccepting();
+	
+	public abstract void close();
+
+}
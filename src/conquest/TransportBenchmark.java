@@ -0,0 +1,191 @@
+package conquest;
+
+import java.lang.management.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// Compares the I/O modes by holding many connections open to a transport that
+// echoes every message, then sending a message over all of them in rounds.
+//
+//	java conquest.TransportBenchmark [connections] [rounds] [modes...]
+public final class TransportBenchmark {
+	
+	public static final int DEFAULT_CONNECTIONS = 2000;
+	public static final int DEFAULT_ROUNDS = 20;
+	
+	private static final long TIMEOUT_MILLIS = 60000;
+	
+	private TransportBenchmark() {}
+	
+	public static void main(String[] args) throws Exception {
+		
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONNECTIONS;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+		
+		ArrayList<IOMode> modes = new ArrayList<IOMode>();
+		
+		for(int i = 2; i < args.length; ++i)
+			modes.add(IOMode.valueOf(args[i].toUpperCase()));
+		
+		if(modes.isEmpty()) {
+			
+			modes.add(IOMode.BLOCKING);
+			
+			if(IOThreads.virtualThreadsAvailable())
+				modes.add(IOMode.VIRTUAL);
+			
+			modes.add(IOMode.SELECTOR);
+			
+		}
+		
+		System.out.println(connections + " connections, " + rounds + " rounds");
+		System.out.println(String.format("%-10s %12s %10s %10s %14s %14s", "mode", "connect ms", "threads", "heap MB", "round ms", "messages/s"));
+		
+		for(IOMode mode : modes)
+			run(mode, connections, rounds);
+		
+	}
+	
+	private static void run(IOMode mode, int connections, int rounds) throws Exception {
+		
+		final AtomicInteger accepted = new AtomicInteger();
+		Transport transport = Transport.create(mode, 0);
+		
+		transport.start(new Transport.Acceptor() {
+			
+			public void connectionAccepted(final Connection connection) {
+				
+				connection.start(new ConnectionHandler() {
+					
+					public void messageReceived(byte[] message, int offset, int length) {
+						connection.sendMessage(Arrays.copyOfRange(message, offset, offset + length));
+					}
+					
+					public void connectionClosed(String reason) {}
+					
+				});
+				
+				accepted.incrementAndGet();
+				
+			}
+			
+			public void acceptFailed(Exception e) {
+				System.out.println(mode + ":  " + e.getMessage());
+			}
+			
+		});
+		
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+		Selector selector = Selector.open();
+		SocketChannel[] channels = new SocketChannel[connections];
+		long[] received = new long[connections];
+		
+		try {
+			
+			// Connect
+			long start = System.nanoTime();
+			
+			for(int i = 0; i < connections; ++i) {
+				
+				channels[i] = SocketChannel.open(address);
+				channels[i].setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channels[i].configureBlocking(false);
+				channels[i].register(selector, SelectionKey.OP_READ, i);
+				
+			}
+			
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			
+			while(accepted.get() < connections) {
+				
+				if(System.currentTimeMillis() > deadline)
+					throw new IllegalStateException("Only " + accepted.get() + " connections were accepted");
+				
+				Thread.sleep(1);
+				
+			}
+			
+			double connectMillis = (System.nanoTime() - start) / 1e6;
+			
+			System.gc();
+			
+			int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+			double heap = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024.0 * 1024.0);
+			
+			// Echo rounds
+			byte[] message = new Chat(0, "benchmark").toBytes(null);
+			ByteBuffer readBuffer = ByteBuffer.allocate(FrameDecoder.DEFAULT_CAPACITY);
+			
+			start = System.nanoTime();
+			
+			for(int round = 1; round <= rounds; ++round) {
+				
+				for(SocketChannel channel : channels)
+					channel.write(ByteBuffer.wrap(message));
+				
+				long expected = (long) round * message.length;
+				int done = 0;
+				
+				for(long r : received)
+					done += r >= expected ? 1 : 0;
+				
+				while(done < connections) {
+					
+					if(System.currentTimeMillis() > deadline + TIMEOUT_MILLIS)
+						throw new IllegalStateException("Only " + done + " echoes were received");
+					
+					selector.select(100);
+					
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					
+					while(keys.hasNext()) {
+						
+						SelectionKey key = keys.next();
+						keys.remove();
+						
+						int i = (Integer) key.attachment();
+						readBuffer.clear();
+						
+						int read = channels[i].read(readBuffer);
+						
+						if(read < 0)
+							throw new IllegalStateException("Connection " + i + " was closed");
+						
+						if(received[i] < expected && received[i] + read >= expected)
+							++done;
+						
+						received[i] += read;
+						
+					}
+					
+				}
+				
+			}
+			
+			double roundMillis = (System.nanoTime() - start) / 1e6 / rounds;
+			double messagesPerSecond = connections / (roundMillis / 1000.0);
+			
+			System.out.println(String.format("%-10s %12.1f %10d %10.1f %14.2f %14.0f", mode, connectMillis, threads, heap, roundMillis, messagesPerSecond));
+			
+		} finally {
+			
+			for(SocketChannel channel : channels) {
+				
+				try {
+					if(channel != null)
+						channel.close();
+				} catch(Exception e) {}
+				
+			}
+			
+			selector.close();
+			transport.close();
+			
+		}
+		
+	}
+
+}
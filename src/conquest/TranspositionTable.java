@@ -0,0 +1,68 @@
+package conquest;
+
+import java.util.concurrent.atomic.*;
+
+// A fixed size table from position hashes to 64 bits of whatever the search
+// keeps about a position, shared by search threads without locking. Each
+// entry is two longs, the hash XORed with the data and the data itself, so an
+// entry half written by another thread no longer matches its hash and reads
+// as empty instead of giving another position's data. A new entry always
+// replaces the old one in its place.
+public final class TranspositionTable {
+	
+	public static final long NO_ENTRY = 0L;
+	
+	private final AtomicLongArray entries;
+	private final int mask;
+	
+	// Rounded up to a power of two
+	public TranspositionTable(int size) {
+		
+		if(size < 1 || size > 1 << 29)
+			throw new IllegalArgumentException("Bad table size:  " + size);
+		
+		int capacity = Integer.highestOneBit(size);
+		
+		if(capacity < size)
+			capacity <<= 1;
+		
+		this.entries = new AtomicLongArray(capacity * 2);
+		this.mask = capacity - 1;
+		
+	}
+	
+	public int size() {
+		return mask + 1;
+	}
+	
+	// Data stored for the hash, or NO_ENTRY
+	public long get(long hash) {
+		
+		int index = index(hash);
+		long data = entries.get(index + 1);
+		
+		return (entries.get(index) ^ data) == hash ? data : NO_ENTRY;
+		
+	}
+	
+	public void put(long hash, long data) {
+		
+		int index = index(hash);
+		
+		entries.set(index, hash ^ data);
+		entries.set(index + 1, data);
+		
+	}
+	
+	public void clear() {
+		
+		for(int i = 0; i < entries.length(); ++i)
+			entries.set(i, 0L);
+		
+	}
+	
+	private int index(long hash) {
+		return (int) (hash & mask) << 1;
+	}
+
+}
@@ -4,8 +4,6 @@ import java.util.*;
 
 public class Util {
 	
-	public static final Random RANDOM = new Random();
-	
 	public static int log2OfPowerOf2(long num) {
 		
 		int log2 = (num & 0xAAAAAAAAAAAAAAAAL) != 0 ? 1 : 0;
@@ -0,0 +1,53 @@
+package conquest;
+
+import java.util.concurrent.atomic.*;
+
+// Counts how many messages go out in each write so batching can be checked
+public final class WriteStats {
+	
+	private final LongAdder frames;
+	private final LongAdder writes;
+	private final LongAdder bytes;
+	
+	public WriteStats() {
+		
+		this.frames = new LongAdder();
+		this.writes = new LongAdder();
+		this.bytes = new LongAdder();
+		
+	}
+	
+	public void record(int frames, int bytes) {
+		
+		this.frames.add(frames);
+		this.writes.increment();
+		this.bytes.add(bytes);
+		
+	}
+	
+	public long getFrames() {
+		return frames.sum();
+	}
+	
+	public long getWrites() {
+		return writes.sum();
+	}
+	
+	public long getBytes() {
+		return bytes.sum();
+	}
+	
+	public double framesPerWrite() {
+		
+		long writes = getWrites();
+		
+		return writes == 0 ? 0.0 : (double) getFrames() / writes;
+		
+	}
+	
+	@Override
+	public String toString() {
+		return getFrames() + " messages, " + getBytes() + " bytes in " + getWrites() + " writes (" + String.format("%.2f", framesPerWrite()) + " messages per write)";
+	}
+
+}
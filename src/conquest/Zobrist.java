@@ -0,0 +1,139 @@
+package conquest;
+
+// Random keys for hashing positions the way chess programs do. A GameState's
+// hash is the XOR of one key for every territory's owner and army count, the
+// player whose turn it is, each player's free armies and cards, the exchanges
+// so far and the last conquest, so it can be kept up to date a few XORs at a
+// time as the state changes. Army counts go into buckets that grow with the
+// count, since positions with 40 or 41 armies on a territory play out about
+// the same. The deck order is left out, the dice make it a matter of chance.
+public final class Zobrist {
+	
+	static final int ARMY_BUCKETS = 32;
+	static final int EXCHANGE_BUCKETS = 32;
+	
+	private static final long SEED = 0x5a0b7157c0ffee11L;
+	
+	private static final long[] OWNERS;
+	private static final long[] ARMIES;
+	private static final long[] FREE_ARMIES;
+	private static final long[] CARDS;
+	private static final long[] TURNS;
+	private static final long[] EXCHANGES;
+	private static final long[] CONQUERING;
+	private static final long[] CONQUERED;
+	private static final long CONQUERED_THIS_TURN;
+	
+	static {
+		
+		GameRandom random = new GameRandom(SEED);
+		
+		OWNERS = keys(random, Territory.TERRITORY_COUNT * GameState.MAX_PLAYERS);
+		ARMIES = keys(random, Territory.TERRITORY_COUNT * ARMY_BUCKETS);
+		FREE_ARMIES = keys(random, GameState.MAX_PLAYERS * ARMY_BUCKETS);
+		CARDS = keys(random, GameState.MAX_PLAYERS * Card.CARD_COUNT);
+		TURNS = keys(random, GameState.MAX_PLAYERS);
+		EXCHANGES = keys(random, EXCHANGE_BUCKETS);
+		CONQUERING = keys(random, Territory.TERRITORY_COUNT);
+		CONQUERED = keys(random, Territory.TERRITORY_COUNT);
+		CONQUERED_THIS_TURN = random.nextLong();
+		
+	}
+	
+	private Zobrist() {}
+	
+	private static long[] keys(GameRandom random, int count) {
+		
+		long[] keys = new long[count];
+		
+		for(int i = 0; i < count; ++i)
+			keys[i] = random.nextLong();
+		
+		return keys;
+		
+	}
+	
+	// Whole hash of a state, the same as GameState.hash() keeps
+	public static long hash(GameState state) {
+		
+		long hash = turn(state.playerTurn()) ^ exchanges(state.exchanges());
+		
+		for(int slot = 0; slot < state.playerCount(); ++slot)
+			hash ^= freeArmies(slot, state.freeArmies(slot)) ^ cards(slot, state.cardMask(slot));
+		
+		for(int territory = 0; territory < Territory.TERRITORY_COUNT; ++territory)
+			hash ^= owner(territory, state.owner(territory)) ^ armies(territory, state.armies(territory));
+		
+		return hash ^ conquest(state.conqueredThisTurn(), state.lastConquering(), state.lastConquered());
+		
+	}
+	
+	// 0 to 3 armies get a bucket each, then two buckets for every doubling
+	static int armyBucket(int armies) {
+		
+		if(armies < 4)
+			return armies;
+		
+		int log = 31 - Integer.numberOfLeadingZeros(armies);
+		
+		return Math.min(ARMY_BUCKETS - 1, 2 * log + ((armies >>> (log - 1)) & 1));
+		
+	}
+	
+	// Keys of the empty state are all 0, so a cleared state hashes to 0
+	
+	static long owner(int territory, int owner) {
+		return owner == GameState.NO_PLAYER ? 0L : OWNERS[territory * GameState.MAX_PLAYERS + owner];
+	}
+	
+	// Counts are stored in 16 bits, so they are hashed the same way
+	static long armies(int territory, int armies) {
+		
+		int bucket = armyBucket(armies & 0xffff);
+		
+		return bucket == 0 ? 0L : ARMIES[territory * ARMY_BUCKETS + bucket];
+		
+	}
+	
+	static long freeArmies(int slot, int armies) {
+		
+		int bucket = armyBucket(armies);
+		
+		return bucket == 0 ? 0L : FREE_ARMIES[slot * ARMY_BUCKETS + bucket];
+		
+	}
+	
+	static long cards(int slot, long cardMask) {
+		
+		long hash = 0L;
+		
+		for(long mask = cardMask; mask != 0L; mask &= mask - 1L)
+			hash ^= CARDS[slot * Card.CARD_COUNT + Long.numberOfTrailingZeros(mask)];
+		
+		return hash;
+		
+	}
+	
+	static long turn(int slot) {
+		return slot == GameState.NO_PLAYER ? 0L : TURNS[slot];
+	}
+	
+	static long exchanges(int exchanges) {
+		return exchanges == 0 ? 0L : EXCHANGES[Math.min(EXCHANGE_BUCKETS - 1, exchanges)];
+	}
+	
+	static long conquest(boolean conqueredThisTurn, int lastConquering, int lastConquered) {
+		
+		long hash = conqueredThisTurn ? CONQUERED_THIS_TURN : 0L;
+		
+		if(lastConquering != GameState.NO_TERRITORY)
+			hash ^= CONQUERING[lastConquering];
+		
+		if(lastConquered != GameState.NO_TERRITORY)
+			hash ^= CONQUERED[lastConquered];
+		
+		return hash;
+		
+	}
+
+}